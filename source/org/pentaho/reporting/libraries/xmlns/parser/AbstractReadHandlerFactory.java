@@ -17,9 +17,12 @@
 
 package org.pentaho.reporting.libraries.xmlns.parser;
 
+import java.lang.reflect.Constructor;
 import java.util.HashMap;
 import java.util.Iterator;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.pentaho.reporting.libraries.base.config.Configuration;
 import org.pentaho.reporting.libraries.base.util.ObjectUtilities;
 
@@ -34,71 +37,62 @@ import org.pentaho.reporting.libraries.base.util.ObjectUtilities;
 public abstract class AbstractReadHandlerFactory
 {
   /**
-   * The TagDefinitionKey is a compund key to lookup handler implementations
-   * using a namespace and tagname.
+   * A resolved handler class. The constructor is looked up once when the factory is configured, so that creating
+   * a handler does not need to load classes or search for constructors.
    */
-  private static class TagDefinitionKey
+  private static final class HandlerConstructor
   {
-    private String namespace;
-    private String tagName;
+    private final Constructor constructor;
 
     /**
-     * Creates a new key.
+     * Creates a new handler constructor.
      *
-     * @param namespace the namespace (can be null for undefined).
-     * @param tagName   the tagname (can be null for undefined).
+     * @param constructor the no-arg constructor of the handler class, or null if no handler should be created.
      */
-    private TagDefinitionKey(final String namespace, final String tagName)
+    private HandlerConstructor(final Constructor constructor)
     {
-      this.namespace = namespace;
-      this.tagName = tagName;
+      this.constructor = constructor;
     }
 
     /**
-     * Compares this key for equality with an other object.
+     * Creates a new handler instance.
      *
-     * @param o the other object.
-     * @return true, if this key is the same as the given object, false otherwise.
+     * @return the handler, or null if the handler could not be created.
      */
-    public boolean equals(final Object o)
+    public XmlReadHandler newInstance()
     {
-      if (this == o)
+      if (constructor == null)
       {
-        return true;
+        return null;
       }
-      if (o == null || getClass() != o.getClass())
+      try
       {
-        return false;
+        return (XmlReadHandler) constructor.newInstance(EMPTY_ARGS);
       }
-
-      final TagDefinitionKey that = (TagDefinitionKey) o;
-
-      if (namespace != null ? !namespace.equals(that.namespace) : that.namespace != null)
-      {
-        return false;
-      }
-      if (tagName != null ? !tagName.equals(that.tagName) : that.tagName != null)
+      catch (Exception e)
       {
-        return false;
+        logger.warn("Unable to instantiate read handler " + constructor.getDeclaringClass(), e);
+        return null;
       }
-
-      return true;
-    }
-
-    /**
-     * Computes the hashcode for this key.
-     *
-     * @return the hashcode.
-     */
-    public int hashCode()
-    {
-      int result = (namespace != null ? namespace.hashCode() : 0);
-      result = 29 * result + (tagName != null ? tagName.hashCode() : 0);
-      return result;
     }
   }
 
+  private static final Log logger = LogFactory.getLog(AbstractReadHandlerFactory.class);
+  private static final Object[] EMPTY_ARGS = new Object[0];
+  private static final Class[] EMPTY_PARAMETERS = new Class[0];
+
+  /**
+   * A marker for namespaces that are explicitly configured to not be parsed.
+   */
+  private static final HandlerConstructor NO_HANDLER = new HandlerConstructor(null);
+
+  /**
+   * The default handlers, keyed by namespace. The global default is stored under the null key.
+   */
   private HashMap defaultDefinitions;
+  /**
+   * The handlers for specific tags as two-level map of namespace to a map of tag names to handlers.
+   */
   private HashMap tagData;
   private String defaultNamespace;
 
@@ -137,8 +131,8 @@ public abstract class AbstractReadHandlerFactory
         (conf.getConfigProperty(prefix + "namespace"));
 
     final String globalDefaultKey = prefix + "default";
-    final String globalValue = conf.getConfigProperty(globalDefaultKey);
-    if (isValidHandler(globalValue))
+    final HandlerConstructor globalValue = createHandlerConstructor(conf.getConfigProperty(globalDefaultKey));
+    if (globalValue != null)
     {
       defaultDefinitions.put(null, globalValue);
     }
@@ -147,7 +141,7 @@ public abstract class AbstractReadHandlerFactory
       // let the loading fail ..
       if (defaultDefinitions.containsKey(null) == false)
       {
-        defaultDefinitions.put(null, "");
+        defaultDefinitions.put(null, NO_HANDLER);
       }
     }
 
@@ -168,14 +162,15 @@ public abstract class AbstractReadHandlerFactory
       {
         continue;
       }
-      if (isValidHandler(tagData))
+      final HandlerConstructor handlerConstructor = createHandlerConstructor(tagData);
+      if (handlerConstructor != null)
       {
-        defaultDefinitions.put(nsUri, tagData);
+        defaultDefinitions.put(nsUri, handlerConstructor);
       }
       else
       {
         // let the loading fail .. to indicate we want no parsing ..
-        defaultDefinitions.put(nsUri, "");
+        defaultDefinitions.put(nsUri, NO_HANDLER);
       }
     }
 
@@ -190,7 +185,8 @@ public abstract class AbstractReadHandlerFactory
       {
         continue;
       }
-      if (isValidHandler(tagData) == false)
+      final HandlerConstructor handlerConstructor = createHandlerConstructor(tagData);
+      if (handlerConstructor == null)
       {
         continue;
       }
@@ -198,7 +194,7 @@ public abstract class AbstractReadHandlerFactory
       final int delim = tagDef.indexOf('.');
       if (delim == -1)
       {
-        this.tagData.put(new TagDefinitionKey(null, tagDef), tagData);
+        putTagHandler(null, tagDef, handlerConstructor);
       }
       else
       {
@@ -210,27 +206,69 @@ public abstract class AbstractReadHandlerFactory
         }
 
         final String tagName = tagDef.substring(delim + 1);
-        this.tagData.put(new TagDefinitionKey(nsUri, tagName), tagData);
+        putTagHandler(nsUri, tagName, handlerConstructor);
       }
     }
   }
 
   /**
-   * Checks, whether the given handler classname can be instantiated
-   * and is in fact an object of the required target-type.
+   * Registers a handler for the given tag.
+   *
+   * @param namespace          the namespace of the tag.
+   * @param tagName            the tag name.
+   * @param handlerConstructor the handler.
+   */
+  private void putTagHandler(final String namespace,
+                             final String tagName,
+                             final HandlerConstructor handlerConstructor)
+  {
+    HashMap tags = (HashMap) tagData.get(namespace);
+    if (tags == null)
+    {
+      tags = new HashMap();
+      tagData.put(namespace, tags);
+    }
+    tags.put(tagName, handlerConstructor);
+  }
+
+  /**
+   * Resolves the given handler classname into a handler constructor. The handler is valid, if the class can be
+   * instantiated and is in fact an object of the required target-type.
    *
    * @param className the classname that should be checked.
-   * @return true, if the handler is valid, false otherwise.
+   * @return the handler constructor, or null if the handler is not valid.
    */
-  private boolean isValidHandler(final String className)
+  private HandlerConstructor createHandlerConstructor(final String className)
   {
     if (className == null)
     {
-      return false;
+      return null;
+    }
+
+    try
+    {
+      final ClassLoader classLoader = ObjectUtilities.getClassLoader(getClass());
+      final Class handlerClass = Class.forName(className, false, classLoader);
+      if (getTargetClass().isAssignableFrom(handlerClass) == false)
+      {
+        return null;
+      }
+      final HandlerConstructor handlerConstructor =
+          new HandlerConstructor(handlerClass.getConstructor(EMPTY_PARAMETERS));
+      if (handlerConstructor.newInstance() == null)
+      {
+        return null;
+      }
+      return handlerConstructor;
+    }
+    catch (Exception e)
+    {
+      return null;
+    }
+    catch (LinkageError e)
+    {
+      return null;
     }
-    final Object o = ObjectUtilities.loadAndInstantiate
-        (className, getClass(), getTargetClass());
-    return o != null;
   }
 
   /**
@@ -254,32 +292,27 @@ public abstract class AbstractReadHandlerFactory
       namespace = defaultNamespace;
     }
 
-    final TagDefinitionKey key = new TagDefinitionKey(namespace, tagname);
-    final String tagVal = (String) tagData.get(key);
-    if (tagVal != null)
+    final HashMap tags = (HashMap) tagData.get(namespace);
+    if (tags != null)
     {
-      final Object o = ObjectUtilities.loadAndInstantiate
-          (tagVal, getClass(), getTargetClass());
-      return (XmlReadHandler) o;
+      final HandlerConstructor tagValue = (HandlerConstructor) tags.get(tagname);
+      if (tagValue != null)
+      {
+        return tagValue.newInstance();
+      }
     }
 
-    final String className = (String) defaultDefinitions.get(namespace);
-    if (className != null)
+    final HandlerConstructor defaultValue = (HandlerConstructor) defaultDefinitions.get(namespace);
+    if (defaultValue != null)
     {
-      final Object o = ObjectUtilities.loadAndInstantiate
-          (className, getClass(), getTargetClass());
-      return (XmlReadHandler) o;
+      return defaultValue.newInstance();
     }
 
-    final String fallbackName = (String) defaultDefinitions.get(null);
-    final Object fallbackValue = ObjectUtilities.loadAndInstantiate
-        (fallbackName, getClass(), getTargetClass());
+    final HandlerConstructor fallbackValue = (HandlerConstructor) defaultDefinitions.get(null);
     if (fallbackValue != null)
     {
-      return (XmlReadHandler) fallbackValue;
+      return fallbackValue.newInstance();
     }
     return null;
   }
-
-
 }
@@ -120,12 +120,15 @@ public abstract class AbstractXmlReadHandler implements XmlReadHandler
       final XmlReadHandler childHandler = getHandlerForChild(uri, tagName, attrs);
       if (childHandler == null)
       {
-        logger.warn("Unknown tag <" + uri + ':' + tagName + ">: Start to ignore this element and all of its childs. " + getLocatorString());
-        logger.debug(this.getClass());
-        final IgnoreAnyChildReadHandler ignoreAnyChildReadHandler =
-            new IgnoreAnyChildReadHandler();
-        ignoreAnyChildReadHandler.init(getRootHandler(), uri, tagName);
-        this.rootHandler.recurse(ignoreAnyChildReadHandler, uri, tagName, attrs);
+        if (logger.isWarnEnabled())
+        {
+          logger.warn("Unknown tag <" + uri + ':' + tagName + ">: Start to ignore this element and all of its childs. " + getLocatorString());
+        }
+        if (logger.isDebugEnabled())
+        {
+          logger.debug(this.getClass());
+        }
+        this.rootHandler.skipElement();
       }
       else
       {
@@ -339,6 +342,16 @@ public abstract class AbstractXmlReadHandler implements XmlReadHandler
 
   }
 
+  /**
+   * Releases the resources held by this handler. This is called by the root handler if parsing failed before the
+   * element of this handler has been completed. The default implementation does nothing.
+   *
+   * @see RootXmlReadHandler#dispose()
+   */
+  public void dispose()
+  {
+  }
+
   /**
    * Creates a working copy of the current parse state.
    *
@@ -18,10 +18,10 @@
 package org.pentaho.reporting.libraries.xmlns.parser;
 
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.ArrayList;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -46,6 +46,7 @@ import org.xml.sax.ErrorHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
 
 /**
  * A base-class for resource-factories that load their resources from XML files. This class provides a multiplexing
@@ -64,15 +65,103 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
   public static final String CONTENTBASE_KEY = "content-base";
   private static final byte[] EMPTY_DATA = new byte[0];
 
-  private ArrayList modules;
-  private SAXParserFactory factory;
+  private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
+
+  /**
+   * A handler that ignores all events. Pooled readers point to this handler while they are not in use, so that
+   * they do not keep the last document's handlers alive.
+   */
+  private static final DefaultHandler2 NULL_HANDLER = new DefaultHandler2();
+
+  /**
+   * A configured XMLReader that is kept for reuse by the thread that created it. The thread holds it through a
+   * soft reference, so that idle readers can be reclaimed when memory runs low.
+   */
+  private static class PooledReader
+  {
+    private final XMLReader reader;
+    private final boolean xmlnsUrisNotAvailable;
+    private boolean lexicalHandlerSupported;
+    private boolean inUse;
+
+    private PooledReader(final XMLReader reader,
+                         final boolean xmlnsUrisNotAvailable)
+    {
+      this.reader = reader;
+      this.xmlnsUrisNotAvailable = xmlnsUrisNotAvailable;
+      this.lexicalHandlerSupported = true;
+    }
+  }
+
+  private static final XmlFactoryModule[] EMPTY_MODULES = new XmlFactoryModule[0];
+
+  /**
+   * The registered modules. The array is never modified; registering a module replaces it with a new array.
+   */
+  private volatile XmlFactoryModule[] modules;
+  private volatile SAXParserFactory factory;
+  private final ThreadLocal pooledReaders;
+  private volatile boolean readerReuseEnabled;
 
   /**
    * Default-Constructor.
    */
   protected AbstractXmlResourceFactory()
   {
-    modules = new ArrayList();
+    modules = EMPTY_MODULES;
+    pooledReaders = new ThreadLocal();
+  }
+
+  /**
+   * Checks, whether XMLReaders are reused between parse operations.
+   *
+   * @return true, if readers are reused, false otherwise.
+   * @see #setReaderReuseEnabled(boolean)
+   */
+  public boolean isReaderReuseEnabled()
+  {
+    return readerReuseEnabled;
+  }
+
+  /**
+   * Defines, whether XMLReaders are reused between parse operations. Reuse is disabled by default. When enabled,
+   * each thread keeps one configured reader per factory until memory runs low. {@link #getParser()} and
+   * {@link #configureReader(XMLReader, MultiplexRootElementHandler)} are then only called when a new reader is
+   * needed, so reuse must not be enabled for implementations that configure the reader differently for each
+   * document.
+   * <p/>
+   * Disabling the reuse releases the calling thread's reader at once; other threads release their readers with
+   * their next parse operation.
+   *
+   * @param readerReuseEnabled true, if readers should be reused, false otherwise.
+   */
+  public void setReaderReuseEnabled(final boolean readerReuseEnabled)
+  {
+    this.readerReuseEnabled = readerReuseEnabled;
+    if (readerReuseEnabled == false)
+    {
+      pooledReaders.remove();
+    }
+  }
+
+  /**
+   * Returns the calling thread's pooled reader.
+   *
+   * @return the pooled reader, or null if there is none.
+   */
+  private PooledReader getPooledReader()
+  {
+    final SoftReference reference = (SoftReference) pooledReaders.get();
+    if (reference == null)
+    {
+      return null;
+    }
+    final PooledReader pooledReader = (PooledReader) reference.get();
+    if (pooledReader == null)
+    {
+      pooledReaders.remove();
+    }
+    return pooledReader;
   }
 
 
@@ -88,11 +177,25 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
   protected SAXParser getParser()
       throws ParserConfigurationException, SAXException
   {
-    if (this.factory == null)
+    SAXParserFactory factory = this.factory;
+    if (factory == null)
     {
-      this.factory = SAXParserFactory.newInstance();
+      synchronized (this)
+      {
+        factory = this.factory;
+        if (factory == null)
+        {
+          factory = SAXParserFactory.newInstance();
+          this.factory = factory;
+        }
+      }
+    }
+
+    // SAXParserFactory implementations are not required to be thread-safe.
+    synchronized (factory)
+    {
+      return factory.newSAXParser();
     }
-    return this.factory.newSAXParser();
   }
 
 
@@ -137,6 +240,102 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
     }
   }
 
+  /**
+   * Returns a configured XMLReader for parsing the document handled by the given handler. If reader reuse is enabled,
+   * the calling thread's pooled reader is returned, unless that reader is already busy with an outer parse
+   * operation. Readers that are not pooled are created and configured from scratch.
+   *
+   * @param handler the handler for the document.
+   * @return the reader.
+   * @throws ParserConfigurationException if there is a problem configuring the parser.
+   * @throws SAXException                 if there is a problem with the parser initialisation
+   */
+  private XMLReader acquireReader(final MultiplexRootElementHandler handler)
+      throws ParserConfigurationException, SAXException
+  {
+    if (readerReuseEnabled == false)
+    {
+      // drop a reader left over from a time when reuse was enabled.
+      pooledReaders.remove();
+      final XMLReader reader = getParser().getXMLReader();
+      configureReader(reader, handler);
+      return reader;
+    }
+
+    PooledReader pooledReader = getPooledReader();
+    if (pooledReader != null && pooledReader.inUse)
+    {
+      // a nested parse operation started from within a handler. The outer parse owns the pooled reader.
+      final XMLReader reader = getParser().getXMLReader();
+      configureReader(reader, handler);
+      return reader;
+    }
+
+    if (pooledReader == null)
+    {
+      final XMLReader reader = getParser().getXMLReader();
+      configureReader(reader, handler);
+      pooledReader = new PooledReader(reader, handler.isXmlnsUrisNotAvailable());
+      pooledReaders.set(new SoftReference(pooledReader));
+    }
+    else
+    {
+      handler.setXmlnsUrisNotAvailable(pooledReader.xmlnsUrisNotAvailable);
+      if (pooledReader.lexicalHandlerSupported)
+      {
+        try
+        {
+          pooledReader.reader.setProperty(LEXICAL_HANDLER_PROPERTY, handler.getCommentHandler());
+        }
+        catch (SAXException se)
+        {
+          pooledReader.lexicalHandlerSupported = false;
+        }
+      }
+    }
+    pooledReader.inUse = true;
+    return pooledReader.reader;
+  }
+
+  /**
+   * Returns a reader after the parse operation finished. Pooled readers are reset so that they do not reference the
+   * document's handlers any longer; after a failed parse, the pooled reader is discarded, as its state is unknown.
+   *
+   * @param reader the reader.
+   * @param failed true, if the parse operation failed.
+   */
+  private void releaseReader(final XMLReader reader, final boolean failed)
+  {
+    final PooledReader pooledReader = getPooledReader();
+    if (pooledReader == null || pooledReader.reader != reader)
+    {
+      return;
+    }
+
+    if (failed)
+    {
+      pooledReaders.remove();
+      return;
+    }
+
+    reader.setContentHandler(NULL_HANDLER);
+    reader.setDTDHandler(NULL_HANDLER);
+    reader.setEntityResolver(NULL_HANDLER);
+    reader.setErrorHandler(NULL_HANDLER);
+    if (pooledReader.lexicalHandlerSupported)
+    {
+      try
+      {
+        reader.setProperty(LEXICAL_HANDLER_PROPERTY, NULL_HANDLER);
+      }
+      catch (SAXException se)
+      {
+        pooledReader.lexicalHandlerSupported = false;
+      }
+    }
+    pooledReader.inUse = false;
+  }
+
   /**
    * Creates a resource by interpreting the data given in the resource-data object. If additional datastreams need to
    * be parsed, the provided resource manager should be used. This method parses the given resource-data as XML stream.
@@ -153,11 +352,10 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
                          final ResourceKey context)
       throws ResourceCreationException, ResourceLoadingException
   {
+    XMLReader reader = null;
+    MultiplexRootElementHandler handler = null;
     try
     {
-      final SAXParser parser = getParser();
-
-      final XMLReader reader = parser.getXMLReader();
       final XmlFactoryModule[] rootHandlers = getModules();
       if (rootHandlers.length == 0)
       {
@@ -180,9 +378,8 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
         version = -1;
       }
 
-      final MultiplexRootElementHandler handler =
-          new MultiplexRootElementHandler(manager, targetKey,
-              contextKey, version, rootHandlers);
+      handler = new MultiplexRootElementHandler(manager, targetKey,
+          contextKey, version, rootHandlers, true);
 
       final DefaultConfiguration parserConfiguration = handler.getParserConfiguration();
       final URL value = manager.toURL(contextKey);
@@ -191,7 +388,7 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
         parserConfiguration.setConfigProperty(CONTENTBASE_KEY, value.toExternalForm());
       }
 
-      configureReader(reader, handler);
+      reader = acquireReader(handler);
       reader.setContentHandler(handler);
       reader.setDTDHandler(handler);
       reader.setEntityResolver(handler.getEntityResolver());
@@ -210,6 +407,8 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
       }
 
       reader.parse(input);
+      releaseReader(reader, false);
+      reader = null;
 
       final Object createdProduct = finishResult
           (handler.getResult(), manager, data, contextKey);
@@ -228,6 +427,15 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
     {
       throw new ResourceLoadingException("Unable to read the stream from document: " + data.getKey(), e);
     }
+    finally
+    {
+      if (reader != null)
+      {
+        // parsing failed, so some handlers may never see the end of their elements.
+        handler.dispose();
+        releaseReader(reader, true);
+      }
+    }
   }
 
   /**
@@ -249,11 +457,10 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
                               final Map parameters)
       throws ResourceKeyCreationException, ResourceCreationException, ResourceLoadingException
   {
+    XMLReader reader = null;
+    MultiplexRootElementHandler handler = null;
     try
     {
-      final SAXParser parser = getParser();
-
-      final XMLReader reader = parser.getXMLReader();
       final XmlFactoryModule[] rootHandlers = getModules();
 
       final ResourceKey targetKey = manager.createKey(EMPTY_DATA);
@@ -267,8 +474,7 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
         contextKey = context;
       }
 
-      final MultiplexRootElementHandler handler =
-          new MultiplexRootElementHandler(manager, targetKey, contextKey, -1, rootHandlers);
+      handler = new MultiplexRootElementHandler(manager, targetKey, contextKey, -1, rootHandlers, true);
 
       final DefaultConfiguration parserConfiguration = handler.getParserConfiguration();
       final URL value = manager.toURL(contextKey);
@@ -277,7 +483,7 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
         parserConfiguration.setConfigProperty(CONTENTBASE_KEY, value.toExternalForm());
       }
 
-      configureReader(reader, handler);
+      reader = acquireReader(handler);
       reader.setContentHandler(handler);
       reader.setDTDHandler(handler);
       reader.setEntityResolver(handler.getEntityResolver());
@@ -295,6 +501,8 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
       }
 
       reader.parse(input);
+      releaseReader(reader, false);
+      reader = null;
 
       return finishResult(handler.getResult(), manager, new RawResourceData(targetKey), contextKey);
     }
@@ -311,17 +519,25 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
     {
       throw new ResourceLoadingException("Unable to read the stream", e);
     }
-
+    finally
+    {
+      if (reader != null)
+      {
+        // parsing failed, so some handlers may never see the end of their elements.
+        handler.dispose();
+        releaseReader(reader, true);
+      }
+    }
   }
 
   /**
-   * Returns the registered XmlFactoryModules as array.
+   * Returns the registered XmlFactoryModules as array. The array is shared and must not be modified.
    *
    * @return the modules as array.
    */
   private XmlFactoryModule[] getModules()
   {
-    return (XmlFactoryModule[]) modules.toArray(new XmlFactoryModule[modules.size()]);
+    return modules;
   }
 
   /**
@@ -402,13 +618,17 @@ public abstract class AbstractXmlResourceFactory implements ResourceFactory
    * @param factoryModule the factory module.
    * @throws NullPointerException if the module given is null.
    */
-  public void registerModule(final XmlFactoryModule factoryModule)
+  public synchronized void registerModule(final XmlFactoryModule factoryModule)
   {
     if (factoryModule == null)
     {
       throw new NullPointerException();
     }
-    modules.add(factoryModule);
+    final XmlFactoryModule[] oldModules = modules;
+    final XmlFactoryModule[] newModules = new XmlFactoryModule[oldModules.length + 1];
+    System.arraycopy(oldModules, 0, newModules, 0, oldModules.length);
+    newModules[oldModules.length] = factoryModule;
+    modules = newModules;
   }
 
   /**
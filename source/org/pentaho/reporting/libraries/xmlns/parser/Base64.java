@@ -17,6 +17,10 @@
 
 package org.pentaho.reporting.libraries.xmlns.parser;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
 /**
  * Provides encoding of raw bytes to base64-encoded characters, and decoding of
  * base64 characters to raw bytes. date: 06 August 1998 modified: 14 February
@@ -43,39 +47,125 @@ public class Base64
    */
   public static char[] encode(final byte[] data)
   {
-    final char[] out = new char[((data.length + 2) / 3) * 4];
+    final char[] out = new char[getEncodedLength(data.length)];
+    encode(data, 0, data.length, out, 0);
+    return out;
+  }
+
+  /**
+   * Computes the number of characters needed to encode the given number of
+   * bytes, including padding.
+   *
+   * @param length the number of bytes.
+   * @return the number of base64 characters.
+   */
+  public static int getEncodedLength(final int length)
+  {
+    return ((length + 2) / 3) * 4;
+  }
+
+  /**
+   * Encodes the given range of bytes into the given character array. The
+   * target array must have room for at least
+   * {@link #getEncodedLength(int)} characters.
+   *
+   * @param data      the bytes to encode.
+   * @param offset    the index of the first byte.
+   * @param length    the number of bytes.
+   * @param out       the target array.
+   * @param outOffset the index of the first character written.
+   * @return the number of characters written.
+   */
+  public static int encode(final byte[] data,
+                           final int offset,
+                           final int length,
+                           final char[] out,
+                           final int outOffset)
+  {
+    if (offset < 0 || length < 0 || offset + length > data.length)
+    {
+      throw new IndexOutOfBoundsException();
+    }
+    if (outOffset < 0 || outOffset + getEncodedLength(length) > out.length)
+    {
+      throw new IndexOutOfBoundsException();
+    }
+
+    final char[] alphabet = ALPHABET;
+    final int end = offset + length;
+    final int groupEnd = offset + (length / 3) * 3;
+    int index = outOffset;
 
     //
-    // 3 bytes encode to 4 chars.  Output is always an even
-    // multiple of 4 characters.
+    // 3 bytes encode to 4 chars.
     //
-    for (int i = 0, index = 0; i < data.length; i += 3, index += 4)
+    for (int i = offset; i < groupEnd; i += 3, index += 4)
     {
+      final int val = ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8) | (data[i + 2] & 0xff);
+      out[index] = alphabet[val >>> 18];
+      out[index + 1] = alphabet[(val >>> 12) & 0x3f];
+      out[index + 2] = alphabet[(val >>> 6) & 0x3f];
+      out[index + 3] = alphabet[val & 0x3f];
+    }
 
-      int val = (0xFF & data[i]);
-      val <<= 8;
-      boolean trip = false;
-      if ((i + 1) < data.length)
-      {
-        val |= (0xFF & data[i + 1]);
-        trip = true;
-      }
-      val <<= 8;
-      boolean quad = false;
-      if ((i + 2) < data.length)
+    //
+    // the last, incomplete group is padded with '='.
+    //
+    final int remaining = end - groupEnd;
+    if (remaining > 0)
+    {
+      int val = (data[groupEnd] & 0xff) << 16;
+      if (remaining == 2)
       {
-        val |= (0xFF & data[i + 2]);
-        quad = true;
+        val |= (data[groupEnd + 1] & 0xff) << 8;
       }
-      out[index + 3] = Base64.ALPHABET[(quad ? (val & 0x3F) : 64)];
-      val >>= 6;
-      out[index + 2] = Base64.ALPHABET[(trip ? (val & 0x3F) : 64)];
-      val >>= 6;
-      out[index + 1] = Base64.ALPHABET[val & 0x3F];
-      val >>= 6;
-      out[index] = Base64.ALPHABET[val & 0x3F];
+      out[index] = alphabet[val >>> 18];
+      out[index + 1] = alphabet[(val >>> 12) & 0x3f];
+      out[index + 2] = (remaining == 2) ? alphabet[(val >>> 6) & 0x3f] : '=';
+      out[index + 3] = '=';
+      index += 4;
     }
-    return out;
+    return index - outOffset;
+  }
+
+  /**
+   * Encodes all remaining bytes of the source buffer into the target buffer.
+   * The positions of both buffers are advanced.
+   *
+   * @param data the bytes to encode.
+   * @param out  the target buffer.
+   * @return the number of characters written.
+   * @throws BufferOverflowException if the target buffer has not enough room.
+   */
+  public static int encode(final ByteBuffer data, final CharBuffer out)
+  {
+    final int length = data.remaining();
+    final int encodedLength = getEncodedLength(length);
+    if (out.remaining() < encodedLength)
+    {
+      throw new BufferOverflowException();
+    }
+
+    if (data.hasArray() && out.hasArray())
+    {
+      encode(data.array(), data.arrayOffset() + data.position(), length,
+          out.array(), out.arrayOffset() + out.position());
+      data.position(data.position() + length);
+      out.position(out.position() + encodedLength);
+      return encodedLength;
+    }
+
+    final byte[] bytes = new byte[Math.min(length, 3072)];
+    final char[] chars = new char[getEncodedLength(bytes.length)];
+    int remaining = length;
+    while (remaining > 0)
+    {
+      final int count = Math.min(remaining, bytes.length);
+      data.get(bytes, 0, count);
+      out.put(chars, 0, encode(bytes, 0, count, chars, 0));
+      remaining -= count;
+    }
+    return encodedLength;
   }
 
   /**
@@ -84,86 +174,245 @@ public class Base64
    * the input will be performed.
    * <p/>
    * As of version 1.2 this method will properly handle input containing junk
-   * characters (newlines and the like) rather than throwing an error. It does
-   * this by pre-parsing the input and generating from that a count of VALID
-   * input characters.
+   * characters (newlines and the like) rather than throwing an error. The
+   * input is decoded in a single pass; the result is only copied if the
+   * input contained junk characters in the middle of the data.
    *
    * @param data the character data.
    * @return The decoded data.
    */
   public static byte[] decode(final char[] data)
   {
-    // as our input could contain non-BASE64 data (newlines,
-    // whitespace of any sort, whatever) we must first adjust
-    // our count of USABLE data so that...
-    // (a) we don't misallocate the output array, and
-    // (b) think that we miscalculated our data length
-    //     just because of extraneous throw-away junk
-
-    int tempLen = data.length;
-    for (int ix = 0; ix < data.length; ix++)
+    // trailing padding and whitespace does not produce any output, everything
+    // else is assumed to be valid data. This gives the exact output size for
+    // all input without junk in the middle.
+    final byte[] out = new byte[getMaxDecodedLength(trimLength(data, 0, data.length))];
+    final int length = decode(data, 0, data.length, out, 0);
+    if (length == out.length)
     {
-      if ((data[ix] > 255) || Base64.CODES[data[ix]] < 0)
-      {
-        --tempLen; // ignore non-valid chars and padding
-      }
+      return out;
     }
-    // calculate required length:
-    //  -- 3 bytes for every 4 valid base64 chars
-    //  -- plus 2 bytes if there are 3 extra base64 chars,
-    //     or plus 1 byte if there are 2 extra.
 
-    int len = (tempLen / 4) * 3;
-    if ((tempLen % 4) == 3)
+    final byte[] result = new byte[length];
+    System.arraycopy(out, 0, result, 0, length);
+    return result;
+  }
+
+  /**
+   * Computes the maximum number of bytes produced when decoding the given
+   * number of characters. The actual number is smaller if the characters
+   * contain padding or junk characters.
+   *
+   * @param length the number of characters.
+   * @return the maximum number of decoded bytes.
+   */
+  public static int getMaxDecodedLength(final int length)
+  {
+    return (int) (((long) length * 3) / 4);
+  }
+
+  /**
+   * Decodes the given range of characters into the given byte array in a
+   * single pass. Characters that are not part of the base64 alphabet are
+   * skipped. The target array must have room for all decoded bytes;
+   * {@link #getMaxDecodedLength(int)} is always sufficient.
+   *
+   * @param data      the character data.
+   * @param offset    the index of the first character.
+   * @param length    the number of characters.
+   * @param out       the target array.
+   * @param outOffset the index of the first byte written.
+   * @return the number of bytes written.
+   */
+  public static int decode(final char[] data,
+                           final int offset,
+                           final int length,
+                           final byte[] out,
+                           final int outOffset)
+  {
+    if (offset < 0 || length < 0 || offset + length > data.length)
     {
-      len += 2;
+      throw new IndexOutOfBoundsException();
     }
-    if ((tempLen % 4) == 2)
+    final int end = trimLength(data, offset, length);
+    if (outOffset < 0 || outOffset + getMaxDecodedLength(end - offset) > out.length)
     {
-      len += 1;
+      throw new IndexOutOfBoundsException();
     }
 
-    final byte[] out = new byte[len];
-
-
+    final byte[] codes = CODES;
+    final int groupEnd = end - 3;
     int shift = 0; // # of excess bits stored in accum
     int accum = 0; // excess bits
-    int index = 0;
+    int index = outOffset;
+    int i = offset;
 
-    // we now go through the entire array (NOT using the 'tempLen' value)
-    for (int ix = 0; ix < data.length; ix++)
+    while (i < end)
     {
-      final int value = (data[ix] > 255) ? -1 : Base64.CODES[data[ix]];
+      if (shift == 0 && i < groupEnd)
+      {
+        // fast path: a complete group of 4 valid characters.
+        final char c0 = data[i];
+        final char c1 = data[i + 1];
+        final char c2 = data[i + 2];
+        final char c3 = data[i + 3];
+        if ((c0 | c1 | c2 | c3) < 256)
+        {
+          final int v0 = codes[c0];
+          final int v1 = codes[c1];
+          final int v2 = codes[c2];
+          final int v3 = codes[c3];
+          if ((v0 | v1 | v2 | v3) >= 0)
+          {
+            final int val = (v0 << 18) | (v1 << 12) | (v2 << 6) | v3;
+            out[index] = (byte) (val >> 16);
+            out[index + 1] = (byte) (val >> 8);
+            out[index + 2] = (byte) val;
+            index += 3;
+            i += 4;
+            continue;
+          }
+        }
+      }
 
+      // slow path: a single character, skipping over non-code.
+      final char c = data[i];
+      i += 1;
+      final int value = (c > 255) ? -1 : codes[c];
       if (value >= 0)
-      { // skip over non-code
-        accum <<= 6; // bits shift up by 6 each time thru
-        shift += 6; // loop, with new bits being put in
-        accum |= value; // at the bottom.
+      {
+        accum = (accum << 6) | value;
+        shift += 6;
         if (shift >= 8)
-        { // whenever there are 8 or more shifted in,
-          shift -= 8; // write them out (from the top, leaving any
-          out[index] = // excess at the bottom for next iteration.
-              (byte) ((accum >> shift) & 0xff);
+        {
+          shift -= 8;
+          out[index] = (byte) (accum >> shift);
           index += 1;
+          accum &= (1 << shift) - 1;
         }
       }
-      // we will also have skipped processing a padding null byte ('=') here;
-      // these are used ONLY for padding to an even length and do not legally
-      // occur as encoded data. for this reason we can ignore the fact that
-      // no index++ operation occurs in that special case: the out[] array is
-      // initialized to all-zero bytes to start with and that works to our
-      // advantage in this combination.
+    }
+    return index - outOffset;
+  }
+
+  /**
+   * Decodes all remaining characters of the source buffer into the target
+   * buffer. The positions of both buffers are advanced.
+   *
+   * @param data the character data.
+   * @param out  the target buffer.
+   * @return the number of bytes written.
+   * @throws BufferOverflowException if the target buffer has not enough room.
+   */
+  public static int decode(final CharBuffer data, final ByteBuffer out)
+  {
+    final int length = data.remaining();
+    int validLength = length;
+    while (validLength > 0 && isCode(data.get(data.position() + validLength - 1)) == false)
+    {
+      validLength -= 1;
+    }
+    if (out.remaining() < getMaxDecodedLength(validLength))
+    {
+      throw new BufferOverflowException();
     }
 
-    // if there is STILL something wrong we just have to throw up now!
-    if (index != out.length)
+    if (data.hasArray() && out.hasArray())
     {
-      throw new Error("Miscalculated data length (wrote "
-          + index + " instead of " + out.length + ')');
+      final int decodedLength = decode(data.array(), data.arrayOffset() + data.position(), length,
+          out.array(), out.arrayOffset() + out.position());
+      data.position(data.position() + length);
+      out.position(out.position() + decodedLength);
+      return decodedLength;
     }
 
-    return out;
+    // process in chunks that end after a complete group of 4 valid characters,
+    // so that no group is split between two chunks. The valid characters of an
+    // incomplete group are carried over into the next chunk.
+    final char[] chars = new char[Math.min(length, 4096)];
+    final byte[] bytes = new byte[getMaxDecodedLength(chars.length)];
+    int decodedLength = 0;
+    int remaining = length;
+    int carry = 0;
+    while (remaining > 0)
+    {
+      final int count = Math.min(remaining, chars.length - carry);
+      data.get(chars, carry, count);
+      remaining -= count;
+
+      final int available = carry + count;
+      final int usable = (remaining == 0) ? available : countCompleteGroups(chars, available);
+      final int written = decode(chars, 0, usable, bytes, 0);
+      out.put(bytes, 0, written);
+      decodedLength += written;
+
+      carry = 0;
+      for (int i = usable; i < available; i++)
+      {
+        if (isCode(chars[i]))
+        {
+          chars[carry] = chars[i];
+          carry += 1;
+        }
+      }
+    }
+    return decodedLength;
+  }
+
+  /**
+   * Computes the length of the longest prefix of the given characters that
+   * contains a multiple of 4 valid base64 characters.
+   *
+   * @param data   the characters.
+   * @param length the number of characters.
+   * @return the length of the prefix.
+   */
+  private static int countCompleteGroups(final char[] data, final int length)
+  {
+    int validCount = 0;
+    int prefix = 0;
+    for (int i = 0; i < length; i++)
+    {
+      if (isCode(data[i]))
+      {
+        validCount += 1;
+        if ((validCount & 3) == 0)
+        {
+          prefix = i + 1;
+        }
+      }
+    }
+    return prefix;
+  }
+
+  /**
+   * Computes the end of the given range without trailing padding and junk
+   * characters, which do not produce any output.
+   *
+   * @param data   the characters.
+   * @param offset the index of the first character.
+   * @param length the number of characters.
+   * @return the end index of the trimmed range.
+   */
+  private static int trimLength(final char[] data, final int offset, final int length)
+  {
+    int end = offset + length;
+    while (end > offset && isCode(data[end - 1]) == false)
+    {
+      end -= 1;
+    }
+    return end;
+  }
+
+  /**
+   * Checks, whether the given character is part of the base64 alphabet.
+   *
+   * @param c the character.
+   * @return true, if the character encodes data, false for padding and junk.
+   */
+  private static boolean isCode(final char c)
+  {
+    return c <= 255 && CODES[c] >= 0;
   }
 
 
@@ -174,9 +423,10 @@ public class Base64
       "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=".toCharArray();
 
   //
-  // lookup table for converting base64 characters to value in range 0..63
+  // lookup table for converting base64 characters to value in range 0..63,
+  // shared with the streaming decoder
   //
-  private static final byte[] CODES = new byte[256];
+  static final byte[] CODES = new byte[256];
 
   static
   {
@@ -0,0 +1,216 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A streaming base64 decoder. Characters written into this writer are decoded into a small, reusable byte buffer
+ * that is passed on to the target stream whenever it is full. Incomplete groups are carried over to the next call,
+ * so the encoded text can be passed in chunks of any size, for instance as delivered by a SAX parser.
+ * <p/>
+ * Like {@link Base64#decode(char[])}, the decoder silently skips all characters that are not part of the base64
+ * alphabet, including whitespace and padding.
+ * <p/>
+ * Closing the decoder writes all buffered bytes, but does not close the target stream.
+ *
+ * @author Thomas Morgner
+ */
+public class Base64Decoder extends Writer
+{
+  /**
+   * The default size of the byte buffer.
+   */
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private OutputStream target;
+  private byte[] buffer;
+  private int bufferLength;
+  private int accum;
+  private int shift;
+  private long decodedLength;
+  private boolean closed;
+
+  /**
+   * Creates a new decoder.
+   *
+   * @param target the stream receiving the decoded bytes.
+   */
+  public Base64Decoder(final OutputStream target)
+  {
+    if (target == null)
+    {
+      throw new NullPointerException();
+    }
+    this.target = target;
+    this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+  }
+
+  /**
+   * Decodes the given characters.
+   *
+   * @param data   the characters.
+   * @param offset the index of the first character.
+   * @param length the number of characters.
+   * @throws IOException if writing failed.
+   */
+  public void write(final char[] data, final int offset, final int length) throws IOException
+  {
+    ensureOpen();
+    if (offset < 0 || length < 0 || offset + length > data.length)
+    {
+      throw new IndexOutOfBoundsException();
+    }
+
+    final byte[] codes = Base64.CODES;
+    final int end = offset + length;
+    int accum = this.accum;
+    int shift = this.shift;
+    for (int i = offset; i < end; i++)
+    {
+      final char c = data[i];
+      if (c > 255)
+      {
+        continue;
+      }
+      final int value = codes[c];
+      if (value < 0)
+      {
+        continue;
+      }
+
+      accum = (accum << 6) | value;
+      shift += 6;
+      if (shift >= 8)
+      {
+        shift -= 8;
+        if (bufferLength == buffer.length)
+        {
+          flushBuffer();
+        }
+        buffer[bufferLength] = (byte) (accum >> shift);
+        bufferLength += 1;
+        accum &= (1 << shift) - 1;
+      }
+    }
+    this.accum = accum;
+    this.shift = shift;
+  }
+
+  /**
+   * Decodes a single character.
+   *
+   * @param c the character.
+   * @throws IOException if writing failed.
+   */
+  public void write(final int c) throws IOException
+  {
+    write(new char[]{(char) c}, 0, 1);
+  }
+
+  /**
+   * Decodes the given string.
+   *
+   * @param str    the encoded text.
+   * @param offset the index of the first character.
+   * @param length the number of characters.
+   * @throws IOException if writing failed.
+   */
+  public void write(final String str, final int offset, final int length) throws IOException
+  {
+    final char[] chars = new char[Math.min(length, DEFAULT_BUFFER_SIZE)];
+    int index = offset;
+    final int end = offset + length;
+    while (index < end)
+    {
+      final int count = Math.min(chars.length, end - index);
+      str.getChars(index, index + count, chars, 0);
+      write(chars, 0, count);
+      index += count;
+    }
+  }
+
+  /**
+   * Returns the number of bytes decoded so far.
+   *
+   * @return the number of decoded bytes.
+   */
+  public long getDecodedLength()
+  {
+    return decodedLength + bufferLength;
+  }
+
+  /**
+   * Writes the buffered bytes into the target stream.
+   *
+   * @throws IOException if writing failed.
+   */
+  private void flushBuffer() throws IOException
+  {
+    if (bufferLength > 0)
+    {
+      target.write(buffer, 0, bufferLength);
+      decodedLength += bufferLength;
+      bufferLength = 0;
+    }
+  }
+
+  /**
+   * Checks, whether the decoder is still open.
+   *
+   * @throws IOException if the decoder has been closed.
+   */
+  private void ensureOpen() throws IOException
+  {
+    if (closed)
+    {
+      throw new IOException("Decoder has been closed");
+    }
+  }
+
+  /**
+   * Passes all decoded bytes to the target stream and flushes the target.
+   *
+   * @throws IOException if writing failed.
+   */
+  public void flush() throws IOException
+  {
+    ensureOpen();
+    flushBuffer();
+    target.flush();
+  }
+
+  /**
+   * Writes all decoded bytes into the target stream. Trailing bits of an incomplete group are discarded. The target
+   * stream is not closed.
+   *
+   * @throws IOException if writing failed.
+   */
+  public void close() throws IOException
+  {
+    if (closed)
+    {
+      return;
+    }
+    flushBuffer();
+    target.flush();
+    closed = true;
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * A XmlReadHandler that decodes base64-encoded character-data for the given element. The data is decoded while the
+ * parser delivers it, so large binary content never has to be held in memory as text.
+ * <p/>
+ * The decoded bytes are either written into a stream given by the caller, or into a temporary file. Once the element
+ * has been parsed, the caller owns the temporary file and is responsible for deleting it. If parsing fails before the
+ * element is complete, the file is deleted when the root handler disposes this handler.
+ *
+ * @author Thomas Morgner
+ */
+public class Base64ReadHandler extends AbstractXmlReadHandler
+{
+  /**
+   * The stream given by the caller, or null if the data is spilled into a temporary file.
+   */
+  private OutputStream target;
+
+  /**
+   * The temporary file holding the decoded data.
+   */
+  private File file;
+
+  /**
+   * The stream writing into the temporary file.
+   */
+  private OutputStream fileStream;
+
+  /**
+   * The decoder for the current element.
+   */
+  private Base64Decoder decoder;
+
+  /**
+   * The number of bytes decoded.
+   */
+  private long decodedLength;
+
+  /**
+   * Creates a new handler that writes the decoded data into a temporary file.
+   */
+  public Base64ReadHandler()
+  {
+    super();
+  }
+
+  /**
+   * Creates a new handler that writes the decoded data into the given stream. The stream is flushed, but not closed,
+   * when the element ends.
+   *
+   * @param target the stream receiving the decoded data.
+   */
+  public Base64ReadHandler(final OutputStream target)
+  {
+    super();
+    if (target == null)
+    {
+      throw new NullPointerException();
+    }
+    this.target = target;
+  }
+
+  /**
+   * Starts parsing.
+   *
+   * @param attrs the attributes.
+   * @throws SAXException if there is a parsing error.
+   */
+  protected void startParsing(final Attributes attrs)
+      throws SAXException
+  {
+    if (target != null)
+    {
+      this.decoder = new Base64Decoder(target);
+      return;
+    }
+
+    try
+    {
+      this.file = File.createTempFile("base64", ".bin");
+      this.fileStream = new FileOutputStream(file);
+      this.decoder = new Base64Decoder(fileStream);
+    }
+    catch (IOException e)
+    {
+      discardFile();
+      throw new ParseException("Unable to create a temporary file", e, getLocator());
+    }
+  }
+
+  /**
+   * This method is called to process the character data between element tags.
+   *
+   * @param ch     the character buffer.
+   * @param start  the start index.
+   * @param length the length.
+   * @throws SAXException if there is a parsing error.
+   */
+  public void characters(final char[] ch, final int start, final int length)
+      throws SAXException
+  {
+    try
+    {
+      this.decoder.write(ch, start, length);
+    }
+    catch (IOException e)
+    {
+      throw new ParseException("Unable to write the decoded data", e, getLocator());
+    }
+  }
+
+  /**
+   * Done parsing.
+   *
+   * @throws SAXException if there is a parsing error.
+   */
+  protected void doneParsing()
+      throws SAXException
+  {
+    final Base64Decoder decoder = this.decoder;
+    this.decoder = null;
+    try
+    {
+      decoder.close();
+      this.decodedLength = decoder.getDecodedLength();
+      if (fileStream != null)
+      {
+        final OutputStream stream = fileStream;
+        this.fileStream = null;
+        stream.close();
+      }
+    }
+    catch (IOException e)
+    {
+      discardFile();
+      throw new ParseException("Unable to write the decoded data", e, getLocator());
+    }
+  }
+
+  /**
+   * Releases the temporary file if the element has not been completed. A stream given by the caller is left
+   * untouched.
+   */
+  public void dispose()
+  {
+    if (decoder == null)
+    {
+      return;
+    }
+    this.decoder = null;
+    discardFile();
+  }
+
+  /**
+   * Closes the stream writing into the temporary file and deletes the file. Errors are ignored, as this is only
+   * called while handling another failure.
+   */
+  private void discardFile()
+  {
+    if (fileStream != null)
+    {
+      try
+      {
+        fileStream.close();
+      }
+      catch (IOException e)
+      {
+        // ignored, the original failure is reported instead.
+      }
+      this.fileStream = null;
+    }
+    if (file != null)
+    {
+      file.delete();
+      this.file = null;
+    }
+  }
+
+  /**
+   * Returns the temporary file holding the decoded data. This is null, if the data has been written into a stream
+   * given by the caller.
+   *
+   * @return the file or null.
+   */
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Returns the number of decoded bytes.
+   *
+   * @return the number of decoded bytes.
+   */
+  public long getDecodedLength()
+  {
+    return decodedLength;
+  }
+
+  /**
+   * Returns the object for this element. This is the temporary file holding the decoded data, or the stream given
+   * by the caller.
+   *
+   * @return the object.
+   */
+  public Object getObject()
+  {
+    if (file != null)
+    {
+      return file;
+    }
+    return target;
+  }
+}
@@ -22,7 +22,11 @@ import org.xml.sax.SAXException;
 
 /**
  * A read-handler that silently ignores all childs. This readhandler produces no output.
+ * <p/>
+ * Unknown elements are no longer parsed with this handler; they are skipped by the
+ * root handler without creating any handler objects.
  *
+ * @see RootXmlReadHandler#skipElement()
  * @author Thomas Morgner
  */
 public class IgnoreAnyChildReadHandler extends AbstractXmlReadHandler
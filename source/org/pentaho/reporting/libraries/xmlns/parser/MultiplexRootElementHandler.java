@@ -129,10 +129,43 @@ public class MultiplexRootElementHandler extends RootXmlReadHandler
        final ResourceKey context,
        final long version,
        final XmlFactoryModule[] rootHandlers)
+  {
+    this(manager, source, context, version, rootHandlers, false);
+  }
+
+  /**
+   * Creates a new MultiplexRootElementHandler for the given root handler selection. A shared array of root handlers
+   * is used without copying it; the caller guarantees that it is never modified.
+   *
+   * @param manager      the resource manager that loaded this xml-file.
+   * @param source       the source-key that idenfies from where the file was loaded.
+   * @param context      the key that should be used to resolve relative paths.
+   * @param version      the versioning information for the root-file.
+   * @param rootHandlers the roothandlers, never null.
+   * @param shared       true, if the array is an immutable snapshot that can be used without copying it.
+   */
+  MultiplexRootElementHandler
+      (final ResourceManager manager,
+       final ResourceKey source,
+       final ResourceKey context,
+       final long version,
+       final XmlFactoryModule[] rootHandlers,
+       final boolean shared)
   {
     super(manager, source, context, version);
+    if (rootHandlers == null)
+    {
+      throw new NullPointerException();
+    }
     this.entityResolver = new RootEntityResolver();
-    this.rootHandlers = (XmlFactoryModule[]) rootHandlers.clone();
+    if (shared)
+    {
+      this.rootHandlers = rootHandlers;
+    }
+    else
+    {
+      this.rootHandlers = (XmlFactoryModule[]) rootHandlers.clone();
+    }
   }
 
   /**
@@ -270,8 +303,7 @@ public class MultiplexRootElementHandler extends RootXmlReadHandler
       uri = originalUri;
     }
 
-    attributes = new FixNamespaceUriAttributes(uri, attributes);
-    installRootHandler(readHandler, uri, localName, wrapAttributes(attributes));
+    installRootHandler(readHandler, uri, localName, wrapAttributes(normalizeAttributes(uri, attributes)));
   }
 
   public XmlFactoryModule getSelectedRootHandler()
@@ -0,0 +1,494 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import org.xml.sax.Attributes;
+
+/**
+ * A reusable SAX-Attributes view that fixes missing namespace-URIs and local names, like the
+ * {@link FixNamespaceUriAttributes}. The namespace-URIs and local names of all attributes are normalized once when
+ * the view is populated and are stored in a small hash index, so that looking up an attribute by namespace and
+ * name is a single probe.
+ * <p/>
+ * Attributes that define no namespace URI on their own receive the element's namespace. A lookup in the element's
+ * namespace also finds attributes by their qualified name, so that documents parsed without namespace support keep
+ * working. A lookup with an empty namespace only finds attributes that have no namespace URI, unless the element's
+ * namespace is empty as well. A lookup with a null namespace is passed to the parser's attributes unchanged.
+ * <p/>
+ * The view is only valid until it is populated again, which happens for every element. Handlers must not keep a
+ * reference to it after their startElement method returned, which is the same contract as for the parser's
+ * attributes.
+ *
+ * @author Thomas Morgner
+ */
+public class NormalizedAttributes implements Attributes
+{
+  private Attributes attributes;
+  private String defaultNSUri;
+  private int length;
+  private String[] uris;
+  private String[] localNames;
+  /**
+   * A marker for index entries that are keyed by the default namespace and the qualified name of an attribute.
+   */
+  private static final int QNAME_ENTRY = 0x40000000;
+
+  /**
+   * An open-addressing hash table over (namespace, name) keys. Each slot holds the attribute index plus one, or zero
+   * for empty slots. Entries keyed by the qualified name have the QNAME_ENTRY bit set.
+   */
+  private int[] table;
+  private int mask;
+  /**
+   * The table slots filled for the current attributes, so that the table can be cleared without touching every slot.
+   */
+  private int[] usedSlots;
+  private int usedCount;
+
+  /**
+   * Creates a new, empty view.
+   */
+  public NormalizedAttributes()
+  {
+    this.uris = new String[8];
+    this.localNames = new String[8];
+    this.table = new int[16];
+    this.mask = 15;
+    this.usedSlots = new int[16];
+  }
+
+  /**
+   * Populates this view with the given attributes.
+   *
+   * @param defaultNSUri the default namespace that is used if no explicit namespace is defined for an attribute.
+   * @param attributes   the original attributes.
+   */
+  public void setAttributes(final String defaultNSUri, final Attributes attributes)
+  {
+    if (attributes == null)
+    {
+      throw new NullPointerException();
+    }
+
+    this.attributes = attributes;
+    this.defaultNSUri = defaultNSUri;
+    this.length = attributes.getLength();
+
+    if (uris.length < length)
+    {
+      uris = new String[Math.max(length, uris.length * 2)];
+      localNames = new String[uris.length];
+    }
+    // the table never shrinks, but only the slots used by the previous element are cleared, so that a single large
+    // element does not slow down all following elements.
+    clearTable();
+    int capacity = table.length;
+    while (capacity < length * 4)
+    {
+      capacity *= 2;
+    }
+    if (capacity != table.length)
+    {
+      table = new int[capacity];
+      mask = capacity - 1;
+    }
+    if (usedSlots.length < length * 2)
+    {
+      usedSlots = new int[length * 2];
+    }
+
+    // attributes with an explicit namespace take precedence over attributes that inherit the default namespace,
+    // which in turn take precedence over matches by the qualified name. Entries never replace an existing entry
+    // with the same key.
+    for (int i = 0; i < length; i++)
+    {
+      final String name = attributes.getLocalName(i);
+      if (name == null || name.length() == 0)
+      {
+        localNames[i] = attributes.getQName(i);
+      }
+      else
+      {
+        localNames[i] = name;
+      }
+
+      final String uri = attributes.getURI(i);
+      if (uri == null || uri.length() == 0)
+      {
+        uris[i] = defaultNSUri;
+      }
+      else
+      {
+        uris[i] = uri;
+        insert(uri, localNames[i], i + 1);
+      }
+    }
+    for (int i = 0; i < length; i++)
+    {
+      final String uri = attributes.getURI(i);
+      if (uri == null || uri.length() == 0)
+      {
+        insert(defaultNSUri, localNames[i], i + 1);
+      }
+    }
+    for (int i = 0; i < length; i++)
+    {
+      final String qName = attributes.getQName(i);
+      if (qName != null && qName.length() > 0)
+      {
+        insert(defaultNSUri, qName, (i + 1) | QNAME_ENTRY);
+      }
+    }
+
+    for (int i = length; i < uris.length && uris[i] != null; i++)
+    {
+      uris[i] = null;
+      localNames[i] = null;
+    }
+  }
+
+  /**
+   * Clears all references to the last populated attributes.
+   */
+  public void clear()
+  {
+    for (int i = 0; i < length; i++)
+    {
+      uris[i] = null;
+      localNames[i] = null;
+    }
+    clearTable();
+    this.attributes = null;
+    this.defaultNSUri = null;
+    this.length = 0;
+  }
+
+  /**
+   * Empties all table slots filled for the current attributes.
+   */
+  private void clearTable()
+  {
+    for (int i = 0; i < usedCount; i++)
+    {
+      table[usedSlots[i]] = 0;
+    }
+    usedCount = 0;
+  }
+
+  /**
+   * Computes the hash for a namespace and name pair.
+   *
+   * @param uri  the namespace.
+   * @param name the name.
+   * @return the hash.
+   */
+  private static int hash(final String uri, final String name)
+  {
+    final int hash = (uri == null ? 0 : uri.hashCode() * 31) + name.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Adds a key to the index, unless an entry for that key exists already.
+   *
+   * @param uri   the namespace.
+   * @param name  the name.
+   * @param entry the attribute index plus one.
+   */
+  private void insert(final String uri, final String name, final int entry)
+  {
+    if (name == null)
+    {
+      return;
+    }
+
+    int slot = hash(uri, name) & mask;
+    while (true)
+    {
+      final int existing = table[slot];
+      if (existing == 0)
+      {
+        table[slot] = entry;
+        usedSlots[usedCount] = slot;
+        usedCount += 1;
+        return;
+      }
+      if (matches(existing, uri, name))
+      {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * Checks, whether the given index entry has the given key. The key of an entry is either the normalized namespace
+   * and local name of its attribute, or the default namespace and the qualified name of its attribute.
+   *
+   * @param entry the index entry.
+   * @param uri   the namespace.
+   * @param name  the name.
+   * @return true, if the entry matches.
+   */
+  private boolean matches(final int entry, final String uri, final String name)
+  {
+    if ((entry & QNAME_ENTRY) != 0)
+    {
+      final int index = (entry & ~QNAME_ENTRY) - 1;
+      return equal(uri, defaultNSUri) && name.equals(attributes.getQName(index));
+    }
+    final int index = entry - 1;
+    return name.equals(localNames[index]) && equal(uri, uris[index]);
+  }
+
+  /**
+   * Compares two possibly null strings.
+   *
+   * @param s1 the first string.
+   * @param s2 the second string.
+   * @return true, if both strings are equal.
+   */
+  private static boolean equal(final String s1, final String s2)
+  {
+    if (s1 == s2)
+    {
+      return true;
+    }
+    if (s1 == null || s2 == null)
+    {
+      return false;
+    }
+    return s1.equals(s2);
+  }
+
+  /**
+   * Return the number of attributes in the list.
+   *
+   * @return The number of attributes in the list.
+   */
+  public int getLength()
+  {
+    return length;
+  }
+
+  /**
+   * Look up an attribute's Namespace URI by index. Attributes without a namespace report the default namespace.
+   *
+   * @param index The attribute index (zero-based).
+   * @return The Namespace URI, or null if the index is out of range.
+   */
+  public String getURI(final int index)
+  {
+    if (index < 0 || index >= length)
+    {
+      return null;
+    }
+    return uris[index];
+  }
+
+  /**
+   * Look up an attribute's local name by index. If the parser did not report a local name, the qualified name is
+   * returned.
+   *
+   * @param index The attribute index (zero-based).
+   * @return The local name, or null if the index is out of range.
+   */
+  public String getLocalName(final int index)
+  {
+    if (index < 0 || index >= length)
+    {
+      return null;
+    }
+    return localNames[index];
+  }
+
+  /**
+   * Look up an attribute's XML qualified (prefixed) name by index.
+   *
+   * @param index The attribute index (zero-based).
+   * @return The XML qualified name, or the empty string if none is available, or null if the index is out of range.
+   */
+  public String getQName(final int index)
+  {
+    if (index < 0 || index >= length)
+    {
+      return null;
+    }
+    return attributes.getQName(index);
+  }
+
+  /**
+   * Look up an attribute's type by index.
+   *
+   * @param index The attribute index (zero-based).
+   * @return The attribute's type as a string, or null if the index is out of range.
+   */
+  public String getType(final int index)
+  {
+    if (index < 0 || index >= length)
+    {
+      return null;
+    }
+    return attributes.getType(index);
+  }
+
+  /**
+   * Look up an attribute's value by index.
+   *
+   * @param index The attribute index (zero-based).
+   * @return The attribute's value as a string, or null if the index is out of range.
+   */
+  public String getValue(final int index)
+  {
+    if (index < 0 || index >= length)
+    {
+      return null;
+    }
+    return attributes.getValue(index);
+  }
+
+  /**
+   * Look up the index of an attribute by Namespace name. An empty namespace only finds attributes without a
+   * namespace URI, as defined by SAX, unless the default namespace is empty as well. A null namespace is passed to
+   * the parser's attributes unchanged, as the FixNamespaceUriAttributes did.
+   *
+   * @param uri       The Namespace URI, or the empty string if the name has no Namespace URI.
+   * @param localName The attribute's local name.
+   * @return The index of the attribute, or -1 if it does not appear in the list.
+   */
+  public int getIndex(final String uri, final String localName)
+  {
+    if (localName == null || length == 0)
+    {
+      return -1;
+    }
+
+    if (uri == null)
+    {
+      return attributes.getIndex(null, localName);
+    }
+
+    final String normalizedUri;
+    if (uri.length() == 0)
+    {
+      if (defaultNSUri != null && defaultNSUri.length() > 0)
+      {
+        return attributes.getIndex("", localName);
+      }
+      normalizedUri = defaultNSUri;
+    }
+    else
+    {
+      normalizedUri = uri;
+    }
+
+    int slot = hash(normalizedUri, localName) & mask;
+    while (true)
+    {
+      final int entry = table[slot];
+      if (entry == 0)
+      {
+        return -1;
+      }
+      if (matches(entry, normalizedUri, localName))
+      {
+        return (entry & ~QNAME_ENTRY) - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * Look up the index of an attribute by XML qualified (prefixed) name.
+   *
+   * @param qName The qualified (prefixed) name.
+   * @return The index of the attribute, or -1 if it does not appear in the list.
+   */
+  public int getIndex(final String qName)
+  {
+    if (length == 0)
+    {
+      return -1;
+    }
+    return attributes.getIndex(qName);
+  }
+
+  /**
+   * Look up an attribute's type by Namespace name.
+   *
+   * @param uri       The Namespace URI, or the empty String if the name has no Namespace URI.
+   * @param localName The local name of the attribute.
+   * @return The attribute type as a string, or null if the attribute is not in the list.
+   */
+  public String getType(final String uri, final String localName)
+  {
+    final int index = getIndex(uri, localName);
+    if (index == -1)
+    {
+      return null;
+    }
+    return attributes.getType(index);
+  }
+
+  /**
+   * Look up an attribute's type by XML qualified (prefixed) name.
+   *
+   * @param qName The XML qualified name.
+   * @return The attribute type as a string, or null if the attribute is not in the list.
+   */
+  public String getType(final String qName)
+  {
+    if (length == 0)
+    {
+      return null;
+    }
+    return attributes.getType(qName);
+  }
+
+  /**
+   * Look up an attribute's value by Namespace name.
+   *
+   * @param uri       The Namespace URI, or the empty String if the name has no Namespace URI.
+   * @param localName The local name of the attribute.
+   * @return The attribute value as a string, or null if the attribute is not in the list.
+   */
+  public String getValue(final String uri, final String localName)
+  {
+    final int index = getIndex(uri, localName);
+    if (index == -1)
+    {
+      return null;
+    }
+    return attributes.getValue(index);
+  }
+
+  /**
+   * Look up an attribute's value by XML qualified (prefixed) name.
+   *
+   * @param qName The XML qualified name.
+   * @return The attribute value as a string, or null if the attribute is not in the list.
+   */
+  public String getValue(final String qName)
+  {
+    if (length == 0)
+    {
+      return null;
+    }
+    return attributes.getValue(qName);
+  }
+}
@@ -17,6 +17,7 @@
 
 package org.pentaho.reporting.libraries.xmlns.parser;
 
+import java.util.EmptyStackException;
 import java.util.HashMap;
 
 import org.pentaho.reporting.libraries.resourceloader.DependencyCollector;
@@ -49,14 +50,18 @@ public class RootXmlReadHandler extends DefaultHandler
   private Locator documentLocator;
 
   /**
-   * The current handlers.
+   * The active handlers of all scopes as one flat stack. Delegates are pushed into the current scope; each call to
+   * recurse starts a new scope on top of it.
    */
-  private FastStack currentHandlers;
+  private XmlReadHandler[] handlers;
+  private int handlerCount;
 
   /**
-   * The list of parent handlers.
+   * The index of the first handler of each scope opened by recurse. The outermost scope always starts at zero and
+   * is not recorded here.
    */
-  private FastStack outerScopes;
+  private int[] scopeStarts;
+  private int scopeCount;
 
   /**
    * The root handler.
@@ -85,6 +90,16 @@ public class RootXmlReadHandler extends DefaultHandler
   private FastStack namespaces;
   private boolean firstCall;
 
+  /**
+   * The number of open elements in the subtree that is currently skipped, or zero if no subtree is skipped.
+   */
+  private int skipDepth;
+
+  /**
+   * The reusable attribute view passed to the handlers.
+   */
+  private NormalizedAttributes normalizedAttributes;
+
   /**
    * Creates a new root-handler using the given versioning information and
    * resource-manager.
@@ -131,6 +146,7 @@ public class RootXmlReadHandler extends DefaultHandler
     this.parserConfiguration = new DefaultConfiguration();
     this.commentHandler = new CommentHandler();
     this.namespaces = new FastStack();
+    this.normalizedAttributes = new NormalizedAttributes();
   }
 
   /**
@@ -323,9 +339,15 @@ public class RootXmlReadHandler extends DefaultHandler
       throw new NullPointerException();
     }
 
-    this.outerScopes.push(this.currentHandlers);
-    this.currentHandlers = new FastStack();
-    this.currentHandlers.push(handler);
+    if (scopeCount == scopeStarts.length)
+    {
+      final int[] newScopeStarts = new int[scopeStarts.length * 2];
+      System.arraycopy(scopeStarts, 0, newScopeStarts, 0, scopeCount);
+      scopeStarts = newScopeStarts;
+    }
+    scopeStarts[scopeCount] = handlerCount;
+    scopeCount += 1;
+    pushHandler(handler);
     handler.startElement(uri, tagName, attrs);
 
   }
@@ -349,11 +371,66 @@ public class RootXmlReadHandler extends DefaultHandler
     {
       throw new NullPointerException();
     }
-    this.currentHandlers.push(handler);
+    pushHandler(handler);
     handler.init(this, uri, tagName);
     handler.startElement(uri, tagName, attrs);
   }
 
+  /**
+   * Pushes the given handler into the current scope.
+   *
+   * @param handler the handler.
+   */
+  private void pushHandler(final XmlReadHandler handler)
+  {
+    if (handlerCount == handlers.length)
+    {
+      final XmlReadHandler[] newHandlers = new XmlReadHandler[handlers.length * 2];
+      System.arraycopy(handlers, 0, newHandlers, 0, handlerCount);
+      handlers = newHandlers;
+    }
+    handlers[handlerCount] = handler;
+    handlerCount += 1;
+  }
+
+  /**
+   * Returns the index of the first handler of the current scope.
+   *
+   * @return the start of the current scope.
+   */
+  private int getScopeStart()
+  {
+    if (scopeCount == 0)
+    {
+      return 0;
+    }
+    return scopeStarts[scopeCount - 1];
+  }
+
+  /**
+   * Ignores the element that is currently started, including all of its content and child elements. The skipped
+   * events are not forwarded to any handler, and the current handler receives the next event after the end of the
+   * skipped element. This must only be called from within a handler's startElement method.
+   */
+  public void skipElement()
+  {
+    if (skipDepth != 0)
+    {
+      throw new IllegalStateException("Already skipping an element.");
+    }
+    this.skipDepth = 1;
+  }
+
+  /**
+   * Checks, whether the parser is currently skipping over an ignored element.
+   *
+   * @return true, if events are skipped, false otherwise.
+   */
+  public boolean isSkipping()
+  {
+    return skipDepth != 0;
+  }
+
   /**
    * Hand control back to the previous handler.
    *
@@ -365,20 +442,53 @@ public class RootXmlReadHandler extends DefaultHandler
       throws SAXException
   {
     // remove current handler from stack ..
-    this.currentHandlers.pop();
-    if (this.currentHandlers.isEmpty() && !this.outerScopes.isEmpty())
+    if (handlerCount == getScopeStart())
+    {
+      throw new EmptyStackException();
+    }
+    handlerCount -= 1;
+    handlers[handlerCount] = null;
+
+    final int scopeStart = getScopeStart();
+    if (handlerCount == scopeStart && scopeCount > 0)
     {
       // if empty, but "recurse" had been called, then restore the old handler stack ..
       // but do not end the recursed element ..
-      this.currentHandlers = (FastStack) this.outerScopes.pop();
+      scopeCount -= 1;
     }
-    else if (!this.currentHandlers.isEmpty())
+    else if (handlerCount > scopeStart)
     {
       // if there are some handlers open, close them too (these handlers must be delegates)..
       getCurrentHandler().endElement(uri, tagName);
     }
   }
 
+  /**
+   * Releases the resources held by all handlers whose elements have not been completed. This must be called if
+   * parsing failed; handlers of completed elements are not affected. Handlers that are no AbstractXmlReadHandler are
+   * removed without further notice.
+   */
+  public void dispose()
+  {
+    if (handlers == null)
+    {
+      return;
+    }
+
+    for (int i = handlerCount - 1; i >= 0; i--)
+    {
+      final XmlReadHandler handler = handlers[i];
+      handlers[i] = null;
+      if (handler instanceof AbstractXmlReadHandler)
+      {
+        ((AbstractXmlReadHandler) handler).dispose();
+      }
+    }
+    this.handlerCount = 0;
+    this.scopeCount = 0;
+    this.skipDepth = 0;
+  }
+
   /**
    * Returns the current handler.
    *
@@ -386,7 +496,11 @@ public class RootXmlReadHandler extends DefaultHandler
    */
   protected XmlReadHandler getCurrentHandler()
   {
-    return (XmlReadHandler) this.currentHandlers.peek();
+    if (handlerCount == getScopeStart())
+    {
+      throw new EmptyStackException();
+    }
+    return handlers[handlerCount - 1];
   }
 
   /**
@@ -396,17 +510,30 @@ public class RootXmlReadHandler extends DefaultHandler
    */
   public void startDocument() throws SAXException
   {
-    this.outerScopes = new FastStack();
-    this.currentHandlers = new FastStack();
+    this.handlers = new XmlReadHandler[16];
+    this.handlerCount = 0;
+    this.scopeStarts = new int[16];
+    this.scopeCount = 0;
+    this.skipDepth = 0;
     if (rootHandler != null)
     {
       // When dealing with the multiplexing beast, we cant define a
       // root handler unless we've seen the first element and all its
       // namespace declarations ...
-      this.currentHandlers.push(this.rootHandler);
+      pushHandler(this.rootHandler);
     }
   }
 
+  /**
+   * Finishes processing a document.
+   *
+   * @throws SAXException not in this implementation.
+   */
+  public void endDocument() throws SAXException
+  {
+    normalizedAttributes.clear();
+  }
+
   /**
    * Starts processing an element.
    *
@@ -430,6 +557,12 @@ public class RootXmlReadHandler extends DefaultHandler
       return;
     }
 
+    if (skipDepth != 0)
+    {
+      skipDepth += 1;
+      return;
+    }
+
     final String defaultNamespace;
     final String nsuri = attributes.getValue("xmlns");
     if (nsuri != null)
@@ -465,8 +598,20 @@ public class RootXmlReadHandler extends DefaultHandler
     }
 
     final XmlReadHandler currentHandler = getCurrentHandler();
-    currentHandler.startElement(uri, localName,
-        wrapAttributes(new FixNamespaceUriAttributes(uri, attributes)));
+    currentHandler.startElement(uri, localName, wrapAttributes(normalizeAttributes(uri, attributes)));
+  }
+
+  /**
+   * Returns the reusable attribute view for the element that is currently started.
+   *
+   * @param uri        the namespace uri of the current element.
+   * @param attributes the attributes as reported by the parser.
+   * @return the normalized attributes.
+   */
+  protected Attributes normalizeAttributes(final String uri, final Attributes attributes)
+  {
+    normalizedAttributes.setAttributes(uri, attributes);
+    return normalizedAttributes;
   }
 
   protected Attributes wrapAttributes(final Attributes attributes)
@@ -525,7 +670,7 @@ public class RootXmlReadHandler extends DefaultHandler
     }
     this.rootHandler = handler;
     this.rootHandler.init(this, uri, localName);
-    this.currentHandlers.push(handler);
+    pushHandler(handler);
     this.rootHandlerInitialized = true;
     this.rootHandler.startElement(uri, localName, attributes);
   }
@@ -541,6 +686,11 @@ public class RootXmlReadHandler extends DefaultHandler
   public void characters(final char[] ch, final int start, final int length)
       throws SAXException
   {
+    if (skipDepth != 0)
+    {
+      return;
+    }
+
     try
     {
       getCurrentHandler().characters(ch, start, length);
@@ -569,6 +719,19 @@ public class RootXmlReadHandler extends DefaultHandler
                                final String qName)
       throws SAXException
   {
+    if (skipDepth != 0)
+    {
+      skipDepth -= 1;
+      if (skipDepth != 0)
+      {
+        return;
+      }
+      // the skipped element itself has been started normally and has
+      // pushed its default namespace.
+      namespaces.pop();
+      return;
+    }
+
     final String defaultNamespace = (String) namespaces.pop();
     final String uri;
     if ((originalUri == null || "".equals(originalUri)) &&
@@ -0,0 +1,455 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A double-buffered writer that drains its content into a target writer on a background thread. While the
+ * background thread writes one buffer, the producer fills the other one, so that producing the content and writing
+ * it to slow storage overlap. If the producer fills its buffer while the other buffer is still being written, it
+ * waits until the background thread has finished.
+ * <p/>
+ * Errors raised by the target writer are reported on the next call to one of the write methods, to
+ * {@link #flush()} or to {@link #close()}. The writer must always be closed, as closing it terminates the
+ * background thread.
+ * <p/>
+ * This writer is meant to be used by a single producer thread, for instance as backend of an XmlWriter:
+ * <code>new XmlWriter(new AsyncBufferedWriter(target), tagDescription)</code>
+ *
+ * @author Thomas Morgner
+ */
+public class AsyncBufferedWriter extends Writer
+{
+  /**
+   * The default size of each of the two buffers.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+  /**
+   * The default thread factory creates daemon threads.
+   */
+  private static class DaemonThreadFactory implements ThreadFactory
+  {
+    private DaemonThreadFactory()
+    {
+    }
+
+    public Thread newThread(final Runnable r)
+    {
+      final Thread thread = new Thread(r, "AsyncBufferedWriter-Drain");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  /**
+   * The background task that writes the drain buffer into the target writer.
+   */
+  private class DrainTask implements Runnable
+  {
+    private DrainTask()
+    {
+    }
+
+    public void run()
+    {
+      while (true)
+      {
+        final char[] data;
+        final int length;
+        final boolean flush;
+        synchronized (lock)
+        {
+          while (drainPending == false && shutdown == false)
+          {
+            try
+            {
+              lock.wait();
+            }
+            catch (InterruptedException ie)
+            {
+              // ignored, the producer decides when this task ends.
+            }
+          }
+          if (drainPending == false)
+          {
+            return;
+          }
+          data = drainBuffer;
+          length = drainLength;
+          flush = flushRequested;
+        }
+
+        try
+        {
+          drain(data, length, flush);
+        }
+        finally
+        {
+          // always release the producer, even if the target raised an error that escaped the drain.
+          synchronized (lock)
+          {
+            drainPending = false;
+            flushRequested = false;
+            lock.notifyAll();
+          }
+        }
+      }
+    }
+  }
+
+  private Writer target;
+  private ThreadFactory threadFactory;
+  private Thread drainThread;
+
+  /**
+   * The buffer filled by the producer. Only accessed by the producer thread.
+   */
+  private char[] fillBuffer;
+  private int fillPosition;
+
+  // the following fields are guarded by the lock.
+  private char[] drainBuffer;
+  private int drainLength;
+  private boolean drainPending;
+  private boolean flushRequested;
+  private boolean shutdown;
+  private IOException error;
+
+  private boolean closed;
+
+  /**
+   * Creates a new writer with the default buffer size that drains into the given writer.
+   *
+   * @param target the target writer.
+   */
+  public AsyncBufferedWriter(final Writer target)
+  {
+    this(target, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new writer that drains into the given writer.
+   *
+   * @param target     the target writer.
+   * @param bufferSize the size of each of the two buffers.
+   */
+  public AsyncBufferedWriter(final Writer target, final int bufferSize)
+  {
+    this(target, bufferSize, new DaemonThreadFactory());
+  }
+
+  /**
+   * Creates a new writer that drains into the given writer using a thread created by the given factory.
+   *
+   * @param target        the target writer.
+   * @param bufferSize    the size of each of the two buffers.
+   * @param threadFactory the factory that creates the background thread.
+   */
+  public AsyncBufferedWriter(final Writer target, final int bufferSize, final ThreadFactory threadFactory)
+  {
+    if (target == null)
+    {
+      throw new NullPointerException("Target writer must not be null.");
+    }
+    if (threadFactory == null)
+    {
+      throw new NullPointerException("ThreadFactory must not be null.");
+    }
+    if (bufferSize < 1)
+    {
+      throw new IllegalArgumentException("Buffer size must be positive.");
+    }
+    this.target = target;
+    this.threadFactory = threadFactory;
+    this.fillBuffer = new char[bufferSize];
+    this.drainBuffer = new char[bufferSize];
+  }
+
+  /**
+   * Writes a single character.
+   *
+   * @param c the character as int.
+   * @throws IOException if an IO error occured.
+   */
+  public void write(final int c) throws IOException
+  {
+    ensureOpen();
+    if (fillPosition == fillBuffer.length)
+    {
+      handOff(false);
+    }
+    fillBuffer[fillPosition] = (char) c;
+    fillPosition += 1;
+  }
+
+  /**
+   * Writes a portion of the given character array.
+   *
+   * @param cbuf the character array.
+   * @param off  the offset from where to start reading characters.
+   * @param len  the number of characters to be written.
+   * @throws IOException if an IO error occured.
+   */
+  public void write(final char[] cbuf, final int off, final int len) throws IOException
+  {
+    ensureOpen();
+    int offset = off;
+    int remaining = len;
+    while (remaining > 0)
+    {
+      if (fillPosition == fillBuffer.length)
+      {
+        handOff(false);
+      }
+      final int chunk = Math.min(remaining, fillBuffer.length - fillPosition);
+      System.arraycopy(cbuf, offset, fillBuffer, fillPosition, chunk);
+      fillPosition += chunk;
+      offset += chunk;
+      remaining -= chunk;
+    }
+  }
+
+  /**
+   * Writes a portion of the given string.
+   *
+   * @param str the string.
+   * @param off the offset from where to start reading characters.
+   * @param len the number of characters to be written.
+   * @throws IOException if an IO error occured.
+   */
+  public void write(final String str, final int off, final int len) throws IOException
+  {
+    ensureOpen();
+    int offset = off;
+    int remaining = len;
+    while (remaining > 0)
+    {
+      if (fillPosition == fillBuffer.length)
+      {
+        handOff(false);
+      }
+      final int chunk = Math.min(remaining, fillBuffer.length - fillPosition);
+      str.getChars(offset, offset + chunk, fillBuffer, fillPosition);
+      fillPosition += chunk;
+      offset += chunk;
+      remaining -= chunk;
+    }
+  }
+
+  /**
+   * Hands all buffered content to the background thread and waits until it has been written and the target writer
+   * has been flushed.
+   *
+   * @throws IOException if an IO error occured, either now or in an earlier background write.
+   */
+  public void flush() throws IOException
+  {
+    ensureOpen();
+    handOff(true);
+    awaitIdle();
+  }
+
+  /**
+   * Writes all buffered content, stops the background thread and closes the target writer.
+   *
+   * @throws IOException if an IO error occured, either now or in an earlier background write.
+   */
+  public void close() throws IOException
+  {
+    if (closed)
+    {
+      return;
+    }
+    closed = true;
+
+    try
+    {
+      if (fillPosition > 0)
+      {
+        handOff(true);
+      }
+      awaitIdle();
+    }
+    finally
+    {
+      final Thread thread;
+      synchronized (lock)
+      {
+        shutdown = true;
+        lock.notifyAll();
+        thread = drainThread;
+      }
+      if (thread != null)
+      {
+        try
+        {
+          thread.join();
+        }
+        catch (InterruptedException ie)
+        {
+          Thread.currentThread().interrupt();
+        }
+      }
+      target.close();
+    }
+  }
+
+  /**
+   * Passes the fill buffer to the background thread. If the background thread is still busy with the previous
+   * buffer, this method blocks until that buffer has been written.
+   *
+   * @param flush true, if the target writer should be flushed after the buffer has been written.
+   * @throws IOException if an earlier background write failed or if the thread was interrupted.
+   */
+  private void handOff(final boolean flush) throws IOException
+  {
+    synchronized (lock)
+    {
+      waitForDrain();
+      checkError();
+      if (drainThread == null)
+      {
+        drainThread = threadFactory.newThread(new DrainTask());
+        drainThread.start();
+      }
+
+      final char[] buffer = drainBuffer;
+      drainBuffer = fillBuffer;
+      drainLength = fillPosition;
+      drainPending = true;
+      flushRequested = flush;
+      fillBuffer = buffer;
+      fillPosition = 0;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Waits until the background thread has written all handed-off content.
+   *
+   * @throws IOException if a background write failed or if the thread was interrupted.
+   */
+  private void awaitIdle() throws IOException
+  {
+    synchronized (lock)
+    {
+      waitForDrain();
+      checkError();
+    }
+  }
+
+  /**
+   * Waits until the drain buffer is available again. Must be called while holding the lock.
+   *
+   * @throws InterruptedIOException if the thread was interrupted.
+   */
+  private void waitForDrain() throws InterruptedIOException
+  {
+    while (drainPending)
+    {
+      try
+      {
+        lock.wait();
+      }
+      catch (InterruptedException ie)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the background writer.");
+      }
+    }
+  }
+
+  /**
+   * Rethrows the error raised by the background thread, if there is one. Must be called while holding the lock.
+   *
+   * @throws IOException the error of the background thread.
+   */
+  private void checkError() throws IOException
+  {
+    if (error != null)
+    {
+      throw error;
+    }
+  }
+
+  /**
+   * Writes the given data into the target writer. Called by the background thread. Any failure of the target,
+   * including errors, is stored and reported to the producer. Once an error occured, all further content is
+   * discarded.
+   *
+   * @param data   the buffer.
+   * @param length the number of characters in the buffer.
+   * @param flush  true, if the target should be flushed.
+   */
+  private void drain(final char[] data, final int length, final boolean flush)
+  {
+    synchronized (lock)
+    {
+      if (error != null)
+      {
+        return;
+      }
+    }
+
+    try
+    {
+      if (length > 0)
+      {
+        target.write(data, 0, length);
+      }
+      if (flush)
+      {
+        target.flush();
+      }
+    }
+    catch (IOException ioe)
+    {
+      synchronized (lock)
+      {
+        error = ioe;
+      }
+    }
+    catch (Throwable t)
+    {
+      final IOException ioe = new IOException("Failed to write to the target writer.");
+      ioe.initCause(t);
+      synchronized (lock)
+      {
+        error = ioe;
+      }
+    }
+  }
+
+  /**
+   * Checks that the writer has not been closed yet.
+   *
+   * @throws IOException if the writer is closed.
+   */
+  private void ensureOpen() throws IOException
+  {
+    if (closed)
+    {
+      throw new IOException("Writer is closed.");
+    }
+  }
+}
@@ -0,0 +1,313 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A streaming base64 encoder. Bytes written into this stream are encoded into a small, reusable character buffer
+ * and are passed on to the target writer whenever the buffer is full. The memory used by the encoder is constant
+ * and does not depend on the size of the encoded data.
+ * <p/>
+ * The encoder optionally wraps the encoded text into lines. Lines are always broken at a 4-character boundary, so
+ * the given line width is rounded up to the next multiple of four.
+ * <p/>
+ * Closing the encoder writes the padding of the final group, but does not close the target writer.
+ *
+ * @author Thomas Morgner
+ */
+public class Base64Encoder extends OutputStream
+{
+  /**
+   * The default size of the character buffer.
+   */
+  private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+  /**
+   * The code characters for the values 0..63, followed by the padding character.
+   */
+  private static final char[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=".toCharArray();
+
+  private Writer target;
+  private char[] buffer;
+  private int bufferLength;
+  private int lineWidth;
+  private char[] lineSeparator;
+  private int column;
+  private int pending;
+  private int pendingCount;
+  private boolean closed;
+
+  /**
+   * Creates a new encoder that writes the encoded text without line breaks.
+   *
+   * @param target the writer receiving the encoded text.
+   */
+  public Base64Encoder(final Writer target)
+  {
+    this(target, 0, "\n");
+  }
+
+  /**
+   * Creates a new encoder.
+   *
+   * @param target        the writer receiving the encoded text.
+   * @param lineWidth     the maximum number of characters per line, or zero to disable line wrapping.
+   * @param lineSeparator the line separator inserted between lines.
+   */
+  public Base64Encoder(final Writer target, final int lineWidth, final String lineSeparator)
+  {
+    if (target == null)
+    {
+      throw new NullPointerException();
+    }
+    if (lineSeparator == null)
+    {
+      throw new NullPointerException();
+    }
+    if (lineWidth < 0)
+    {
+      throw new IllegalArgumentException("LineWidth must not be negative");
+    }
+    this.target = target;
+    this.lineWidth = lineWidth;
+    this.lineSeparator = lineSeparator.toCharArray();
+    this.buffer = new char[Math.max(DEFAULT_BUFFER_SIZE, this.lineSeparator.length + 4)];
+  }
+
+  /**
+   * Encodes the remaining content of the given input stream into the given writer. The stream is not closed.
+   *
+   * @param in            the stream providing the data.
+   * @param target        the writer receiving the encoded text.
+   * @param lineWidth     the maximum number of characters per line, or zero to disable line wrapping.
+   * @param lineSeparator the line separator inserted between lines.
+   * @throws IOException if reading or writing failed.
+   */
+  public static void encode(final InputStream in,
+                            final Writer target,
+                            final int lineWidth,
+                            final String lineSeparator) throws IOException
+  {
+    if (in == null)
+    {
+      throw new NullPointerException();
+    }
+    final Base64Encoder encoder = new Base64Encoder(target, lineWidth, lineSeparator);
+    encoder.write(in);
+    encoder.close();
+  }
+
+  /**
+   * Encodes the remaining content of the given input stream. The stream is not closed.
+   *
+   * @param in the stream providing the data.
+   * @throws IOException if reading or writing failed.
+   */
+  public void write(final InputStream in) throws IOException
+  {
+    final byte[] bytes = new byte[(buffer.length / 4) * 3];
+    int count;
+    while ((count = in.read(bytes)) != -1)
+    {
+      write(bytes, 0, count);
+    }
+  }
+
+  /**
+   * Encodes a single byte.
+   *
+   * @param b the byte.
+   * @throws IOException if writing failed.
+   */
+  public void write(final int b) throws IOException
+  {
+    ensureOpen();
+    pending = (pending << 8) | (b & 0xff);
+    pendingCount += 1;
+    if (pendingCount == 3)
+    {
+      writeGroup(pending);
+      pending = 0;
+      pendingCount = 0;
+    }
+  }
+
+  /**
+   * Encodes the given bytes.
+   *
+   * @param data   the bytes.
+   * @param offset the index of the first byte.
+   * @param length the number of bytes.
+   * @throws IOException if writing failed.
+   */
+  public void write(final byte[] data, final int offset, final int length) throws IOException
+  {
+    ensureOpen();
+    if (offset < 0 || length < 0 || offset + length > data.length)
+    {
+      throw new IndexOutOfBoundsException();
+    }
+
+    int index = offset;
+    final int end = offset + length;
+    while (pendingCount != 0 && index < end)
+    {
+      write(data[index]);
+      index += 1;
+    }
+
+    final char[] alphabet = ALPHABET;
+    final int lastGroup = end - 2;
+    while (index < lastGroup)
+    {
+      if (bufferLength + 4 + lineSeparator.length > buffer.length)
+      {
+        flushBuffer();
+      }
+      if (lineWidth > 0 && column >= lineWidth)
+      {
+        writeLineBreak();
+      }
+
+      final int group = ((data[index] & 0xff) << 16) | ((data[index + 1] & 0xff) << 8) | (data[index + 2] & 0xff);
+      buffer[bufferLength] = alphabet[(group >>> 18) & 0x3f];
+      buffer[bufferLength + 1] = alphabet[(group >>> 12) & 0x3f];
+      buffer[bufferLength + 2] = alphabet[(group >>> 6) & 0x3f];
+      buffer[bufferLength + 3] = alphabet[group & 0x3f];
+      bufferLength += 4;
+      column += 4;
+      index += 3;
+    }
+
+    while (index < end)
+    {
+      write(data[index]);
+      index += 1;
+    }
+  }
+
+  /**
+   * Encodes a complete group of three bytes.
+   *
+   * @param group the bytes, stored in the lower 24 bits.
+   * @throws IOException if writing failed.
+   */
+  private void writeGroup(final int group) throws IOException
+  {
+    if (bufferLength + 4 + lineSeparator.length > buffer.length)
+    {
+      flushBuffer();
+    }
+    if (lineWidth > 0 && column >= lineWidth)
+    {
+      writeLineBreak();
+    }
+
+    final char[] alphabet = ALPHABET;
+    buffer[bufferLength] = alphabet[(group >>> 18) & 0x3f];
+    buffer[bufferLength + 1] = alphabet[(group >>> 12) & 0x3f];
+    buffer[bufferLength + 2] = alphabet[(group >>> 6) & 0x3f];
+    buffer[bufferLength + 3] = alphabet[group & 0x3f];
+    bufferLength += 4;
+    column += 4;
+  }
+
+  /**
+   * Adds a line break to the buffer. The caller has made sure that there is enough space.
+   */
+  private void writeLineBreak()
+  {
+    System.arraycopy(lineSeparator, 0, buffer, bufferLength, lineSeparator.length);
+    bufferLength += lineSeparator.length;
+    column = 0;
+  }
+
+  /**
+   * Writes the buffered characters into the target writer.
+   *
+   * @throws IOException if writing failed.
+   */
+  private void flushBuffer() throws IOException
+  {
+    if (bufferLength > 0)
+    {
+      target.write(buffer, 0, bufferLength);
+      bufferLength = 0;
+    }
+  }
+
+  /**
+   * Checks, whether the encoder is still open.
+   *
+   * @throws IOException if the encoder has been closed.
+   */
+  private void ensureOpen() throws IOException
+  {
+    if (closed)
+    {
+      throw new IOException("Encoder has been closed");
+    }
+  }
+
+  /**
+   * Passes all complete groups to the target writer and flushes the target. Bytes of an incomplete group are kept
+   * until more data arrives or the encoder is closed.
+   *
+   * @throws IOException if writing failed.
+   */
+  public void flush() throws IOException
+  {
+    ensureOpen();
+    flushBuffer();
+    target.flush();
+  }
+
+  /**
+   * Encodes the final, incomplete group with padding and writes all buffered characters into the target writer.
+   * The target writer is not closed.
+   *
+   * @throws IOException if writing failed.
+   */
+  public void close() throws IOException
+  {
+    if (closed)
+    {
+      return;
+    }
+
+    if (pendingCount > 0)
+    {
+      final int group = (pendingCount == 1) ? (pending << 16) : (pending << 8);
+      writeGroup(group);
+      buffer[bufferLength - 1] = '=';
+      if (pendingCount == 1)
+      {
+        buffer[bufferLength - 2] = '=';
+      }
+      pending = 0;
+      pendingCount = 0;
+    }
+    flushBuffer();
+    closed = true;
+  }
+}
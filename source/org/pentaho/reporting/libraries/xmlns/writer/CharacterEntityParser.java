@@ -17,9 +17,10 @@
 
 package org.pentaho.reporting.libraries.xmlns.writer;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -30,12 +31,29 @@ import java.util.Properties;
  */
 public class CharacterEntityParser
 {
-  private String[] charMap;
-  
   /**
-   * the entities, keyed by entity name.
+   * The maximum length of an entity name or character reference.
    */
-  private final HashMap entities;
+  private static final int MAX_ENTITY_LENGTH = 32;
+  /**
+   * The largest valid unicode code point.
+   */
+  private static final int MAX_CODE_POINT = 0x10FFFF;
+
+  /**
+   * The lookup table for the entities of the XML standard, shared by all XML
+   * entity parsers. The table is created on first use.
+   */
+  private static class XmlEntityTableHolder
+  {
+    private static final CharacterEntityTable TABLE = CharacterEntityTable.create
+        (new String[]{"amp", "quot", "lt", "gt", "apos"}, "&\"<>\u0027".toCharArray());
+  }
+
+  /**
+   * The lookup table for the entities of this parser.
+   */
+  private final CharacterEntityTable table;
 
   /**
    * Creates a new CharacterEntityParser and initializes the parser with the
@@ -50,21 +68,7 @@ public class CharacterEntityParser
       throw new NullPointerException("CharacterEntities must not be null");
     }
 
-    entities = new HashMap(characterEntities);
-    charMap = new String[65536];
-    
-    final Iterator entries = entities.entrySet().iterator();
-    while (entries.hasNext())
-    {
-      final Map.Entry entry = (Map.Entry) entries.next();
-      final String value = (String) entry.getValue();
-      final String entityName = (String) entry.getKey();
-      if (value.length() != 1)
-      {
-        throw new IllegalStateException();
-      }
-      charMap[value.charAt(0)] = entityName;
-    }
+    table = CharacterEntityTable.create(characterEntities);
   }
 
   /**
@@ -80,21 +84,21 @@ public class CharacterEntityParser
       throw new NullPointerException("CharacterEntities must not be null");
     }
 
-    entities = (HashMap) characterEntities.clone();
-    charMap = new String[65536];
+    table = CharacterEntityTable.create(characterEntities);
+  }
 
-    final Iterator entries = entities.entrySet().iterator();
-    while (entries.hasNext())
+  /**
+   * Creates a new CharacterEntityParser for a prebuilt lookup table.
+   *
+   * @param table the entity table.
+   */
+  CharacterEntityParser(final CharacterEntityTable table)
+  {
+    if (table == null)
     {
-      final Map.Entry entry = (Map.Entry) entries.next();
-      final String value = (String) entry.getValue();
-      final String entityName = (String) entry.getKey();
-      if (value.length() != 1)
-      {
-        throw new IllegalStateException();
-      }
-      charMap[value.charAt(0)] = entityName;
+      throw new NullPointerException();
     }
+    this.table = table;
   }
 
   /**
@@ -105,68 +109,118 @@ public class CharacterEntityParser
    */
   public static CharacterEntityParser createXMLEntityParser()
   {
-    final HashMap entities = new HashMap();
-    entities.put("amp", "&");
-    entities.put("quot", "\"");
-    entities.put("lt", "<");
-    entities.put("gt", ">");
-    entities.put("apos", "\u0027");
-    return new CharacterEntityParser(entities);
+    return new CharacterEntityParser(XmlEntityTableHolder.TABLE);
   }
 
   /**
-   * returns the entities used in the parser.
+   * Encode the given String, so that all known entites are encoded. All
+   * characters represented by these entites are now removed from the string.
    *
-   * @return the properties for this parser.
+   * @param value the original string
+   * @return the encoded string.
    */
-  private HashMap getEntities()
+  public String encodeEntities(final String value)
   {
-    return entities;
-  }
+    if (value == null)
+    {
+      throw new NullPointerException();
+    }
 
-  /**
-   * Looks up the character for the entity name specified in <code>key</code>.
-   *
-   * @param key the entity name
-   * @return the character as string with a length of 1
-   */
-  private String lookupCharacter(final String key)
-  {
-    return (String) getEntities().get(key);
+    final int length = value.length();
+    int i = 0;
+    while (i < length && table.getEntityName(value.charAt(i)) == null)
+    {
+      i += 1;
+    }
+    if (i == length)
+    {
+      return value;
+    }
+
+    final StringBuilder builder = new StringBuilder(length + 16);
+    try
+    {
+      encodeEntities(value, builder);
+    }
+    catch (IOException e)
+    {
+      // cannot happen with a StringBuilder.
+      throw new IllegalStateException();
+    }
+    return builder.toString();
   }
 
   /**
-   * Encode the given String, so that all known entites are encoded. All
-   * characters represented by these entites are now removed from the string.
+   * Encodes the given character sequence and appends the result to the given target. All characters that are
+   * represented by a known entity are replaced by that entity.
    *
-   * @param value the original string
-   * @return the encoded string.
+   * @param value  the original text.
+   * @param target the target receiving the encoded text, for instance a Writer or a StringBuilder.
+   * @throws IOException if appending to the target failed.
    */
-  public String encodeEntities(final String value)
+  public void encodeEntities(final CharSequence value, final Appendable target) throws IOException
   {
     if (value == null)
     {
       throw new NullPointerException();
     }
+    if (target == null)
+    {
+      throw new NullPointerException();
+    }
 
     final int length = value.length();
-    final StringBuffer writer = new StringBuffer(length);
+    int runStart = 0;
     for (int i = 0; i < length; i++)
     {
-      final char character = value.charAt(i);
-      final String lookup = charMap[character];
-      if (lookup == null)
+      final String lookup = table.getEntityName(value.charAt(i));
+      if (lookup != null)
       {
-        writer.append(character);
+        appendRun(target, value, runStart, i);
+        appendEntity(target, lookup);
+        runStart = i + 1;
       }
-      else
+    }
+    appendRun(target, value, runStart, length);
+  }
+
+  /**
+   * Encodes the given range of characters and appends the result to the given target. All characters that are
+   * represented by a known entity are replaced by that entity.
+   *
+   * @param data   the original text.
+   * @param offset the index of the first character.
+   * @param length the number of characters.
+   * @param target the target receiving the encoded text, for instance a Writer or a StringBuilder.
+   * @throws IOException if appending to the target failed.
+   */
+  public void encodeEntities(final char[] data,
+                             final int offset,
+                             final int length,
+                             final Appendable target) throws IOException
+  {
+    if (data == null)
+    {
+      throw new NullPointerException();
+    }
+    if (target == null)
+    {
+      throw new NullPointerException();
+    }
+
+    final int end = offset + length;
+    int runStart = offset;
+    for (int i = offset; i < end; i++)
+    {
+      final String lookup = table.getEntityName(data[i]);
+      if (lookup != null)
       {
-        writer.append('&');
-        writer.append(lookup);
-        writer.append(';');
+        appendRun(target, data, runStart, i);
+        appendEntity(target, lookup);
+        runStart = i + 1;
       }
     }
-    return writer.toString();
+    appendRun(target, data, runStart, end);
   }
 
   /**
@@ -183,100 +237,388 @@ public class CharacterEntityParser
       throw new NullPointerException();
     }
 
-    int parserIndex = 0;
-    int subStart = value.indexOf('&', parserIndex);
-    if (subStart == -1)
+    if (value.indexOf('&') == -1)
     {
       return value;
     }
-    int subEnd = value.indexOf(';', subStart);
-    if (subEnd == -1)
+
+    final StringBuilder builder = new StringBuilder(value.length());
+    try
     {
-      return value;
+      decodeEntities(value, builder);
+    }
+    catch (IOException e)
+    {
+      // cannot happen with a StringBuilder.
+      throw new IllegalStateException();
     }
+    return builder.toString();
+  }
 
-    final StringBuffer bufValue = new StringBuffer(value.substring(0, subStart));
-    do
+  /**
+   * Decodes the given character sequence and appends the result to the given target. Known named entities as well
+   * as decimal (&amp;#nnn;) and hexadecimal (&amp;#xhhh;) character references are replaced by their characters,
+   * including characters outside of the basic multilingual plane. Unknown or invalid entities are copied unchanged.
+   *
+   * @param value  the text that should be decoded.
+   * @param target the target receiving the decoded text, for instance a Writer or a StringBuilder.
+   * @throws IOException if appending to the target failed.
+   */
+  public void decodeEntities(final CharSequence value, final Appendable target) throws IOException
+  {
+    if (value == null)
     {
-      // at this point we know, that there is at least one entity ..
-      if (value.charAt(subStart + 1) == '#')
+      throw new NullPointerException();
+    }
+    if (target == null)
+    {
+      throw new NullPointerException();
+    }
+
+    final int end = value.length();
+    int runStart = 0;
+    int i = 0;
+    while (i < end)
+    {
+      if (value.charAt(i) != '&')
       {
-        final int subValue = parseInt(value.substring(subStart + 2, subEnd), 0);
-        if ((subValue >= 1) && (subValue <= 65536))
-        {
-          final char[] chr = new char[1];
-          chr[0] = (char) subValue;
-          bufValue.append(chr);
-        }
-        else
-        {
-          // invalid entity, do not decode ..
-          bufValue.append(value.substring(subStart, subEnd));
-        }
+        i += 1;
+        continue;
+      }
+
+      final int entityEnd = findEntityEnd(value, i + 1, end);
+      if (entityEnd == -1)
+      {
+        i += 1;
+        continue;
+      }
+
+      final int codePoint;
+      if (value.charAt(i + 1) == '#')
+      {
+        codePoint = parseCharacterReference(value, i + 2, entityEnd);
       }
       else
       {
-        final String entity = value.substring(subStart + 1, subEnd);
-        final String replaceString = lookupCharacter(entity);
-        if (replaceString != null)
-        {
-          bufValue.append(decodeEntities(replaceString));
-        }
-        else
-        {
-          bufValue.append('&');
-          bufValue.append(entity);
-          bufValue.append(';');
-        }
+        codePoint = table.getCharacter(value, i + 1, entityEnd);
+      }
+
+      if (codePoint != -1)
+      {
+        appendRun(target, value, runStart, i);
+        appendCodePoint(target, codePoint);
+        runStart = entityEnd + 1;
+      }
+      i = entityEnd + 1;
+    }
+    appendRun(target, value, runStart, end);
+  }
+
+  /**
+   * Decodes the given range of characters and appends the result to the given target. Known named entities as well
+   * as decimal (&amp;#nnn;) and hexadecimal (&amp;#xhhh;) character references are replaced by their characters,
+   * including characters outside of the basic multilingual plane. Unknown or invalid entities are copied unchanged.
+   *
+   * @param data   the text that should be decoded.
+   * @param offset the index of the first character.
+   * @param length the number of characters.
+   * @param target the target receiving the decoded text, for instance a Writer or a StringBuilder.
+   * @throws IOException if appending to the target failed.
+   */
+  public void decodeEntities(final char[] data,
+                             final int offset,
+                             final int length,
+                             final Appendable target) throws IOException
+  {
+    if (data == null)
+    {
+      throw new NullPointerException();
+    }
+    if (target == null)
+    {
+      throw new NullPointerException();
+    }
+
+    final int end = offset + length;
+    int runStart = offset;
+    int i = offset;
+    while (i < end)
+    {
+      if (data[i] != '&')
+      {
+        i += 1;
+        continue;
+      }
+
+      final int entityEnd = findEntityEnd(data, i + 1, end);
+      if (entityEnd == -1)
+      {
+        i += 1;
+        continue;
       }
-      parserIndex = subEnd + 1;
-      subStart = value.indexOf('&', parserIndex);
-      if (subStart == -1)
+
+      final int codePoint;
+      if (data[i + 1] == '#')
       {
-        bufValue.append(value.substring(parserIndex));
-        subEnd = -1;
+        codePoint = parseCharacterReference(data, i + 2, entityEnd);
       }
       else
       {
-        subEnd = value.indexOf(';', subStart);
-        if (subEnd == -1)
-        {
-          bufValue.append(value.substring(parserIndex));
-        }
-        else
-        {
-          bufValue.append(value.substring(parserIndex, subStart));
-        }
+        codePoint = table.getCharacter(data, i + 1, entityEnd);
       }
+
+      if (codePoint != -1)
+      {
+        appendRun(target, data, runStart, i);
+        appendCodePoint(target, codePoint);
+        runStart = entityEnd + 1;
+      }
+      i = entityEnd + 1;
     }
-    while (subStart != -1 && subEnd != -1);
+    appendRun(target, data, runStart, end);
+  }
 
-    return bufValue.toString();
+  /**
+   * Searches the semicolon that terminates an entity. Entity names are short and never contain whitespace or
+   * ampersands, which limits the search.
+   *
+   * @param value the text.
+   * @param start the index of the first character after the ampersand.
+   * @param end   the end of the text.
+   * @return the index of the semicolon, or -1 if this is not an entity.
+   */
+  private static int findEntityEnd(final CharSequence value, final int start, final int end)
+  {
+    final int limit = Math.min(end, start + MAX_ENTITY_LENGTH + 1);
+    for (int i = start; i < limit; i++)
+    {
+      final char c = value.charAt(i);
+      if (c == ';')
+      {
+        return (i == start) ? -1 : i;
+      }
+      if (c == '&' || c <= ' ')
+      {
+        return -1;
+      }
+    }
+    return -1;
   }
 
   /**
-   * Parses the given string into an int-value. On errors the default value
-   * is returned.
+   * Searches the semicolon that terminates an entity.
    *
-   * @param s          the string
-   * @param defaultVal the default value that should be used in case of errors
-   * @return the parsed int or the default value.
+   * @param data  the text.
+   * @param start the index of the first character after the ampersand.
+   * @param end   the end of the text.
+   * @return the index of the semicolon, or -1 if this is not an entity.
    */
-  private int parseInt(final String s, final int defaultVal)
+  private static int findEntityEnd(final char[] data, final int start, final int end)
   {
-    if (s == null)
+    final int limit = Math.min(end, start + MAX_ENTITY_LENGTH + 1);
+    for (int i = start; i < limit; i++)
     {
-      return defaultVal;
+      final char c = data[i];
+      if (c == ';')
+      {
+        return (i == start) ? -1 : i;
+      }
+      if (c == '&' || c <= ' ')
+      {
+        return -1;
+      }
     }
-    try
+    return -1;
+  }
+
+  /**
+   * Parses a decimal or hexadecimal character reference in place.
+   *
+   * @param value the text.
+   * @param start the index of the first character after '&amp;#'.
+   * @param end   the index of the terminating semicolon.
+   * @return the code point, or -1 if the reference is invalid.
+   */
+  private static int parseCharacterReference(final CharSequence value, final int start, final int end)
+  {
+    int i = start;
+    final int radix;
+    if (i < end && (value.charAt(i) == 'x' || value.charAt(i) == 'X'))
     {
-      return Integer.parseInt(s);
+      radix = 16;
+      i += 1;
     }
-    catch (Exception e)
+    else
     {
-      // ignored ..
+      radix = 10;
     }
-    return defaultVal;
+    if (i == end)
+    {
+      return -1;
+    }
+
+    int codePoint = 0;
+    for (; i < end; i++)
+    {
+      final int digit = Character.digit(value.charAt(i), radix);
+      if (digit == -1)
+      {
+        return -1;
+      }
+      codePoint = codePoint * radix + digit;
+      if (codePoint > MAX_CODE_POINT)
+      {
+        return -1;
+      }
+    }
+    if (codePoint == 0)
+    {
+      return -1;
+    }
+    return codePoint;
+  }
+
+  /**
+   * Parses a decimal or hexadecimal character reference in place.
+   *
+   * @param data  the text.
+   * @param start the index of the first character after '&amp;#'.
+   * @param end   the index of the terminating semicolon.
+   * @return the code point, or -1 if the reference is invalid.
+   */
+  private static int parseCharacterReference(final char[] data, final int start, final int end)
+  {
+    int i = start;
+    final int radix;
+    if (i < end && (data[i] == 'x' || data[i] == 'X'))
+    {
+      radix = 16;
+      i += 1;
+    }
+    else
+    {
+      radix = 10;
+    }
+    if (i == end)
+    {
+      return -1;
+    }
+
+    int codePoint = 0;
+    for (; i < end; i++)
+    {
+      final int digit = Character.digit(data[i], radix);
+      if (digit == -1)
+      {
+        return -1;
+      }
+      codePoint = codePoint * radix + digit;
+      if (codePoint > MAX_CODE_POINT)
+      {
+        return -1;
+      }
+    }
+    if (codePoint == 0)
+    {
+      return -1;
+    }
+    return codePoint;
+  }
+
+  /**
+   * Appends an entity reference.
+   *
+   * @param target     the target.
+   * @param entityName the name of the entity.
+   * @throws IOException if appending to the target failed.
+   */
+  private static void appendEntity(final Appendable target, final String entityName) throws IOException
+  {
+    target.append('&');
+    target.append(entityName);
+    target.append(';');
+  }
+
+  /**
+   * Appends the given code point, using a surrogate pair for characters outside of the basic multilingual plane.
+   *
+   * @param target    the target.
+   * @param codePoint the code point.
+   * @throws IOException if appending to the target failed.
+   */
+  private static void appendCodePoint(final Appendable target, final int codePoint) throws IOException
+  {
+    if (codePoint < 0x10000)
+    {
+      target.append((char) codePoint);
+      return;
+    }
+    final int offset = codePoint - 0x10000;
+    target.append((char) (0xD800 + (offset >>> 10)));
+    target.append((char) (0xDC00 + (offset & 0x3FF)));
   }
-}
 
+  /**
+   * Appends a range of the given character sequence. Strings are written to Writers without creating a substring.
+   *
+   * @param target the target.
+   * @param value  the source text.
+   * @param start  the index of the first character.
+   * @param end    the index after the last character.
+   * @throws IOException if appending to the target failed.
+   */
+  private static void appendRun(final Appendable target,
+                                final CharSequence value,
+                                final int start,
+                                final int end) throws IOException
+  {
+    if (start == end)
+    {
+      return;
+    }
+    if (target instanceof Writer && value instanceof String)
+    {
+      ((Writer) target).write((String) value, start, end - start);
+    }
+    else
+    {
+      target.append(value, start, end);
+    }
+  }
+
+  /**
+   * Appends a range of the given character array without creating a temporary string.
+   *
+   * @param target the target.
+   * @param data   the source text.
+   * @param start  the index of the first character.
+   * @param end    the index after the last character.
+   * @throws IOException if appending to the target failed.
+   */
+  private static void appendRun(final Appendable target,
+                                final char[] data,
+                                final int start,
+                                final int end) throws IOException
+  {
+    if (start == end)
+    {
+      return;
+    }
+    if (target instanceof Writer)
+    {
+      ((Writer) target).write(data, start, end - start);
+    }
+    else if (target instanceof StringBuilder)
+    {
+      ((StringBuilder) target).append(data, start, end - start);
+    }
+    else if (target instanceof StringBuffer)
+    {
+      ((StringBuffer) target).append(data, start, end - start);
+    }
+    else
+    {
+      target.append(CharBuffer.wrap(data, start, end - start));
+    }
+  }
+}
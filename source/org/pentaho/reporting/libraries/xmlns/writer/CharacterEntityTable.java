@@ -0,0 +1,256 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * An immutable lookup table for a set of character entities. Characters are mapped to entity names using a sparse
+ * two-level page table keyed by the high byte of the character, so that only the pages that actually contain
+ * entities are allocated. Tables for the built-in entity sets are created once from precomputed arrays and shared by
+ * all parsers; tables built from caller-supplied maps are private to the parser that created them.
+ *
+ * @author Thomas Morgner
+ */
+final class CharacterEntityTable
+{
+  /**
+   * The entity names, indexed by the high byte and the low byte of the character.
+   */
+  private final String[][] pages;
+  /**
+   * An open-addressing hash table over the entity names, which allows to look up entity names directly from
+   * character arrays and sequences without creating strings.
+   */
+  private final String[] names;
+  private final char[] values;
+  private final int mask;
+
+  /**
+   * Creates a new table from the given parallel arrays. The arrays are not referenced by the table.
+   *
+   * @param entityNames  the entity names.
+   * @param entityValues the characters for the entity names.
+   */
+  private CharacterEntityTable(final String[] entityNames, final char[] entityValues)
+  {
+    if (entityNames.length != entityValues.length)
+    {
+      throw new IllegalArgumentException();
+    }
+
+    this.pages = new String[256][];
+    for (int i = 0; i < entityNames.length; i++)
+    {
+      final char c = entityValues[i];
+      String[] page = pages[c >>> 8];
+      if (page == null)
+      {
+        page = new String[256];
+        pages[c >>> 8] = page;
+      }
+      page[c & 0xff] = entityNames[i];
+    }
+
+    int capacity = 16;
+    while (capacity < entityNames.length * 2)
+    {
+      capacity *= 2;
+    }
+    this.names = new String[capacity];
+    this.values = new char[capacity];
+    this.mask = capacity - 1;
+
+    for (int i = 0; i < entityNames.length; i++)
+    {
+      final String entityName = entityNames[i];
+      int index = spread(entityName.hashCode()) & mask;
+      while (names[index] != null && names[index].equals(entityName) == false)
+      {
+        index = (index + 1) & mask;
+      }
+      names[index] = entityName;
+      values[index] = entityValues[i];
+    }
+  }
+
+  /**
+   * Spreads the higher bits of a string hashcode into the lower bits used for indexing.
+   *
+   * @param hash the hashcode.
+   * @return the spread hashcode.
+   */
+  private static int spread(final int hash)
+  {
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Creates a table directly from precomputed parallel arrays.
+   *
+   * @param entityNames  the entity names.
+   * @param entityValues the characters for the entity names.
+   * @return the table.
+   */
+  public static CharacterEntityTable create(final String[] entityNames, final char[] entityValues)
+  {
+    if (entityNames == null)
+    {
+      throw new NullPointerException();
+    }
+    if (entityValues == null)
+    {
+      throw new NullPointerException();
+    }
+    return new CharacterEntityTable(entityNames, entityValues);
+  }
+
+  /**
+   * Creates a new table for the given set of entities. The map is not modified and not referenced by the returned
+   * table.
+   *
+   * @param entities the entities as map of entity names to single-character strings.
+   * @return the table.
+   */
+  public static CharacterEntityTable create(final Map entities)
+  {
+    if (entities == null)
+    {
+      throw new NullPointerException("CharacterEntities must not be null");
+    }
+
+    final HashMap copy = new HashMap(entities);
+    final String[] entityNames = new String[copy.size()];
+    final char[] entityValues = new char[copy.size()];
+    final Iterator entries = copy.entrySet().iterator();
+    int count = 0;
+    while (entries.hasNext())
+    {
+      final Map.Entry entry = (Map.Entry) entries.next();
+      final String value = (String) entry.getValue();
+      if (value.length() != 1)
+      {
+        throw new IllegalStateException();
+      }
+      entityNames[count] = (String) entry.getKey();
+      entityValues[count] = value.charAt(0);
+      count += 1;
+    }
+    return new CharacterEntityTable(entityNames, entityValues);
+  }
+
+  /**
+   * Returns the entity name for the given character.
+   *
+   * @param c the character.
+   * @return the entity name, or null if there is no entity for this character.
+   */
+  public String getEntityName(final char c)
+  {
+    final String[] page = pages[c >>> 8];
+    if (page == null)
+    {
+      return null;
+    }
+    return page[c & 0xff];
+  }
+
+  /**
+   * Looks up the character for the entity name stored in the given range of the array.
+   *
+   * @param data  the characters.
+   * @param start the index of the first character of the name.
+   * @param end   the index after the last character of the name.
+   * @return the character, or -1 if the entity is not known.
+   */
+  public int getCharacter(final char[] data, final int start, final int end)
+  {
+    int hash = 0;
+    for (int i = start; i < end; i++)
+    {
+      hash = 31 * hash + data[i];
+    }
+
+    final int length = end - start;
+    int index = spread(hash) & mask;
+    while (true)
+    {
+      final String name = names[index];
+      if (name == null)
+      {
+        return -1;
+      }
+      if (name.length() == length)
+      {
+        int i = 0;
+        while (i < length && name.charAt(i) == data[start + i])
+        {
+          i += 1;
+        }
+        if (i == length)
+        {
+          return values[index];
+        }
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * Looks up the character for the entity name stored in the given range of the character sequence.
+   *
+   * @param data  the characters.
+   * @param start the index of the first character of the name.
+   * @param end   the index after the last character of the name.
+   * @return the character, or -1 if the entity is not known.
+   */
+  public int getCharacter(final CharSequence data, final int start, final int end)
+  {
+    int hash = 0;
+    for (int i = start; i < end; i++)
+    {
+      hash = 31 * hash + data.charAt(i);
+    }
+
+    final int length = end - start;
+    int index = spread(hash) & mask;
+    while (true)
+    {
+      final String name = names[index];
+      if (name == null)
+      {
+        return -1;
+      }
+      if (name.length() == length)
+      {
+        int i = 0;
+        while (i < length && name.charAt(i) == data.charAt(start + i))
+        {
+          i += 1;
+        }
+        if (i == length)
+        {
+          return values[index];
+        }
+      }
+      index = (index + 1) & mask;
+    }
+  }
+}
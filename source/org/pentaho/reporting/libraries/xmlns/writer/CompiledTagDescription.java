@@ -0,0 +1,112 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.util.HashMap;
+
+/**
+ * An immutable tag-description created by {@link DefaultTagDescription#compile()}. The definitions are stored in a
+ * two-level table that maps the namespace to a table of tag-names. Lookups do not allocate any objects and do not
+ * modify any state, so a single instance can be shared by any number of concurrently running XmlWriters.
+ *
+ * @author Thomas Morgner
+ */
+public final class CompiledTagDescription implements TagDescription
+{
+  private final String defaultNamespace;
+  /**
+   * Maps the namespace URI (or null) to a HashMap of tag-names to Boolean values.
+   */
+  private final HashMap tagsByNamespace;
+  /**
+   * Maps the namespace URI to the Boolean default for that namespace.
+   */
+  private final HashMap namespaceDefaults;
+  private final boolean globalDefault;
+
+  /**
+   * Creates a new compiled tag-description. The given maps are owned by the new instance and must not be modified
+   * afterwards.
+   *
+   * @param defaultNamespace  the namespace used for elements without a namespace (can be null).
+   * @param tagsByNamespace   the tag definitions as map of namespace URIs to maps of tag-names to Booleans.
+   * @param namespaceDefaults the namespace defaults as map of namespace URIs to Booleans.
+   * @param globalDefault     the value used if neither a tag definition nor a namespace default matches.
+   */
+  CompiledTagDescription(final String defaultNamespace,
+                         final HashMap tagsByNamespace,
+                         final HashMap namespaceDefaults,
+                         final boolean globalDefault)
+  {
+    if (tagsByNamespace == null)
+    {
+      throw new NullPointerException();
+    }
+    if (namespaceDefaults == null)
+    {
+      throw new NullPointerException();
+    }
+    this.defaultNamespace = defaultNamespace;
+    this.tagsByNamespace = tagsByNamespace;
+    this.namespaceDefaults = namespaceDefaults;
+    this.globalDefault = globalDefault;
+  }
+
+  /**
+   * Queries the defined tag-descriptions whether the given tag and namespace
+   * is defined to allow character-data.
+   *
+   * @param namespace the namespace.
+   * @param tagname   the xml-tagname.
+   * @return true, if the element may contain character data, false otherwise.
+   */
+  public boolean hasCData(final String namespace, final String tagname)
+  {
+    if (tagname == null)
+    {
+      throw new NullPointerException();
+    }
+
+    final String effectiveNamespace;
+    if (namespace == null)
+    {
+      effectiveNamespace = defaultNamespace;
+    }
+    else
+    {
+      effectiveNamespace = namespace;
+    }
+
+    final HashMap tags = (HashMap) tagsByNamespace.get(effectiveNamespace);
+    if (tags != null)
+    {
+      final Boolean tagValue = (Boolean) tags.get(tagname);
+      if (tagValue != null)
+      {
+        return tagValue.booleanValue();
+      }
+    }
+
+    final Boolean namespaceValue = (Boolean) namespaceDefaults.get(effectiveNamespace);
+    if (namespaceValue != null)
+    {
+      return namespaceValue.booleanValue();
+    }
+    return globalDefault;
+  }
+}
@@ -17,6 +17,7 @@
 
 package org.pentaho.reporting.libraries.xmlns.writer;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -25,13 +26,32 @@ import java.util.Map;
 import org.pentaho.reporting.libraries.xmlns.common.AttributeList;
 
 /**
- * A immutable namespace collection. Any attempt to modify the declared namespaces creates a new copy of the map.
+ * A immutable namespace collection. Any attempt to modify the declared namespaces creates a new scope that shares
+ * the existing declarations with its parent scope. Adding declarations therefore costs only as much as the number of
+ * new declarations; lookups walk a short chain of scopes. To keep lookups cheap, the chain is collapsed into a single
+ * scope once it grows beyond a fixed length.
+ * <p/>
+ * Each scope indexes its declarations by URI and by prefix, so that both {@link #getPrefix(String)} and
+ * {@link #isPrefixDefined(String)} avoid scanning the declared values.
  *
  * @author Thomas Morgner
  */
 public final class DeclaredNamespaces
 {
+  /**
+   * The maximum number of scopes a lookup has to visit before the chain is collapsed.
+   */
+  private static final int MAX_CHAIN_LENGTH = 8;
+
+  private DeclaredNamespaces parent;
   private HashMap namespaces;
+  /**
+   * The reverse index of this scope's declarations. Maps the prefix to the URI, or to an ArrayList of URIs if the
+   * same prefix is used for more than one URI.
+   */
+  private HashMap prefixes;
+  private int chainLength;
+  private Map namespacesView;
 
   /**
    * Creates a new namespaces collection.
@@ -52,10 +72,75 @@ public final class DeclaredNamespaces
       throw new NullPointerException();
     }
 
-    if (namespaces.namespaces != null)
+    // the declarations of a scope are never modified once the scope has been created, so they can be shared.
+    this.parent = namespaces.parent;
+    this.namespaces = namespaces.namespaces;
+    this.prefixes = namespaces.prefixes;
+    this.chainLength = namespaces.chainLength;
+  }
+
+  /**
+   * Creates a new scope on top of the given parent scope.
+   *
+   * @param parent       the parent scope.
+   * @param declarations the declarations of the new scope, never null and owned by the new scope.
+   */
+  private DeclaredNamespaces(final DeclaredNamespaces parent, final HashMap declarations)
+  {
+    if (parent.namespaces == null && parent.parent == null)
+    {
+      // the parent is empty, no need to link to it.
+      this.namespaces = declarations;
+      this.chainLength = 1;
+    }
+    else if (parent.chainLength >= MAX_CHAIN_LENGTH)
+    {
+      // collapse the chain into a single scope.
+      final HashMap collapsed = new HashMap();
+      parent.collectNamespaces(collapsed);
+      collapsed.putAll(declarations);
+      this.namespaces = collapsed;
+      this.chainLength = 1;
+    }
+    else
+    {
+      this.parent = parent;
+      this.namespaces = declarations;
+      this.chainLength = parent.chainLength + 1;
+    }
+    this.prefixes = buildPrefixIndex(this.namespaces);
+  }
+
+  /**
+   * Builds the prefix to URI index for the given declarations.
+   *
+   * @param declarations the declarations as map of URIs to prefixes.
+   * @return the reverse index.
+   */
+  private static HashMap buildPrefixIndex(final HashMap declarations)
+  {
+    final HashMap index = new HashMap(declarations.size());
+    final Iterator iterator = declarations.entrySet().iterator();
+    while (iterator.hasNext())
     {
-      this.namespaces = (HashMap) namespaces.namespaces.clone();
+      final Map.Entry entry = (Map.Entry) iterator.next();
+      final Object prefix = entry.getValue();
+      final Object existing = index.put(prefix, entry.getKey());
+      if (existing instanceof String)
+      {
+        final ArrayList uris = new ArrayList();
+        uris.add(existing);
+        uris.add(entry.getKey());
+        index.put(prefix, uris);
+      }
+      else if (existing instanceof ArrayList)
+      {
+        final ArrayList uris = (ArrayList) existing;
+        uris.add(entry.getKey());
+        index.put(prefix, uris);
+      }
     }
+    return index;
   }
 
   /**
@@ -72,16 +157,7 @@ public final class DeclaredNamespaces
       throw new NullPointerException();
     }
 
-    final DeclaredNamespaces retval = new DeclaredNamespaces();
-    if (this.namespaces == null)
-    {
-      retval.namespaces = new HashMap();
-    }
-    else
-    {
-      retval.namespaces = (HashMap) this.namespaces.clone();
-    }
-
+    final HashMap declarations = new HashMap(newNamespaces.size());
     final Iterator iterator = newNamespaces.entrySet().iterator();
     while (iterator.hasNext())
     {
@@ -92,10 +168,9 @@ public final class DeclaredNamespaces
       {
         throw new NullPointerException();
       }
-      retval.namespaces.put(o, value);
-
+      declarations.put(o, value);
     }
-    return retval;
+    return new DeclaredNamespaces(this, declarations);
   }
 
   /**
@@ -111,7 +186,7 @@ public final class DeclaredNamespaces
       throw new NullPointerException();
     }
 
-    DeclaredNamespaces retval = null;
+    HashMap declarations = null;
     final AttributeList.AttributeEntry[] entries = attributes.toArray();
     for (int i = 0; i < entries.length; i++)
     {
@@ -121,44 +196,28 @@ public final class DeclaredNamespaces
       {
         if (entry.getNamespace() == null || "".equals(entry.getNamespace()))
         {
-          if (retval == null)
+          if (declarations == null)
           {
-            retval = new DeclaredNamespaces();
-            if (namespaces != null)
-            {
-              retval.namespaces = (HashMap) namespaces.clone();
-            }
-            else
-            {
-              retval.namespaces = new HashMap();
-            }
+            declarations = new HashMap();
           }
-          retval.namespaces.put(entry.getValue(), "");
+          declarations.put(entry.getValue(), "");
         }
       }
       else if (AttributeList.XMLNS_NAMESPACE.equals(entry.getNamespace()))
       {
-        if (retval == null)
+        if (declarations == null)
         {
-          retval = new DeclaredNamespaces();
-          if (namespaces != null)
-          {
-            retval.namespaces = (HashMap) namespaces.clone();
-          }
-          else
-          {
-            retval.namespaces = new HashMap();
-          }
+          declarations = new HashMap();
         }
-        retval.namespaces.put(entry.getValue(), prefix);
+        declarations.put(entry.getValue(), prefix);
       }
     }
 
-    if (retval == null)
+    if (declarations == null)
     {
       return this;
     }
-    return retval;
+    return new DeclaredNamespaces(this, declarations);
   }
 
   /**
@@ -178,17 +237,9 @@ public final class DeclaredNamespaces
     {
       throw new NullPointerException();
     }
-    final DeclaredNamespaces retval = new DeclaredNamespaces();
-    if (namespaces == null)
-    {
-      retval.namespaces = new HashMap();
-    }
-    else
-    {
-      retval.namespaces = (HashMap) namespaces.clone();
-    }
-    retval.namespaces.put(uri, prefix);
-    return retval;
+    final HashMap declarations = new HashMap();
+    declarations.put(uri, prefix);
+    return new DeclaredNamespaces(this, declarations);
   }
 
   /**
@@ -204,11 +255,20 @@ public final class DeclaredNamespaces
       throw new NullPointerException();
     }
 
-    if (namespaces == null)
+    DeclaredNamespaces scope = this;
+    while (scope != null)
     {
-      return null;
+      if (scope.namespaces != null)
+      {
+        final Object prefix = scope.namespaces.get(uri);
+        if (prefix != null)
+        {
+          return (String) prefix;
+        }
+      }
+      scope = scope.parent;
     }
-    return (String) namespaces.get(uri);
+    return null;
   }
 
   /**
@@ -219,36 +279,105 @@ public final class DeclaredNamespaces
    */
   public boolean isNamespaceDefined(final String uri)
   {
-    if (uri == null)
-    {
-      throw new NullPointerException();
-    }
+    return getPrefix(uri) != null;
+  }
 
-    if (namespaces == null)
+  /**
+   * Returns all known namespaces as unmodifiable map. The map is computed once per scope and shared between all
+   * callers. Parent scopes are not affected.
+   *
+   * @return the namespaces.
+   */
+  public Map getNamespaces()
+  {
+    if (namespacesView == null)
     {
-      return false;
+      if (parent == null)
+      {
+        if (namespaces == null)
+        {
+          namespacesView = Collections.EMPTY_MAP;
+        }
+        else
+        {
+          namespacesView = Collections.unmodifiableMap(namespaces);
+        }
+      }
+      else
+      {
+        final HashMap flattened = new HashMap();
+        collectNamespaces(flattened);
+        namespacesView = Collections.unmodifiableMap(flattened);
+      }
     }
-    return namespaces.containsKey(uri);
+    return namespacesView;
   }
 
   /**
-   * Returns all known namespaces as unmodifiable map.
+   * Copies all declarations visible in this scope into the given map. Declarations of nested scopes replace those
+   * of their parents. Nothing is cached, so that collapsing a chain does not leave flattened copies in every
+   * ancestor.
    *
-   * @return the namespaces.
+   * @param target the map receiving the declarations.
    */
-  public Map getNamespaces()
+  private void collectNamespaces(final HashMap target)
   {
-    return Collections.unmodifiableMap(namespaces);
+    if (namespacesView != null)
+    {
+      target.putAll(namespacesView);
+      return;
+    }
+    if (parent != null)
+    {
+      parent.collectNamespaces(target);
+    }
+    if (namespaces != null)
+    {
+      target.putAll(namespaces);
+    }
   }
 
   /**
-   * Checks whether the given prefix is already defined in the collection.
+   * Checks whether the given prefix is already defined in the collection. A prefix is defined if at least one
+   * visible namespace URI is bound to it; bindings that have been redeclared by a nested scope do not count.
    *
    * @param prefix the prefix.
    * @return true, if the prefix is already used, false otherwise.
    */
   public boolean isPrefixDefined(final String prefix)
   {
-    return namespaces.containsValue(prefix);
+    if (prefix == null)
+    {
+      return false;
+    }
+
+    DeclaredNamespaces scope = this;
+    while (scope != null)
+    {
+      if (scope.prefixes != null)
+      {
+        final Object uris = scope.prefixes.get(prefix);
+        if (uris instanceof String)
+        {
+          if (prefix.equals(getPrefix((String) uris)))
+          {
+            return true;
+          }
+        }
+        else if (uris != null)
+        {
+          final ArrayList list = (ArrayList) uris;
+          for (int i = 0; i < list.size(); i++)
+          {
+            if (prefix.equals(getPrefix((String) list.get(i))))
+            {
+              return true;
+            }
+          }
+        }
+      }
+      scope = scope.parent;
+    }
+    return false;
   }
 }
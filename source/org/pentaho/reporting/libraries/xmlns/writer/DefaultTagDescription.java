@@ -19,6 +19,7 @@ package org.pentaho.reporting.libraries.xmlns.writer;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.pentaho.reporting.libraries.base.config.Configuration;
 
@@ -26,6 +27,10 @@ import org.pentaho.reporting.libraries.base.config.Configuration;
  * A tag-description provides information about xml tags. At the moment, we
  * simply care whether an element can contain CDATA. In such cases, we do not
  * indent the inner elements.
+ * <p/>
+ * Lookups do not modify the description, so several threads can query it at the
+ * same time as long as no definitions are added while they do. Use {@link #compile()}
+ * to create an immutable description that can be shared between threads.
  *
  * @author Thomas Morgner
  */
@@ -52,19 +57,6 @@ public class DefaultTagDescription implements TagDescription
       this.tagName = tagName;
     }
 
-    /**
-     * Updates the internal state for the tag-definition lookup-key. Calling this on a non-lookup key will
-     * give funny and unpredictable results. 
-     *
-     * @param namespace the namespace of the key.
-     * @param tagName the tagname.
-     */
-    public void update(final String namespace, final String tagName)
-    {
-      this.namespace = namespace;
-      this.tagName = tagName;
-    }
-    
     /**
      * Compares this key for equality with an other object.
      *
@@ -120,7 +112,10 @@ public class DefaultTagDescription implements TagDescription
   private HashMap defaultDefinitions;
   private HashMap tagData;
   private String defaultNamespace;
-  private TagDefinitionKey lookupKey;
+  /**
+   * Counts the changes to the definitions, so that compiled copies can detect that they are out of date.
+   */
+  private int modificationCount;
   
   /**
    * A default-constructor.
@@ -129,7 +124,6 @@ public class DefaultTagDescription implements TagDescription
   {
     defaultDefinitions = new HashMap();
     tagData = new HashMap();
-    lookupKey = new TagDefinitionKey(null, null);
   }
 
   /**
@@ -177,6 +171,7 @@ public class DefaultTagDescription implements TagDescription
       knownNamespaces.put(nsPrefix, nsUri);
     }
 
+    modificationCount += 1;
     defaultNamespace = (String) knownNamespaces.get
         (conf.getConfigProperty(prefix + "namespace"));
 
@@ -228,6 +223,17 @@ public class DefaultTagDescription implements TagDescription
     }
   }
 
+  /**
+   * Returns the number of changes made to the definitions of this tag-description. The number changes whenever a
+   * definition is added or the description is configured.
+   *
+   * @return the modification count.
+   */
+  int getModificationCount()
+  {
+    return modificationCount;
+  }
+
   /**
    * Adds a configuration default for the given namespace to the tag-descriptions. If the namespace URI given
    * here is null, this defines the global default for all namespaces.
@@ -238,6 +244,7 @@ public class DefaultTagDescription implements TagDescription
   public void addDefaultDefinition(final String namespaceUri, final boolean hasCData)
   {
     defaultDefinitions.put(namespaceUri, hasCData ? Boolean.TRUE : Boolean.FALSE);
+    modificationCount += 1;
   }
 
   /**
@@ -258,6 +265,7 @@ public class DefaultTagDescription implements TagDescription
       throw new NullPointerException();
     }
     tagData.put(new TagDefinitionKey(namespaceUri, tagName), hasCData ? Boolean.TRUE : Boolean.FALSE);
+    modificationCount += 1;
   }
 
   /**
@@ -282,8 +290,7 @@ public class DefaultTagDescription implements TagDescription
 
     if (tagData.isEmpty() == false)
     {
-      lookupKey.update(namespace, tagname);
-      final Object tagVal = tagData.get(lookupKey);
+      final Object tagVal = tagData.get(new TagDefinitionKey(namespace, tagname));
       if (tagVal != null)
       {
         return Boolean.FALSE.equals(tagVal) == false;
@@ -304,4 +311,50 @@ public class DefaultTagDescription implements TagDescription
     final Object defaultValue = defaultDefinitions.get(null);
     return Boolean.FALSE.equals(defaultValue) == false;
   }
+
+  /**
+   * Creates an immutable snapshot of the current definitions. Unlike this class, the returned description can be
+   * shared between threads. Later changes to this description are not reflected in the snapshot.
+   *
+   * @return the compiled tag-description.
+   */
+  public CompiledTagDescription compile()
+  {
+    final HashMap tagsByNamespace = new HashMap();
+    final Iterator tagIterator = tagData.entrySet().iterator();
+    while (tagIterator.hasNext())
+    {
+      final Map.Entry entry = (Map.Entry) tagIterator.next();
+      final TagDefinitionKey key = (TagDefinitionKey) entry.getKey();
+      HashMap tags = (HashMap) tagsByNamespace.get(key.namespace);
+      if (tags == null)
+      {
+        tags = new HashMap();
+        tagsByNamespace.put(key.namespace, tags);
+      }
+      tags.put(key.tagName, Boolean.FALSE.equals(entry.getValue()) ? Boolean.FALSE : Boolean.TRUE);
+    }
+
+    final HashMap namespaceDefaults = new HashMap();
+    final boolean globalDefault;
+    if (defaultDefinitions.isEmpty())
+    {
+      // without any default definitions, every element not covered by a tag definition may contain CDATA.
+      globalDefault = true;
+    }
+    else
+    {
+      final Iterator defaultIterator = defaultDefinitions.entrySet().iterator();
+      while (defaultIterator.hasNext())
+      {
+        final Map.Entry entry = (Map.Entry) defaultIterator.next();
+        if (entry.getKey() != null)
+        {
+          namespaceDefaults.put(entry.getKey(), Boolean.FALSE.equals(entry.getValue()) ? Boolean.FALSE : Boolean.TRUE);
+        }
+      }
+      globalDefault = Boolean.FALSE.equals(defaultDefinitions.get(null)) == false;
+    }
+    return new CompiledTagDescription(defaultNamespace, tagsByNamespace, namespaceDefaults, globalDefault);
+  }
 }
@@ -0,0 +1,302 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A Utf8StreamWriter that compresses the encoded bytes before they are written to the output stream. The encoded
+ * bytes are fed directly into a Deflater, so that no additional stream layer and no additional copy is needed.
+ * Deflaters are taken from a shared pool and returned to it when the writer is closed.
+ * <p/>
+ * The writer produces either gzip or zlib output. A plain {@link #flush()} only pushes the encoded bytes into the
+ * Deflater and flushes the compressed bytes produced so far; it does not affect the compression ratio. In gzip mode,
+ * {@link #syncPoint()} additionally completes the current gzip member and starts a new one with the next write.
+ * Everything written before the sync point can then be decompressed by the consumer, even while the document is still
+ * being written. Standard gzip readers treat the concatenated members as a single stream. Each member starts with an
+ * empty dictionary, so sync points should be rare compared to the amount of data written. In zlib mode, a sync point
+ * behaves like a plain flush.
+ *
+ * @author Thomas Morgner
+ */
+public class DeflatingStreamWriter extends Utf8StreamWriter
+{
+  /**
+   * A small pool of Deflaters. Creating a Deflater allocates a considerable amount of native memory, so Deflaters
+   * are reused across writers.
+   */
+  private static final class DeflaterPool
+  {
+    private static final int MAX_POOL_SIZE = 8;
+
+    private ArrayList deflaters;
+
+    private DeflaterPool()
+    {
+      deflaters = new ArrayList();
+    }
+
+    /**
+     * Returns a pooled deflater or creates a new one.
+     *
+     * @param level  the compression level.
+     * @param nowrap true to create raw deflate output, false for zlib output.
+     * @return the deflater.
+     */
+    private synchronized Deflater acquire(final int level, final boolean nowrap)
+    {
+      if (deflaters.isEmpty())
+      {
+        return new Deflater(level, nowrap);
+      }
+      final Deflater deflater = (Deflater) deflaters.remove(deflaters.size() - 1);
+      deflater.setLevel(level);
+      return deflater;
+    }
+
+    /**
+     * Returns the deflater to the pool.
+     *
+     * @param deflater the deflater.
+     */
+    private synchronized void release(final Deflater deflater)
+    {
+      if (deflaters.size() >= MAX_POOL_SIZE)
+      {
+        deflater.end();
+        return;
+      }
+      deflater.reset();
+      deflaters.add(deflater);
+    }
+  }
+
+  private static final DeflaterPool GZIP_POOL = new DeflaterPool();
+  private static final DeflaterPool ZLIB_POOL = new DeflaterPool();
+
+  private static final byte[] GZIP_HEADER = {
+      (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+  private OutputStream outputStream;
+  private boolean gzip;
+  private Deflater deflater;
+  private byte[] outputBuffer;
+  private CRC32 crc;
+  private long memberSize;
+  private boolean memberOpen;
+  private boolean memberWritten;
+
+  /**
+   * Creates a new gzip writer with the default compression level and buffer size.
+   *
+   * @param outputStream the target stream.
+   */
+  public DeflatingStreamWriter(final OutputStream outputStream)
+  {
+    this(outputStream, Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE, true);
+  }
+
+  /**
+   * Creates a new compressing writer.
+   *
+   * @param outputStream the target stream.
+   * @param level        the compression level (0-9 or Deflater.DEFAULT_COMPRESSION).
+   * @param bufferSize   the size of the encoding and the compression buffer, must be at least 16 bytes.
+   * @param gzip         true to write gzip output, false to write zlib output.
+   */
+  public DeflatingStreamWriter(final OutputStream outputStream,
+                               final int level,
+                               final int bufferSize,
+                               final boolean gzip)
+  {
+    super(bufferSize);
+    if (outputStream == null)
+    {
+      throw new NullPointerException("OutputStream must not be null.");
+    }
+    if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+    {
+      throw new IllegalArgumentException("Invalid compression level: " + level);
+    }
+    this.outputStream = outputStream;
+    this.gzip = gzip;
+    this.outputBuffer = new byte[bufferSize];
+    if (gzip)
+    {
+      this.crc = new CRC32();
+      this.deflater = GZIP_POOL.acquire(level, true);
+    }
+    else
+    {
+      this.deflater = ZLIB_POOL.acquire(level, false);
+    }
+  }
+
+  /**
+   * Compresses the given encoded bytes.
+   *
+   * @param data   the buffer holding the encoded bytes.
+   * @param offset the offset of the first byte.
+   * @param length the number of bytes to write.
+   * @throws IOException if an IO error occured.
+   */
+  protected void drain(final byte[] data, final int offset, final int length) throws IOException
+  {
+    if (length == 0)
+    {
+      return;
+    }
+    if (gzip)
+    {
+      if (memberOpen == false)
+      {
+        outputStream.write(GZIP_HEADER);
+        memberOpen = true;
+      }
+      crc.update(data, offset, length);
+      memberSize += length;
+    }
+
+    deflater.setInput(data, offset, length);
+    while (deflater.needsInput() == false)
+    {
+      final int count = deflater.deflate(outputBuffer, 0, outputBuffer.length);
+      if (count > 0)
+      {
+        outputStream.write(outputBuffer, 0, count);
+      }
+    }
+  }
+
+  /**
+   * Flushes the output stream. Data still held by the Deflater stays there, so that flushing does not harm the
+   * compression.
+   *
+   * @throws IOException if an IO error occured.
+   */
+  protected void flushTarget() throws IOException
+  {
+    outputStream.flush();
+  }
+
+  /**
+   * Flushes the writer and, in gzip mode, completes the current gzip member, so that all data written so far can be
+   * decompressed by the consumer. The next member starts with an empty dictionary.
+   *
+   * @throws IOException if an IO error occured.
+   */
+  public void syncPoint() throws IOException
+  {
+    flush();
+    if (gzip && memberOpen)
+    {
+      finishDeflater();
+      outputStream.flush();
+    }
+  }
+
+  /**
+   * Completes the compressed stream, returns the Deflater to the pool and closes the output stream.
+   *
+   * @throws IOException if an IO error occured.
+   */
+  protected void closeTarget() throws IOException
+  {
+    try
+    {
+      if (gzip)
+      {
+        if (memberOpen || memberWritten == false)
+        {
+          // an empty document still needs one complete gzip member.
+          if (memberOpen == false)
+          {
+            outputStream.write(GZIP_HEADER);
+            memberOpen = true;
+          }
+          finishDeflater();
+        }
+      }
+      else
+      {
+        finishDeflater();
+      }
+    }
+    finally
+    {
+      final Deflater deflater = this.deflater;
+      this.deflater = null;
+      if (gzip)
+      {
+        GZIP_POOL.release(deflater);
+      }
+      else
+      {
+        ZLIB_POOL.release(deflater);
+      }
+      outputStream.close();
+    }
+  }
+
+  /**
+   * Writes all pending compressed data and, in gzip mode, the member trailer. The Deflater is reset afterwards.
+   *
+   * @throws IOException if an IO error occured.
+   */
+  private void finishDeflater() throws IOException
+  {
+    deflater.finish();
+    while (deflater.finished() == false)
+    {
+      final int count = deflater.deflate(outputBuffer, 0, outputBuffer.length);
+      if (count > 0)
+      {
+        outputStream.write(outputBuffer, 0, count);
+      }
+    }
+    deflater.reset();
+
+    if (gzip)
+    {
+      writeInt((int) crc.getValue());
+      writeInt((int) memberSize);
+      crc.reset();
+      memberSize = 0;
+      memberOpen = false;
+      memberWritten = true;
+    }
+  }
+
+  /**
+   * Writes an integer in little-endian byte order, as required by the gzip trailer.
+   *
+   * @param value the value.
+   * @throws IOException if an IO error occured.
+   */
+  private void writeInt(final int value) throws IOException
+  {
+    outputStream.write(value & 0xff);
+    outputStream.write((value >> 8) & 0xff);
+    outputStream.write((value >> 16) & 0xff);
+    outputStream.write((value >> 24) & 0xff);
+  }
+}
@@ -22,295 +22,105 @@ import java.util.Properties;
 /**
  * A collection of all character entites defined in the HTML4 standard. The key
  * is the entity name, the property value is the decoded string.
+ * <p/>
+ * The entities are stored as precomputed arrays. The shared entity parser is
+ * built from these arrays on first use and never goes through this Properties
+ * collection.
  *
  * @author Thomas Morgner
  */
 public class HtmlCharacterEntities extends Properties
 {
+  private static final long serialVersionUID = 5118172339379209383L;
+
   /**
-   * The singleton instance for this entity-parser implementation.
+   * The entity names. The character for each name is stored at the same index
+   * in ENTITY_VALUES.
    */
-  private static CharacterEntityParser entityParser;
-  private static final long serialVersionUID = 5118172339379209383L;
+  private static final String[] ENTITY_NAMES = {
+      "ang", "spades", "frasl", "copy", "Upsilon", "rsquo", "sdot", "beta", "egrave", "Pi", "micro", "lArr", "Beta",
+      "eacute", "agrave", "sbquo", "ucirc", "mdash", "rho", "Nu", "ne", "nsub", "AElig", "raquo", "aacute", "le",
+      "harr", "frac34", "bdquo", "cup", "frac14", "exist", "Ccedil", "phi", "Lambda", "alpha", "sigma", "thetasym",
+      "Rho", "hArr", "Dagger", "otilde", "Epsilon", "iuml", "Phi", "prod", "Aring", "rlm", "yen", "emsp", "rang",
+      "Atilde", "Iuml", "iota", "deg", "prop", "and", "para", "darr", "curren", "crarr", "not", "Iota", "aelig",
+      "rdquo", "Ocirc", "ntilde", "reg", "zeta", "middot", "cent", "quot", "hellip", "Zeta", "rceil", "eta", "nbsp",
+      "rarr", "frac12", "real", "mu", "dArr", "divide", "cap", "chi", "times", "euml", "Gamma", "loz", "acute",
+      "Omega", "ndash", "clubs", "macr", "Yacute", "Ugrave", "Euml", "Eta", "sect", "asymp", "ordm", "rArr",
+      "radic", "Uacute", "omicron", "Chi", "aring", "Theta", "supe", "ensp", "uml", "ccedil", "lambda", "gt",
+      "uarr", "alefsym", "auml", "sup3", "circ", "lsquo", "Auml", "dagger", "Kappa", "cong", "zwnj", "shy", "ouml",
+      "diams", "uArr", "atilde", "THORN", "or", "Ograve", "ocirc", "plusm", "Ouml", "nabla", "psi", "sigmaf",
+      "euro", "sube", "sup2", "laquo", "forall", "Oacute", "iexcl", "piv", "minus", "zwj", "tau", "Mu", "gamma",
+      "sup", "Psi", "omega", "Oslash", "weierp", "Igrave", "OElig", "sup1", "cedil", "upsilon", "equiv", "isin",
+      "Delta", "yacute", "ugrave", "ge", "Iacute", "brvbar", "Tau", "Prime", "rfloor", "Ecirc", "ETH", "int", "xi",
+      "uacute", "bull", "Scaron", "theta", "yuml", "oplus", "part", "ldquo", "Icirc", "Yuml", "eth", "Acirc", "sub",
+      "lceil", "Egrave", "tilde", "pi", "rsaquo", "kappa", "upsih", "Omicron", "otimes", "ni", "amp", "Eacute",
+      "nu", "Ucirc", "uuml", "oslash", "thorn", "trade", "epsilon", "ograve", "hearts", "iquest", "Uuml", "empty",
+      "lowast", "sum", "lfloor", "lrm", "oacute", "image", "Agrave", "oline", "oelig", "Sigma", "permil", "perp",
+      "lt", "Aacute", "acirc", "lang", "delta", "infin", "igrave", "ordf", "lsaquo", "prime", "ecirc", "there4",
+      "iacute", "sim", "Alpha", "pound", "notin", "Ntilde", "Xi", "thinsp", "Otilde", "icirc", "scaron", "szlig",
+      "larr"
+  };
 
   /**
-   * Gets the character entity parser for HTML content. The CharacterEntity
-   * parser translates known characters into predefined entities.
-   *
-   * @return the character entity parser instance.
+   * The characters for the entity names, one character per entity.
    */
-  public static synchronized CharacterEntityParser getEntityParser()
+  private static final String ENTITY_VALUES =
+      "\u2220\u2660\u2044\u00a9\u03a5\u2019\u22c5\u03b2\u00e8\u03a0\u00b5\u21d0" +
+      "\u0392\u00e9\u00e0\u201a\u00fb\u2014\u03c1\u039d\u2260\u2284\u00c6\u00bb" +
+      "\u00e1\u2264\u2194\u00be\u201e\u222a\u00bc\u2203\u00c7\u03c6\u039b\u03b1" +
+      "\u03c3\u03d1\u03a1\u21d4\u2021\u00f5\u0395\u00ef\u03a6\u220f\u00c5\u200f" +
+      "\u00a5\u2003\u232a\u00c3\u00cf\u03b9\u00b0\u221d\u2227\u00b6\u2193\u00a4" +
+      "\u21b5\u00ac\u0399\u00e6\u201d\u00d4\u00f1\u00ae\u03b6\u00b7\u00a2\"" +
+      "\u2026\u0396\u2309\u03b7\u00a0\u2192\u00bd\u211c\u03bc\u21d3\u00f7\u2229" +
+      "\u03c7\u00d7\u00eb\u0393\u25ca\u00b4\u03a9\u2013\u2663\u00af\u00dd\u00d9" +
+      "\u00cb\u0397\u00a7\u2248\u00ba\u21d2\u221a\u00da\u03bf\u03a7\u00e5\u0398" +
+      "\u2287\u2002\u00a8\u00e7\u03bb\u003e\u2191\u2135\u00e4\u00b3\u02c6\u2018" +
+      "\u00c4\u2020\u039a\u2245\u200c\u00ad\u00f6\u2666\u21d1\u00e3\u00de\u2228" +
+      "\u00d2\u00f4\u00b1\u00d6\u2207\u03c8\u03c2\u20ac\u2286\u00b2\u00ab\u2200" +
+      "\u00d3\u00a1\u03d6\u2212\u200d\u03c4\u039c\u03b3\u2283\u03a8\u03c9\u00d8" +
+      "\u2118\u00cc\u0152\u00b9\u00b8\u03c5\u2261\u2208\u0394\u00fd\u00f9\u2265" +
+      "\u00cd\u00a6\u03a4\u2033\u22a7\u00ca\u00d0\u222b\u03be\u00fa\u2022\u0160" +
+      "\u03b8\u00ff\u2295\u2202\u201c\u00ce\u0178\u00f0\u00c2\u2282\u2308\u00c8" +
+      "\u02dc\u03c0\u203a\u03ba\u03d2\u039f\u2297\u220b\u0026\u00c9\u03bd\u00db" +
+      "\u00fc\u00f8\u00fe\u2122\u03b5\u00f2\u2665\u00bf\u00dc\u2205\u2217\u2211" +
+      "\u22a6\u200e\u00f3\u2111\u00c0\u203e\u0153\u03a3\u2030\u22a5\u003c\u00c1" +
+      "\u00e2\u2329\u03b4\u221e\u00ec\u00aa\u2039\u2032\u00ea\u2234\u00ed\u223c" +
+      "\u0391\u00a3\u2209\u00d1\u039e\u2009\u00d5\u00ee\u0161\u00df\u2190";
+
+  /**
+   * Holds the singleton instance for this entity-parser implementation. The
+   * class loader guarantees that the parser is created exactly once and
+   * safely published to all threads, without any further locking.
+   */
+  private static final class EntityParserHolder
   {
-    if (entityParser == null)
+    private static final CharacterEntityParser ENTITY_PARSER = new CharacterEntityParser
+        (CharacterEntityTable.create(ENTITY_NAMES, ENTITY_VALUES.toCharArray()));
+
+    private EntityParserHolder()
     {
-      entityParser = new CharacterEntityParser(new HtmlCharacterEntities());
     }
-    return entityParser;
   }
 
   /**
-   * Creates an instance.
+   * Gets the character entity parser for HTML content. The CharacterEntity
+   * parser translates known characters into predefined entities.
+   *
+   * @return the character entity parser instance.
    */
-  public HtmlCharacterEntities()
+  public static CharacterEntityParser getEntityParser()
   {
-    setProperty("ang", "\u2220");
-    setProperty("spades", "\u2660");
-    setProperty("frasl", "\u2044");
-    setProperty("copy", "\u00a9");
-    setProperty("Upsilon", "\u03a5");
-    setProperty("rsquo", "\u2019");
-    setProperty("sdot", "\u22c5");
-    setProperty("beta", "\u03b2");
-    setProperty("egrave", "\u00e8");
-    setProperty("Pi", "\u03a0");
-    setProperty("micro", "\u00b5");
-    setProperty("lArr", "\u21d0");
-    setProperty("Beta", "\u0392");
-    setProperty("eacute", "\u00e9");
-    setProperty("agrave", "\u00e0");
-    setProperty("sbquo", "\u201a");
-    setProperty("ucirc", "\u00fb");
-    setProperty("mdash", "\u2014");
-    setProperty("rho", "\u03c1");
-    setProperty("Nu", "\u039d");
-    setProperty("ne", "\u2260");
-    setProperty("nsub", "\u2284");
-    setProperty("AElig", "\u00c6");
-    setProperty("raquo", "\u00bb");
-    setProperty("aacute", "\u00e1");
-    setProperty("le", "\u2264");
-    setProperty("harr", "\u2194");
-    setProperty("frac34", "\u00be");
-    setProperty("bdquo", "\u201e");
-    setProperty("cup", "\u222a");
-    setProperty("frac14", "\u00bc");
-    setProperty("exist", "\u2203");
-    setProperty("Ccedil", "\u00c7");
-    setProperty("phi", "\u03c6");
-    setProperty("Lambda", "\u039b");
-    setProperty("alpha", "\u03b1");
-    setProperty("sigma", "\u03c3");
-    setProperty("thetasym", "\u03d1");
-    setProperty("Rho", "\u03a1");
-    setProperty("hArr", "\u21d4");
-    setProperty("Dagger", "\u2021");
-    setProperty("otilde", "\u00f5");
-    setProperty("Epsilon", "\u0395");
-    setProperty("iuml", "\u00ef");
-    setProperty("Phi", "\u03a6");
-    setProperty("prod", "\u220f");
-    setProperty("Aring", "\u00c5");
-    setProperty("rlm", "\u200f");
-    setProperty("yen", "\u00a5");
-    setProperty("emsp", "\u2003");
-    setProperty("rang", "\u232a");
-    setProperty("Atilde", "\u00c3");
-    setProperty("Iuml", "\u00cf");
-    setProperty("iota", "\u03b9");
-    setProperty("deg", "\u00b0");
-    setProperty("prop", "\u221d");
-    setProperty("and", "\u2227");
-    setProperty("para", "\u00b6");
-    setProperty("darr", "\u2193");
-    setProperty("curren", "\u00a4");
-    setProperty("crarr", "\u21b5");
-    setProperty("not", "\u00ac");
-    setProperty("Iota", "\u0399");
-    setProperty("aelig", "\u00e6");
-    setProperty("rdquo", "\u201d");
-    setProperty("Ocirc", "\u00d4");
-    setProperty("ntilde", "\u00f1");
-    setProperty("reg", "\u00ae");
-    setProperty("zeta", "\u03b6");
-    setProperty("middot", "\u00b7");
-    setProperty("cent", "\u00a2");
-    setProperty("quot", "\"");
-    setProperty("hellip", "\u2026");
-    setProperty("Zeta", "\u0396");
-    setProperty("rceil", "\u2309");
-    setProperty("eta", "\u03b7");
-    setProperty("nbsp", "\u00a0");
-    setProperty("rarr", "\u2192");
-    setProperty("frac12", "\u00bd");
-    setProperty("real", "\u211c");
-    setProperty("mu", "\u03bc");
-    setProperty("dArr", "\u21d3");
-    setProperty("divide", "\u00f7");
-    setProperty("cap", "\u2229");
-    setProperty("chi", "\u03c7");
-    setProperty("times", "\u00d7");
-    setProperty("euml", "\u00eb");
-    setProperty("Gamma", "\u0393");
-    setProperty("loz", "\u25ca");
-    setProperty("acute", "\u00b4");
-    setProperty("Omega", "\u03a9");
-    setProperty("ndash", "\u2013");
-    setProperty("clubs", "\u2663");
-    setProperty("macr", "\u00af");
-    setProperty("Yacute", "\u00dd");
-    setProperty("Ugrave", "\u00d9");
-    setProperty("Euml", "\u00cb");
-    setProperty("Eta", "\u0397");
-    setProperty("sect", "\u00a7");
-    setProperty("asymp", "\u2248");
-    setProperty("ordm", "\u00ba");
-    setProperty("rArr", "\u21d2");
-    setProperty("radic", "\u221a");
-    setProperty("Uacute", "\u00da");
-    setProperty("omicron", "\u03bf");
-    setProperty("Chi", "\u03a7");
-    setProperty("aring", "\u00e5");
-    setProperty("Theta", "\u0398");
-    setProperty("supe", "\u2287");
-    setProperty("ensp", "\u2002");
-    setProperty("uml", "\u00a8");
-    setProperty("ccedil", "\u00e7");
-    setProperty("lambda", "\u03bb");
-    setProperty("gt", "\u003e");
-    setProperty("uarr", "\u2191");
-    setProperty("alefsym", "\u2135");
-    setProperty("auml", "\u00e4");
-    setProperty("sup3", "\u00b3");
-    setProperty("circ", "\u02c6");
-    setProperty("lsquo", "\u2018");
-    setProperty("Auml", "\u00c4");
-    setProperty("dagger", "\u2020");
-    setProperty("Kappa", "\u039a");
-    setProperty("cong", "\u2245");
-    setProperty("zwnj", "\u200c");
-    setProperty("shy", "\u00ad");
-    setProperty("ouml", "\u00f6");
-    setProperty("diams", "\u2666");
-    setProperty("uArr", "\u21d1");
-    setProperty("atilde", "\u00e3");
-    setProperty("THORN", "\u00de");
-    setProperty("or", "\u2228");
-    setProperty("Ograve", "\u00d2");
-    setProperty("ocirc", "\u00f4");
-    setProperty("plusm", "\u00b1");
-    setProperty("Ouml", "\u00d6");
-    setProperty("nabla", "\u2207");
-    setProperty("psi", "\u03c8");
-    setProperty("sigmaf", "\u03c2");
-    setProperty("euro", "\u20ac");
-    setProperty("sube", "\u2286");
-    setProperty("sup2", "\u00b2");
-    setProperty("laquo", "\u00ab");
-    setProperty("forall", "\u2200");
-    setProperty("Oacute", "\u00d3");
-    setProperty("iexcl", "\u00a1");
-    fillMoreEntities();
+    return EntityParserHolder.ENTITY_PARSER;
   }
 
   /**
-   * Externalized initialization method to make CheckStyle happy.
+   * Creates an instance.
    */
-  private void fillMoreEntities()
+  public HtmlCharacterEntities()
   {
-    setProperty("piv", "\u03d6");
-    setProperty("minus", "\u2212");
-    setProperty("zwj", "\u200d");
-    setProperty("tau", "\u03c4");
-    setProperty("Mu", "\u039c");
-    setProperty("gamma", "\u03b3");
-    setProperty("sup", "\u2283");
-    setProperty("Psi", "\u03a8");
-    setProperty("omega", "\u03c9");
-    setProperty("Oslash", "\u00d8");
-    setProperty("weierp", "\u2118");
-    setProperty("Igrave", "\u00cc");
-    setProperty("OElig", "\u0152");
-    setProperty("sup1", "\u00b9");
-    setProperty("cedil", "\u00b8");
-    setProperty("upsilon", "\u03c5");
-    setProperty("equiv", "\u2261");
-    setProperty("isin", "\u2208");
-    setProperty("Delta", "\u0394");
-    setProperty("yacute", "\u00fd");
-    setProperty("ugrave", "\u00f9");
-    setProperty("ge", "\u2265");
-    setProperty("Iacute", "\u00cd");
-    setProperty("brvbar", "\u00a6");
-    setProperty("Tau", "\u03a4");
-    setProperty("Prime", "\u2033");
-    setProperty("rfloor", "\u22a7");
-    setProperty("Ecirc", "\u00ca");
-    setProperty("ETH", "\u00d0");
-    setProperty("int", "\u222b");
-    setProperty("xi", "\u03be");
-    setProperty("uacute", "\u00fa");
-    setProperty("bull", "\u2022");
-    setProperty("Scaron", "\u0160");
-    setProperty("theta", "\u03b8");
-    setProperty("yuml", "\u00ff");
-    setProperty("oplus", "\u2295");
-    setProperty("part", "\u2202");
-    setProperty("ldquo", "\u201c");
-    setProperty("Icirc", "\u00ce");
-    setProperty("Yuml", "\u0178");
-    setProperty("eth", "\u00f0");
-    setProperty("Acirc", "\u00c2");
-    setProperty("sub", "\u2282");
-    setProperty("lceil", "\u2308");
-    setProperty("Egrave", "\u00c8");
-    setProperty("tilde", "\u02dc");
-    setProperty("pi", "\u03c0");
-    setProperty("rsaquo", "\u203a");
-    setProperty("kappa", "\u03ba");
-    setProperty("upsih", "\u03d2");
-    setProperty("Omicron", "\u039f");
-    setProperty("otimes", "\u2297");
-    setProperty("ni", "\u220b");
-    setProperty("amp", "\u0026");
-    setProperty("Eacute", "\u00c9");
-    setProperty("nu", "\u03bd");
-    setProperty("Ucirc", "\u00db");
-    setProperty("uuml", "\u00fc");
-    setProperty("oslash", "\u00f8");
-    setProperty("thorn", "\u00fe");
-    setProperty("trade", "\u2122");
-    setProperty("epsilon", "\u03b5");
-    setProperty("ograve", "\u00f2");
-    setProperty("hearts", "\u2665");
-    setProperty("iquest", "\u00bf");
-    setProperty("Uuml", "\u00dc");
-    setProperty("empty", "\u2205");
-    setProperty("lowast", "\u2217");
-    setProperty("sum", "\u2211");
-    setProperty("lfloor", "\u22a6");
-    setProperty("lrm", "\u200e");
-    setProperty("oacute", "\u00f3");
-    setProperty("image", "\u2111");
-    setProperty("Agrave", "\u00c0");
-    setProperty("oline", "\u203e");
-    setProperty("oelig", "\u0153");
-    setProperty("Sigma", "\u03a3");
-    setProperty("permil", "\u2030");
-    setProperty("perp", "\u22a5");
-    setProperty("lt", "\u003c");
-    setProperty("Aacute", "\u00c1");
-    setProperty("acirc", "\u00e2");
-    setProperty("lang", "\u2329");
-    setProperty("delta", "\u03b4");
-    setProperty("infin", "\u221e");
-    setProperty("igrave", "\u00ec");
-    setProperty("ordf", "\u00aa");
-    setProperty("lsaquo", "\u2039");
-    setProperty("prime", "\u2032");
-    setProperty("ecirc", "\u00ea");
-    setProperty("there4", "\u2234");
-    setProperty("iacute", "\u00ed");
-    setProperty("sim", "\u223c");
-    setProperty("Alpha", "\u0391");
-    setProperty("pound", "\u00a3");
-    setProperty("notin", "\u2209");
-    setProperty("Ntilde", "\u00d1");
-    setProperty("Xi", "\u039e");
-    setProperty("thinsp", "\u2009");
-    setProperty("Otilde", "\u00d5");
-    setProperty("icirc", "\u00ee");
-    setProperty("scaron", "\u0161");
-    setProperty("szlig", "\u00df");
-    setProperty("larr", "\u2190");
+    for (int i = 0; i < ENTITY_NAMES.length; i++)
+    {
+      setProperty(ENTITY_NAMES[i], String.valueOf(ENTITY_VALUES.charAt(i)));
+    }
   }
 }
@@ -21,6 +21,10 @@ package org.pentaho.reporting.libraries.xmlns.writer;
  * A tag-description provides information about xml tags. At the moment, we
  * simply care whether an element can contain CDATA. In such cases, we do not
  * indent the inner elements.
+ * <p/>
+ * Fragment writers share the tag-description of their parent writer. If fragments
+ * are written by several threads, the tag-description must allow concurrent calls
+ * to {@link #hasCData(String, String)}.
  *
  * @author Thomas Morgner
  */
@@ -0,0 +1,449 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A unsynchronized writer that encodes characters as UTF-8 directly into an internal byte-buffer. The buffer is
+ * drained to an output stream or a byte-channel whenever it is full, when the writer is flushed or when it is closed.
+ * <p/>
+ * Unlike the <code>java.io.OutputStreamWriter</code>, this writer does not use a CharsetEncoder and does not acquire a
+ * lock for each call. ASCII content is copied into the buffer in a tight loop, which makes this writer well suited for
+ * the many small fragments the XmlWriter produces.
+ * <p/>
+ * Instances of this class are not thread-safe.
+ *
+ * @author Thomas Morgner
+ */
+public class Utf8StreamWriter extends Writer
+{
+  /**
+   * The default size of the byte buffer.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  /**
+   * The replacement sequence for unpaired surrogates ('?').
+   */
+  private static final byte REPLACEMENT = (byte) '?';
+
+  private OutputStream outputStream;
+  private WritableByteChannel channel;
+  private byte[] buffer;
+  private ByteBuffer channelBuffer;
+  private int position;
+  private char pendingHighSurrogate;
+  private boolean closed;
+
+  /**
+   * Creates a new writer that drains into the given output stream using the default buffer size.
+   *
+   * @param outputStream the target stream.
+   */
+  public Utf8StreamWriter(final OutputStream outputStream)
+  {
+    this(outputStream, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new writer that drains into the given output stream.
+   *
+   * @param outputStream the target stream.
+   * @param bufferSize   the size of the internal byte buffer, must be at least 16 bytes.
+   */
+  public Utf8StreamWriter(final OutputStream outputStream, final int bufferSize)
+  {
+    this(bufferSize);
+    if (outputStream == null)
+    {
+      throw new NullPointerException("OutputStream must not be null.");
+    }
+    this.outputStream = outputStream;
+  }
+
+  /**
+   * Creates a new writer that drains into the given channel using the default buffer size.
+   *
+   * @param channel the target channel.
+   */
+  public Utf8StreamWriter(final WritableByteChannel channel)
+  {
+    this(channel, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new writer that drains into the given channel.
+   *
+   * @param channel    the target channel.
+   * @param bufferSize the size of the internal byte buffer, must be at least 16 bytes.
+   */
+  public Utf8StreamWriter(final WritableByteChannel channel, final int bufferSize)
+  {
+    this(bufferSize);
+    if (channel == null)
+    {
+      throw new NullPointerException("Channel must not be null.");
+    }
+    this.channel = channel;
+    this.channelBuffer = ByteBuffer.wrap(buffer);
+  }
+
+  /**
+   * Creates a new writer without a target. Subclasses using this constructor must override
+   * {@link #drain(byte[], int, int)} and {@link #flushTarget()}.
+   *
+   * @param bufferSize the size of the internal byte buffer, must be at least 16 bytes.
+   */
+  protected Utf8StreamWriter(final int bufferSize)
+  {
+    if (bufferSize < 16)
+    {
+      throw new IllegalArgumentException("Buffer size must be at least 16 bytes.");
+    }
+    this.buffer = new byte[bufferSize];
+  }
+
+  /**
+   * Writes a single character.
+   *
+   * @param c the character as int.
+   * @throws IOException if an IO error occured.
+   */
+  public void write(final int c) throws IOException
+  {
+    ensureOpen();
+    if (position + 4 > buffer.length)
+    {
+      flushBuffer();
+    }
+    encode((char) c);
+  }
+
+  /**
+   * Writes the given string.
+   *
+   * @param str the string.
+   * @throws IOException if an IO error occured.
+   */
+  public void write(final String str) throws IOException
+  {
+    write(str, 0, str.length());
+  }
+
+  /**
+   * Writes a portion of the given string.
+   *
+   * @param str the string.
+   * @param off the offset from where to start reading characters.
+   * @param len the number of characters to be written.
+   * @throws IOException if an IO error occured.
+   */
+  public void write(final String str, final int off, final int len) throws IOException
+  {
+    ensureOpen();
+    final byte[] buffer = this.buffer;
+    final int end = off + len;
+    int i = off;
+    while (i < end)
+    {
+      // ASCII fast path: copy as many plain characters as fit into the buffer.
+      int pos = position;
+      final int limit = Math.min(end, i + (buffer.length - pos));
+      if (pendingHighSurrogate == 0)
+      {
+        while (i < limit)
+        {
+          final char c = str.charAt(i);
+          if (c >= 0x80)
+          {
+            break;
+          }
+          buffer[pos] = (byte) c;
+          pos += 1;
+          i += 1;
+        }
+      }
+      position = pos;
+      if (i == end)
+      {
+        return;
+      }
+      if (position + 4 > buffer.length)
+      {
+        flushBuffer();
+      }
+      if (i < limit || pendingHighSurrogate != 0)
+      {
+        encode(str.charAt(i));
+        i += 1;
+      }
+    }
+  }
+
+  /**
+   * Writes a portion of the given character array.
+   *
+   * @param cbuf the character array.
+   * @param off  the offset from where to start reading characters.
+   * @param len  the number of characters to be written.
+   * @throws IOException if an IO error occured.
+   */
+  public void write(final char[] cbuf, final int off, final int len) throws IOException
+  {
+    ensureOpen();
+    final byte[] buffer = this.buffer;
+    final int end = off + len;
+    int i = off;
+    while (i < end)
+    {
+      int pos = position;
+      final int limit = Math.min(end, i + (buffer.length - pos));
+      if (pendingHighSurrogate == 0)
+      {
+        while (i < limit)
+        {
+          final char c = cbuf[i];
+          if (c >= 0x80)
+          {
+            break;
+          }
+          buffer[pos] = (byte) c;
+          pos += 1;
+          i += 1;
+        }
+      }
+      position = pos;
+      if (i == end)
+      {
+        return;
+      }
+      if (position + 4 > buffer.length)
+      {
+        flushBuffer();
+      }
+      if (i < limit || pendingHighSurrogate != 0)
+      {
+        encode(cbuf[i]);
+        i += 1;
+      }
+    }
+  }
+
+  /**
+   * Encodes a single character into the buffer. The caller must make sure that at least 4 bytes are available.
+   *
+   * @param c the character.
+   */
+  private void encode(final char c)
+  {
+    final byte[] buffer = this.buffer;
+    if (pendingHighSurrogate != 0)
+    {
+      final char high = pendingHighSurrogate;
+      pendingHighSurrogate = 0;
+      if (c >= 0xDC00 && c <= 0xDFFF)
+      {
+        final int codePoint = ((high - 0xD800) << 10) + (c - 0xDC00) + 0x10000;
+        buffer[position] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position + 1] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position + 2] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position + 3] = (byte) (0x80 | (codePoint & 0x3F));
+        position += 4;
+        return;
+      }
+      // unpaired high surrogate ..
+      buffer[position] = REPLACEMENT;
+      position += 1;
+    }
+
+    if (c < 0x80)
+    {
+      buffer[position] = (byte) c;
+      position += 1;
+    }
+    else if (c < 0x800)
+    {
+      buffer[position] = (byte) (0xC0 | (c >> 6));
+      buffer[position + 1] = (byte) (0x80 | (c & 0x3F));
+      position += 2;
+    }
+    else if (c >= 0xD800 && c <= 0xDBFF)
+    {
+      pendingHighSurrogate = c;
+    }
+    else if (c >= 0xDC00 && c <= 0xDFFF)
+    {
+      // unpaired low surrogate ..
+      buffer[position] = REPLACEMENT;
+      position += 1;
+    }
+    else
+    {
+      buffer[position] = (byte) (0xE0 | (c >> 12));
+      buffer[position + 1] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      buffer[position + 2] = (byte) (0x80 | (c & 0x3F));
+      position += 3;
+    }
+  }
+
+  /**
+   * Drains the buffered bytes into the target. A pending high surrogate stays buffered until its low surrogate
+   * arrives.
+   *
+   * @throws IOException if an IO error occured.
+   */
+  protected void flushBuffer() throws IOException
+  {
+    if (position == 0)
+    {
+      return;
+    }
+    final int length = position;
+    position = 0;
+    drain(buffer, 0, length);
+  }
+
+  /**
+   * Writes the given encoded bytes to the target stream or channel. Subclasses can override this method to
+   * post-process the encoded bytes without an additional copy.
+   *
+   * @param data   the buffer holding the encoded bytes.
+   * @param offset the offset of the first byte.
+   * @param length the number of bytes to write.
+   * @throws IOException if an IO error occured.
+   */
+  protected void drain(final byte[] data, final int offset, final int length) throws IOException
+  {
+    if (outputStream != null)
+    {
+      outputStream.write(data, offset, length);
+      return;
+    }
+
+    final ByteBuffer byteBuffer;
+    if (data == buffer)
+    {
+      byteBuffer = channelBuffer;
+      byteBuffer.clear();
+      byteBuffer.position(offset);
+      byteBuffer.limit(offset + length);
+    }
+    else
+    {
+      byteBuffer = ByteBuffer.wrap(data, offset, length);
+    }
+    while (byteBuffer.hasRemaining())
+    {
+      channel.write(byteBuffer);
+    }
+  }
+
+  /**
+   * Flushes the target stream. Channels have no notion of flushing and are left untouched.
+   *
+   * @throws IOException if an IO error occured.
+   */
+  protected void flushTarget() throws IOException
+  {
+    if (outputStream != null)
+    {
+      outputStream.flush();
+    }
+  }
+
+  /**
+   * Closes the target stream or channel.
+   *
+   * @throws IOException if an IO error occured.
+   */
+  protected void closeTarget() throws IOException
+  {
+    if (outputStream != null)
+    {
+      outputStream.close();
+    }
+    else if (channel != null)
+    {
+      channel.close();
+    }
+  }
+
+  /**
+   * Flushes all buffered bytes into the target and flushes the target.
+   *
+   * @throws IOException if an IO error occured.
+   */
+  public void flush() throws IOException
+  {
+    ensureOpen();
+    flushBuffer();
+    flushTarget();
+  }
+
+  /**
+   * Flushes all buffered bytes and closes the target. An unpaired high surrogate at the end of the stream is
+   * replaced by a question mark.
+   *
+   * @throws IOException if an IO error occured.
+   */
+  public void close() throws IOException
+  {
+    if (closed)
+    {
+      return;
+    }
+    if (pendingHighSurrogate != 0)
+    {
+      if (position + 4 > buffer.length)
+      {
+        flushBuffer();
+      }
+      pendingHighSurrogate = 0;
+      buffer[position] = REPLACEMENT;
+      position += 1;
+    }
+    try
+    {
+      flushBuffer();
+      flushTarget();
+    }
+    finally
+    {
+      closed = true;
+      closeTarget();
+    }
+  }
+
+  /**
+   * Checks that the writer has not been closed yet.
+   *
+   * @throws IOException if the writer is closed.
+   */
+  private void ensureOpen() throws IOException
+  {
+    if (closed)
+    {
+      throw new IOException("Writer is closed.");
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * An XmlWriter that renders a fragment of a document into an internal buffer. Fragment writers are created by
+ * {@link XmlWriter#createFragmentWriter()} and continue the parent's output at the position where they have been
+ * created: They inherit the declared namespaces, the indention level and the tag-description of the parent.
+ * <p/>
+ * Each fragment writer is independent of its parent and of other fragments, so that several subtrees can be written
+ * by different threads at the same time. The completed fragments are then spliced into the parent in the desired
+ * order using {@link XmlWriter#writeFragment(XmlFragmentWriter)}. All fragments share the tag-description of the
+ * parent, which therefore must be safe for concurrent lookups. Plain DefaultTagDescriptions are replaced by a
+ * compiled copy; custom tag-descriptions are shared as they are.
+ *
+ * @author Thomas Morgner
+ */
+public class XmlFragmentWriter extends XmlWriter
+{
+  private XmlWriter parent;
+  private CharArrayWriter buffer;
+
+  /**
+   * Creates a new fragment writer for the current writing position of the given parent.
+   *
+   * @param parent the parent writer.
+   */
+  public XmlFragmentWriter(final XmlWriter parent)
+  {
+    this(parent, new CharArrayWriter(1024));
+  }
+
+  /**
+   * Creates a new fragment writer that writes into the given buffer.
+   *
+   * @param parent the parent writer.
+   * @param buffer the buffer receiving the fragment.
+   */
+  private XmlFragmentWriter(final XmlWriter parent, final CharArrayWriter buffer)
+  {
+    super(buffer, parent);
+    this.parent = parent;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Returns the writer that created this fragment.
+   *
+   * @return the parent writer.
+   */
+  public XmlWriter getParent()
+  {
+    return parent;
+  }
+
+  /**
+   * Returns the number of characters buffered in this fragment.
+   *
+   * @return the size of the fragment.
+   */
+  public int size()
+  {
+    return buffer.size();
+  }
+
+  /**
+   * Copies the buffered fragment to the given writer.
+   *
+   * @param writer the target writer.
+   * @throws IOException if there is a problem writing to the character stream.
+   */
+  protected void writeTo(final Writer writer) throws IOException
+  {
+    buffer.writeTo(writer);
+  }
+}
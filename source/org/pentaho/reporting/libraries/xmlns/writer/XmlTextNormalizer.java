@@ -0,0 +1,456 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The escaping engine used by the XmlWriterSupport. Each character below 128 is classified using a precomputed
+ * table, all other characters are passed through unchanged. Strings are scanned before anything is written, so that
+ * text that does not need any escaping is written in a single call without being copied.
+ * <p/>
+ * Two policies are supported: The attribute policy escapes all XML special characters (including quotes), the text
+ * policy only escapes what is necessary for character data. In both policies, control characters that cannot be
+ * represented in XML are removed.
+ *
+ * @author Thomas Morgner
+ */
+public final class XmlTextNormalizer
+{
+  private static final byte PASS = 0;
+  private static final byte DROP = 1;
+  private static final byte LT = 2;
+  private static final byte GT = 3;
+  private static final byte AMP = 4;
+  private static final byte QUOT = 5;
+  private static final byte LF = 6;
+  private static final byte CR = 7;
+  /**
+   * A greater-than sign that must only be escaped if it terminates a ']]>' sequence.
+   */
+  private static final byte GT_IN_CDATA_END = 8;
+
+  private static final String[] ENTITIES = {
+      null, null, "&lt;", "&gt;", "&amp;", "&quot;", "&#x000a;", "&#x000d;", "&gt;"};
+
+  private static final byte[] ATTRIBUTE_TABLE = createTable(true, false);
+  private static final byte[] ATTRIBUTE_NEWLINE_TABLE = createTable(true, true);
+  private static final byte[] TEXT_TABLE = createTable(false, false);
+  private static final byte[] TEXT_NEWLINE_TABLE = createTable(false, true);
+
+  /**
+   * Private constructor prevents object creation.
+   */
+  private XmlTextNormalizer()
+  {
+  }
+
+  /**
+   * Builds a character class table for the given policy.
+   *
+   * @param attribute        true for the attribute policy, false for the text policy.
+   * @param transformNewLine true, if newlines should be encoded as character entities.
+   * @return the table.
+   */
+  private static byte[] createTable(final boolean attribute, final boolean transformNewLine)
+  {
+    final byte[] table = new byte[128];
+    for (int i = 0; i < 0x20; i++)
+    {
+      table[i] = DROP;
+    }
+    table[0x09] = PASS;
+    table['\n'] = transformNewLine ? LF : PASS;
+    table['\r'] = transformNewLine ? CR : PASS;
+    table['<'] = LT;
+    table['&'] = AMP;
+    if (attribute)
+    {
+      table['>'] = GT;
+      table['"'] = QUOT;
+    }
+    else
+    {
+      table['>'] = GT_IN_CDATA_END;
+    }
+    return table;
+  }
+
+  /**
+   * Returns the character class table for the given policy.
+   *
+   * @param attribute        true for the attribute policy, false for the text policy.
+   * @param transformNewLine true, if newlines should be encoded as character entities.
+   * @return the table.
+   */
+  private static byte[] getTable(final boolean attribute, final boolean transformNewLine)
+  {
+    if (attribute)
+    {
+      return transformNewLine ? ATTRIBUTE_NEWLINE_TABLE : ATTRIBUTE_TABLE;
+    }
+    return transformNewLine ? TEXT_NEWLINE_TABLE : TEXT_TABLE;
+  }
+
+  /**
+   * Searches the first character in the given range that needs to be escaped or removed.
+   *
+   * @param s     the string to scan.
+   * @param start the index of the first character.
+   * @param end   the index after the last character.
+   * @param table the character class table.
+   * @return the index of the first character that needs special treatment, or <code>end</code> if the range is clean.
+   */
+  private static int scan(final String s, final int start, final int end, final byte[] table)
+  {
+    for (int i = start; i < end; i++)
+    {
+      final char c = s.charAt(i);
+      if (c < 128 && table[c] != PASS && needsEscaping(s, 0, i, table))
+      {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Searches the first character in the given range that needs to be escaped or removed.
+   *
+   * @param data   the characters to scan.
+   * @param offset the index of the first character of the whole text.
+   * @param start  the index of the first character to scan.
+   * @param end    the index after the last character.
+   * @param table  the character class table.
+   * @return the index of the first character that needs special treatment, or <code>end</code> if the range is clean.
+   */
+  private static int scan(final char[] data, final int offset, final int start, final int end, final byte[] table)
+  {
+    for (int i = start; i < end; i++)
+    {
+      final char c = data[i];
+      if (c < 128 && table[c] != PASS && needsEscaping(data, offset, i, table))
+      {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Checks whether a character with a non-passing class really needs treatment. Only a greater-than sign in text
+   * content depends on its context: It is escaped if it follows ']]' or if the preceding characters are unknown.
+   * As removed control characters do not appear in the output, a greater-than sign is also escaped if one of the two
+   * characters before it gets removed, so that a control character between ']]' and '>' cannot produce ']]>'.
+   *
+   * @param s     the string.
+   * @param start the index of the first character of the text.
+   * @param index the index of the character.
+   * @param table the character class table.
+   * @return true, if the character must be escaped or removed.
+   */
+  private static boolean needsEscaping(final String s, final int start, final int index, final byte[] table)
+  {
+    if (table[s.charAt(index)] != GT_IN_CDATA_END)
+    {
+      return true;
+    }
+    if (index - start < 2)
+    {
+      return true;
+    }
+    final char c1 = s.charAt(index - 1);
+    final char c2 = s.charAt(index - 2);
+    if (isDropped(c1, table) || isDropped(c2, table))
+    {
+      return true;
+    }
+    return c1 == ']' && c2 == ']';
+  }
+
+  /**
+   * Checks whether a character with a non-passing class really needs treatment.
+   *
+   * @param data  the characters.
+   * @param start the index of the first character of the text.
+   * @param index the index of the character.
+   * @param table the character class table.
+   * @return true, if the character must be escaped or removed.
+   */
+  private static boolean needsEscaping(final char[] data, final int start, final int index, final byte[] table)
+  {
+    if (table[data[index]] != GT_IN_CDATA_END)
+    {
+      return true;
+    }
+    if (index - start < 2)
+    {
+      return true;
+    }
+    final char c1 = data[index - 1];
+    final char c2 = data[index - 2];
+    if (isDropped(c1, table) || isDropped(c2, table))
+    {
+      return true;
+    }
+    return c1 == ']' && c2 == ']';
+  }
+
+  /**
+   * Checks whether the given character is removed from the output.
+   *
+   * @param c     the character.
+   * @param table the character class table.
+   * @return true, if the character is removed.
+   */
+  private static boolean isDropped(final char c, final byte[] table)
+  {
+    return c < 128 && table[c] == DROP;
+  }
+
+  /**
+   * Normalizes the given string and writes the result to the writer. Strings that do not need any escaping are
+   * written unchanged in a single call.
+   *
+   * @param writer           the writer that receives the normalized text.
+   * @param s                the string to be written, never null.
+   * @param attribute        true to use the attribute policy, false to use the text policy.
+   * @param transformNewLine true, if newlines should be encoded as character entities.
+   * @throws IOException if writing to the stream failed.
+   */
+  public static void write(final Writer writer,
+                           final String s,
+                           final boolean attribute,
+                           final boolean transformNewLine) throws IOException
+  {
+    final byte[] table = getTable(attribute, transformNewLine);
+    final int length = s.length();
+    int i = scan(s, 0, length, table);
+    if (i == length)
+    {
+      writer.write(s);
+      return;
+    }
+
+    int runStart = 0;
+    while (i < length)
+    {
+      if (i > runStart)
+      {
+        writer.write(s, runStart, i - runStart);
+      }
+      final String entity = ENTITIES[table[s.charAt(i)]];
+      if (entity != null)
+      {
+        writer.write(entity);
+      }
+      runStart = i + 1;
+      i = scan(s, runStart, length, table);
+    }
+    if (length > runStart)
+    {
+      writer.write(s, runStart, length - runStart);
+    }
+  }
+
+  /**
+   * Normalizes the given character range and writes the result to the writer.
+   *
+   * @param writer           the writer that receives the normalized text.
+   * @param data             the characters to be written, never null.
+   * @param offset           the index of the first character.
+   * @param length           the number of characters.
+   * @param attribute        true to use the attribute policy, false to use the text policy.
+   * @param transformNewLine true, if newlines should be encoded as character entities.
+   * @throws IOException if writing to the stream failed.
+   */
+  public static void write(final Writer writer,
+                           final char[] data,
+                           final int offset,
+                           final int length,
+                           final boolean attribute,
+                           final boolean transformNewLine) throws IOException
+  {
+    final byte[] table = getTable(attribute, transformNewLine);
+    final int end = offset + length;
+    int runStart = offset;
+    int i = scan(data, offset, offset, end, table);
+    while (i < end)
+    {
+      if (i > runStart)
+      {
+        writer.write(data, runStart, i - runStart);
+      }
+      final String entity = ENTITIES[table[data[i]]];
+      if (entity != null)
+      {
+        writer.write(entity);
+      }
+      runStart = i + 1;
+      i = scan(data, offset, runStart, end, table);
+    }
+    if (end > runStart)
+    {
+      writer.write(data, runStart, end - runStart);
+    }
+  }
+
+  /**
+   * Normalizes the given character sequence and writes the result to the writer. Strings are written directly, all
+   * other sequences are copied in chunks into the given buffer and escaped from there. A '>' at the start of a chunk
+   * is treated as if it terminated a ']]>' sequence, which is safe but may escape more than strictly necessary.
+   *
+   * @param writer           the writer that receives the normalized text.
+   * @param s                the characters to be written, never null.
+   * @param attribute        true to use the attribute policy, false to use the text policy.
+   * @param transformNewLine true, if newlines should be encoded as character entities.
+   * @param buffer           a scratch buffer used for non-string sequences, never null.
+   * @throws IOException if writing to the stream failed.
+   */
+  public static void write(final Writer writer,
+                           final CharSequence s,
+                           final boolean attribute,
+                           final boolean transformNewLine,
+                           final char[] buffer) throws IOException
+  {
+    if (s instanceof String)
+    {
+      write(writer, (String) s, attribute, transformNewLine);
+      return;
+    }
+
+    final int length = s.length();
+    int pos = 0;
+    while (pos < length)
+    {
+      final int chunk = Math.min(buffer.length, length - pos);
+      getChars(s, pos, pos + chunk, buffer);
+      write(writer, buffer, 0, chunk, attribute, transformNewLine);
+      pos += chunk;
+    }
+  }
+
+  /**
+   * Writes the given character sequence without any normalization. Strings are written directly, all other
+   * sequences are copied in chunks into the given buffer.
+   *
+   * @param writer the writer that receives the text.
+   * @param s      the characters to be written, never null.
+   * @param buffer a scratch buffer used for non-string sequences, never null.
+   * @throws IOException if writing to the stream failed.
+   */
+  public static void writeRaw(final Writer writer,
+                              final CharSequence s,
+                              final char[] buffer) throws IOException
+  {
+    if (s instanceof String)
+    {
+      writer.write((String) s);
+      return;
+    }
+
+    final int length = s.length();
+    int pos = 0;
+    while (pos < length)
+    {
+      final int chunk = Math.min(buffer.length, length - pos);
+      getChars(s, pos, pos + chunk, buffer);
+      writer.write(buffer, 0, chunk);
+      pos += chunk;
+    }
+  }
+
+  /**
+   * Copies a range of the given character sequence into the start of the target array. StringBuffers and
+   * StringBuilders are copied in bulk.
+   *
+   * @param s      the source sequence.
+   * @param start  the index of the first character to copy.
+   * @param end    the index after the last character to copy.
+   * @param target the target array.
+   */
+  private static void getChars(final CharSequence s, final int start, final int end, final char[] target)
+  {
+    if (s instanceof StringBuilder)
+    {
+      ((StringBuilder) s).getChars(start, end, target, 0);
+    }
+    else if (s instanceof StringBuffer)
+    {
+      ((StringBuffer) s).getChars(start, end, target, 0);
+    }
+    else
+    {
+      for (int i = start; i < end; i++)
+      {
+        target[i - start] = s.charAt(i);
+      }
+    }
+  }
+
+  /**
+   * Normalizes the given string. If the string does not need any escaping, the string itself is returned.
+   *
+   * @param s                the string to be normalized, never null.
+   * @param attribute        true to use the attribute policy, false to use the text policy.
+   * @param transformNewLine true, if newlines should be encoded as character entities.
+   * @param buffer           a buffer that is used to build the result, or null to create a new buffer on demand.
+   *                         The buffer is cleared before it is used.
+   * @return the normalized string.
+   */
+  public static String normalize(final String s,
+                                 final boolean attribute,
+                                 final boolean transformNewLine,
+                                 StringBuffer buffer)
+  {
+    final byte[] table = getTable(attribute, transformNewLine);
+    final int length = s.length();
+    int i = scan(s, 0, length, table);
+    if (i == length)
+    {
+      return s;
+    }
+
+    if (buffer == null)
+    {
+      buffer = new StringBuffer(length + 16);
+    }
+    else
+    {
+      buffer.setLength(0);
+    }
+
+    int runStart = 0;
+    while (i < length)
+    {
+      buffer.append(s, runStart, i);
+      final String entity = ENTITIES[table[s.charAt(i)]];
+      if (entity != null)
+      {
+        buffer.append(entity);
+      }
+      runStart = i + 1;
+      i = scan(s, runStart, length, table);
+    }
+    buffer.append(s, runStart, length);
+    final String retval = buffer.toString();
+    buffer.setLength(0);
+    return retval;
+  }
+}
@@ -18,6 +18,8 @@
 package org.pentaho.reporting.libraries.xmlns.writer;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 
@@ -37,6 +39,11 @@ public class XmlWriter extends XmlWriterSupport
    */
   private Writer writer;
 
+  /**
+   * The nesting depth at which the character stream is flushed after each closed element, or -1 to disable.
+   */
+  private int syncPointDepth;
+
   /**
    * Creates a new XML writer for the specified character stream.  By default,
    * four spaces are used for indentation.
@@ -90,6 +97,7 @@ public class XmlWriter extends XmlWriterSupport
     }
 
     this.writer = writer;
+    this.syncPointDepth = -1;
   }
 
   /**
@@ -112,6 +120,153 @@ public class XmlWriter extends XmlWriterSupport
     }
 
     this.writer = writer;
+    this.syncPointDepth = -1;
+  }
+
+  /**
+   * Creates a new XML writer that encodes the generated content as UTF-8 directly into the given
+   * byte stream, bypassing the platform's CharsetEncoder. The XML declaration written by this writer
+   * should therefore declare the "UTF-8" encoding.
+   *
+   * @param outputStream   the byte stream.
+   * @param tagDescription the tags that are safe for line breaks.
+   * @see Utf8StreamWriter
+   */
+  public XmlWriter(final OutputStream outputStream, final TagDescription tagDescription)
+  {
+    this(new Utf8StreamWriter(outputStream), tagDescription, "  ");
+  }
+
+  /**
+   * Creates a new XML writer that encodes the generated content as UTF-8 directly into the given
+   * byte stream, bypassing the platform's CharsetEncoder.
+   *
+   * @param outputStream   the byte stream.
+   * @param tagDescription the tags that are safe for line breaks.
+   * @param indentString   the indent string.
+   * @param lineSeparator  the line separator to be used.
+   * @see Utf8StreamWriter
+   */
+  public XmlWriter(final OutputStream outputStream,
+                   final TagDescription tagDescription,
+                   final String indentString,
+                   final String lineSeparator)
+  {
+    this(new Utf8StreamWriter(outputStream), tagDescription, indentString, lineSeparator);
+  }
+
+  /**
+   * Creates a new XML writer that continues the output of the given parent writer at its current writing
+   * position. The new writer inherits the namespaces, indention and tag-description of the parent, but writes into
+   * the given character stream.
+   *
+   * @param writer the character stream.
+   * @param parent the parent writer.
+   * @see XmlWriterSupport#XmlWriterSupport(XmlWriterSupport)
+   */
+  protected XmlWriter(final Writer writer, final XmlWriter parent)
+  {
+    super(parent);
+    if (writer == null)
+    {
+      throw new NullPointerException("Writer must not be null.");
+    }
+
+    this.writer = writer;
+    this.syncPointDepth = -1;
+  }
+
+  /**
+   * Returns the nesting depth at which the character stream is flushed after each closed element.
+   *
+   * @return the depth, or -1 if no sync points are written.
+   */
+  public int getSyncPointDepth()
+  {
+    return syncPointDepth;
+  }
+
+  /**
+   * Defines the nesting depth at which the character stream is flushed after each closed element. With a depth of
+   * 1, the stream is flushed after each child of the root element has been written. If the character stream is a
+   * {@link DeflatingStreamWriter}, each sync point completes a gzip member, so that consumers can decompress the
+   * document up to the last sync point while it is still being written. Other calls to {@link #flush()} do not
+   * complete a gzip member.
+   *
+   * @param syncPointDepth the depth, or -1 to disable sync points.
+   */
+  public void setSyncPointDepth(final int syncPointDepth)
+  {
+    this.syncPointDepth = syncPointDepth;
+  }
+
+  /**
+   * Flushes the character stream if the closed element was at the configured sync point depth. A
+   * DeflatingStreamWriter receives a sync point instead.
+   *
+   * @param w        the writer.
+   * @param openTags the number of elements that are still open.
+   * @throws IOException if there is an I/O problem.
+   */
+  protected void elementClosed(final Writer w, final int openTags)
+      throws IOException
+  {
+    if (openTags != syncPointDepth)
+    {
+      return;
+    }
+    if (w instanceof DeflatingStreamWriter)
+    {
+      ((DeflatingStreamWriter) w).syncPoint();
+    }
+    else
+    {
+      w.flush();
+    }
+  }
+
+  /**
+   * Creates a fragment writer for the current writing position. The fragment writer renders into its own buffer
+   * and can be used by a different thread. Once the fragment is complete, it has to be spliced into this writer
+   * using {@link #writeFragment(XmlFragmentWriter)}. Several fragments can be created at the same position and are
+   * written in the order in which they are spliced.
+   * <p/>
+   * This writer must not be used while fragments are created. When fragments are written by several threads, the
+   * tag-description of this writer must allow concurrent lookups.
+   *
+   * @return the new fragment writer.
+   */
+  public XmlFragmentWriter createFragmentWriter()
+  {
+    return new XmlFragmentWriter(this);
+  }
+
+  /**
+   * Copies the content of a completed fragment writer into the character stream. The content is already normalized
+   * and is written unchanged.
+   *
+   * @param fragment the fragment created by this writer.
+   * @throws IOException if there is a problem writing to the character stream.
+   */
+  public void writeFragment(final XmlFragmentWriter fragment)
+      throws IOException
+  {
+    ensureStartTagFinished();
+    if (fragment == null)
+    {
+      throw new NullPointerException();
+    }
+    if (fragment.getParent() != this)
+    {
+      throw new IllegalArgumentException("The fragment has not been created by this writer.");
+    }
+    if (fragment.isBaseLevel() == false)
+    {
+      throw new IllegalStateException("The fragment contains unclosed tags.");
+    }
+
+    fragment.writeTo(this.writer);
+    setLineEmpty(fragment.isLineEmpty());
   }
 
   /**
@@ -127,17 +282,21 @@ public class XmlWriter extends XmlWriterSupport
   public void writeXmlDeclaration(final String encoding)
       throws IOException
   {
+    ensureStartTagFinished();
     if (encoding == null)
     {
       this.writer.write("<?xml version=\"1.0\"?>");
+    }
+    else
+    {
+      this.writer.write("<?xml version=\"1.0\" encoding=\"");
+      this.writer.write(encoding);
+      this.writer.write("\"?>");
+    }
+    if (isCompactMode() == false)
+    {
       this.writer.write(getLineSeparator());
-      return;
     }
-
-    this.writer.write("<?xml version=\"1.0\" encoding=\"");
-    this.writer.write(encoding);
-    this.writer.write("\"?>");
-    this.writer.write(getLineSeparator());
   }
 
   /**
@@ -214,6 +373,50 @@ public class XmlWriter extends XmlWriterSupport
     writeTag(this.writer, namespace, name, attributes, close);
   }
 
+  /**
+   * Starts a new element. Attributes are added one by one using {@link #attribute(String, String, CharSequence)}
+   * and the start tag must be finished with {@link #endStartTag(boolean)} before anything else is written.
+   * Namespace declarations for the element must be added before any other attribute.
+   *
+   * @param namespace the namespace URI for the element
+   * @param name      the tag name.
+   * @throws java.io.IOException if there is an I/O problem.
+   */
+  public void startElement(final String namespace,
+                           final String name)
+      throws IOException
+  {
+    startElement(this.writer, namespace, name);
+  }
+
+  /**
+   * Adds an attribute to the element started with {@link #startElement(String, String)}. A null value is ignored.
+   *
+   * @param namespace the namespace URI for the attribute
+   * @param name      the attribute name.
+   * @param value     the attribute value.
+   * @throws java.io.IOException if there is an I/O problem.
+   */
+  public void attribute(final String namespace,
+                        final String name,
+                        final CharSequence value)
+      throws IOException
+  {
+    writeAttribute(this.writer, namespace, name, value);
+  }
+
+  /**
+   * Finishes the start tag that has been started with {@link #startElement(String, String)}.
+   *
+   * @param close controls whether the tag is closed.
+   * @throws java.io.IOException if there is an I/O problem.
+   */
+  public void endStartTag(final boolean close)
+      throws IOException
+  {
+    endStartTag(this.writer, close);
+  }
+
   /**
    * Writes some text to the character stream.
    *
@@ -223,10 +426,42 @@ public class XmlWriter extends XmlWriterSupport
   public void writeText(final String text)
       throws IOException
   {
+    ensureStartTagFinished();
     this.writer.write(text);
     setLineEmpty(false);
   }
 
+  /**
+   * Writes some text to the character stream. StringBuffers and StringBuilders are written without creating a
+   * temporary string.
+   *
+   * @param text the text.
+   * @throws IOException if there is a problem writing to the character stream.
+   */
+  public void writeText(final CharSequence text)
+      throws IOException
+  {
+    ensureStartTagFinished();
+    XmlTextNormalizer.writeRaw(this.writer, text, getTextBuffer());
+    setLineEmpty(false);
+  }
+
+  /**
+   * Writes some text to the character stream.
+   *
+   * @param text   the characters of the text.
+   * @param offset the index of the first character.
+   * @param length the number of characters.
+   * @throws IOException if there is a problem writing to the character stream.
+   */
+  public void writeText(final char[] text, final int offset, final int length)
+      throws IOException
+  {
+    ensureStartTagFinished();
+    this.writer.write(text, offset, length);
+    setLineEmpty(false);
+  }
+
   /**
    * Writes the given text into the stream using a streaming xml-normalization method.
    *
@@ -237,9 +472,43 @@ public class XmlWriter extends XmlWriterSupport
   public void writeTextNormalized(final String s,
                                   final boolean transformNewLine) throws IOException
   {
+    ensureStartTagFinished();
+    writeTextNormalized(writer, s, transformNewLine);
+  }
+
+  /**
+   * Writes the given text into the stream using a streaming xml-normalization method. StringBuffers and
+   * StringBuilders are normalized without creating a temporary string.
+   *
+   * @param s                the text to be written.
+   * @param transformNewLine whether to encode newlines using character-entities.
+   * @throws IOException if an IO error occured.
+   */
+  public void writeTextNormalized(final CharSequence s,
+                                  final boolean transformNewLine) throws IOException
+  {
+    ensureStartTagFinished();
     writeTextNormalized(writer, s, transformNewLine);
   }
 
+  /**
+   * Writes the given characters into the stream using a streaming xml-normalization method.
+   *
+   * @param data             the characters to be written.
+   * @param offset           the index of the first character.
+   * @param length           the number of characters.
+   * @param transformNewLine whether to encode newlines using character-entities.
+   * @throws IOException if an IO error occured.
+   */
+  public void writeTextNormalized(final char[] data,
+                                  final int offset,
+                                  final int length,
+                                  final boolean transformNewLine) throws IOException
+  {
+    ensureStartTagFinished();
+    writeTextNormalized(writer, data, offset, length, transformNewLine);
+  }
+
   /**
    * Copies the given reader to the character stream. This method should be used
    * for large chunks of data.
@@ -249,10 +518,41 @@ public class XmlWriter extends XmlWriterSupport
    */
   public void writeStream(final Reader reader) throws IOException
   {
+    ensureStartTagFinished();
     IOUtils.getInstance().copyWriter(reader, writer);
     setLineEmpty(false);
   }
 
+  /**
+   * Copies the remaining content of the given stream base64-encoded to the character stream. The data is encoded in
+   * small chunks, so that the memory used does not depend on the size of the data. The input stream is not closed.
+   *
+   * @param in        the stream providing the binary data.
+   * @param lineWidth the maximum number of characters per line, or zero to write the encoded data as a single line.
+   * @throws IOException if there is a problem reading the data or writing to the character stream.
+   */
+  public void writeBase64(final InputStream in, final int lineWidth) throws IOException
+  {
+    ensureStartTagFinished();
+    Base64Encoder.encode(in, writer, lineWidth, getLineSeparator());
+    setLineEmpty(false);
+  }
+
+  /**
+   * Creates a stream that writes all bytes base64-encoded to the character stream. This allows to write binary
+   * data in chunks as it is produced. The returned stream must be closed before anything else is written to this
+   * XmlWriter; closing it writes the final padding, but does not close this writer.
+   *
+   * @param lineWidth the maximum number of characters per line, or zero to write the encoded data as a single line.
+   * @return the encoding stream.
+   */
+  public OutputStream createBase64Stream(final int lineWidth)
+  {
+    ensureStartTagFinished();
+    setLineEmpty(false);
+    return new Base64Encoder(writer, lineWidth, getLineSeparator());
+  }
+
   /**
    * Closes the underlying character stream.
    *
@@ -276,6 +576,32 @@ public class XmlWriter extends XmlWriterSupport
     super.writeComment(writer, comment);
   }
 
+  /**
+   * Writes a comment into the generated xml file.
+   *
+   * @param comment the comment text
+   * @throws IOException if there is a problem writing to the character stream.
+   */
+  public void writeComment(final CharSequence comment)
+      throws IOException
+  {
+    super.writeComment(writer, comment);
+  }
+
+  /**
+   * Writes a comment into the generated xml file.
+   *
+   * @param comment the characters of the comment text
+   * @param offset  the index of the first character.
+   * @param length  the number of characters.
+   * @throws IOException if there is a problem writing to the character stream.
+   */
+  public void writeComment(final char[] comment, final int offset, final int length)
+      throws IOException
+  {
+    super.writeComment(writer, comment, offset, length);
+  }
+
   /**
    * Writes a linebreak to the writer.
    *
@@ -284,6 +610,7 @@ public class XmlWriter extends XmlWriterSupport
   public void writeNewLine()
       throws IOException
   {
+    ensureStartTagFinished();
     super.writeNewLine(writer);
   }
 
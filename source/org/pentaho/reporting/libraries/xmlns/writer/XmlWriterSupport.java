@@ -19,10 +19,12 @@ package org.pentaho.reporting.libraries.xmlns.writer;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.lang.reflect.Method;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Properties;
 
-import org.pentaho.reporting.libraries.base.util.FastStack;
 import org.pentaho.reporting.libraries.base.util.ObjectUtilities;
 import org.pentaho.reporting.libraries.base.util.StringUtils;
 import org.pentaho.reporting.libraries.xmlns.common.AttributeList;
@@ -34,107 +36,6 @@ import org.pentaho.reporting.libraries.xmlns.common.AttributeList;
  */
 public class XmlWriterSupport
 {
-  /**
-   * An internal state-management class containing the state for nested
-   * tags.
-   */
-  private static class ElementLevel
-  {
-    private String namespace;
-    private String prefix;
-    private String tagName;
-    private DeclaredNamespaces namespaces;
-
-    /**
-     * Creates a new ElementLevel object.
-     *
-     * @param namespace  the namespace of the current tag (can be null).
-     * @param prefix     the namespace prefix of the current tag (can be null).
-     * @param tagName    the tagname (never null).
-     * @param namespaces the collection of all currently known namespaces (never null).
-     */
-    protected ElementLevel(final String namespace,
-                           final String prefix,
-                           final String tagName,
-                           final DeclaredNamespaces namespaces)
-    {
-      if (tagName == null)
-      {
-        throw new NullPointerException();
-      }
-      if (namespaces == null)
-      {
-        throw new NullPointerException();
-      }
-      this.prefix = prefix;
-      this.namespace = namespace;
-      this.tagName = tagName;
-      this.namespaces = namespaces;
-    }
-
-    /**
-     * Creates a new ElementLevel with no namespace information.
-     *
-     * @param tagName    the xml-tagname.
-     * @param namespaces the currently known namespaces.
-     */
-    protected ElementLevel(final String tagName,
-                           final DeclaredNamespaces namespaces)
-    {
-      if (tagName == null)
-      {
-        throw new NullPointerException();
-      }
-      if (namespaces == null)
-      {
-        throw new NullPointerException();
-      }
-      this.namespaces = namespaces;
-      this.tagName = tagName;
-    }
-
-    /**
-     * Returns the defined namespace prefix for this entry.
-     *
-     * @return the namespace prefix.
-     */
-    public String getPrefix()
-    {
-      return prefix;
-    }
-
-    /**
-     * Returns the defined namespace uri for this entry.
-     *
-     * @return the namespace uri.
-     */
-    public String getNamespace()
-    {
-      return namespace;
-    }
-
-    /**
-     * Returns the tagname for this entry.
-     *
-     * @return the tagname.
-     */
-    public String getTagName()
-    {
-      return tagName;
-    }
-
-    /**
-     * Returns the map of defined namespace for this entry.
-     *
-     * @return the namespaces.
-     */
-    public DeclaredNamespaces getNamespaces()
-    {
-      return namespaces;
-    }
-  }
-
-
   /**
    * A constant for controlling the indent function.
    */
@@ -166,9 +67,18 @@ public class XmlWriterSupport
   private TagDescription safeTags;
 
   /**
-   * The indent level for that writer.
+   * The number of currently open tags. The state of each open tag is held in the parallel arrays below; the slots
+   * are reused once a tag has been closed.
+   */
+  private int depth;
+  private String[] tagNamespaces;
+  private String[] tagPrefixes;
+  private String[] tagNames;
+  private DeclaredNamespaces[] tagScopes;
+  /**
+   * The resolved TagDescription#hasCData flag of each open tag.
    */
-  private FastStack openTags;
+  private boolean[] tagCData;
 
   /**
    * The indent string.
@@ -181,10 +91,70 @@ public class XmlWriterSupport
   private boolean alwaysAddNamespace;
   private boolean assumeDefaultNamespace;
   private HashMap impliedNamespaces;
+  /**
+   * Counts how many implied namespace URIs use a given prefix. This is the reverse index for the implied namespaces.
+   */
+  private HashMap impliedPrefixes;
+  /**
+   * The cached root scope built from the implied namespaces.
+   */
+  private DeclaredNamespaces impliedNamespaceScope;
   private boolean writeFinalLinebreak;
   private boolean htmlCompatiblityMode;
   private String lineSeparator;
   private StringBuffer normalizeBuffer;
+  private char[] textBuffer;
+  private boolean minimalTextEscaping;
+  /**
+   * The line separator followed by the indent string repeated indentBufferLevels times. Indenting a line is a single
+   * write of a prefix (or, without line break, a sub-range) of this buffer.
+   */
+  private char[] indentBuffer;
+  private int indentBufferLevels;
+  /**
+   * True, if a subclass overrides writeNewLine(Writer). Line breaks before indentation then go through that method
+   * instead of being written from the indent buffer.
+   */
+  private boolean customNewLine;
+  private boolean compactMode;
+  /**
+   * The number of levels inherited from a parent writer. These levels cannot be closed by this writer.
+   */
+  private int baseDepth;
+  /**
+   * A thread-safe version of the tag description that is handed to fragment writers.
+   */
+  private TagDescription sharedTagDescription;
+  /**
+   * The modification count of the DefaultTagDescription at the time the shared version was compiled.
+   */
+  private int sharedTagDescriptionVersion;
+
+  /**
+   * The state of the streaming start-tag API. One of START_TAG_NONE, START_TAG_DECLARATIONS or
+   * START_TAG_ATTRIBUTES.
+   */
+  private int startTagState;
+  private String pendingNamespace;
+  private String pendingName;
+  private String[] pendingDeclarationUris;
+  private String[] pendingDeclarationPrefixes;
+  private int pendingDeclarationCount;
+  private HashMap pendingDeclarations;
+
+  /**
+   * No start tag is being written by the streaming API.
+   */
+  private static final int START_TAG_NONE = 0;
+  /**
+   * A start tag has been started, but the element name has not been written yet, as namespace declarations may
+   * still follow.
+   */
+  private static final int START_TAG_DECLARATIONS = 1;
+  /**
+   * The element name and at least one attribute have been written.
+   */
+  private static final int START_TAG_ATTRIBUTES = 2;
 
   /**
    * Default Constructor. The created XMLWriterSupport will not have no safe tags and starts with an indention level of
@@ -234,15 +204,125 @@ public class XmlWriterSupport
 
     this.normalizeBuffer = new StringBuffer(128);
     this.safeTags = safeTags;
-    this.openTags = new FastStack();
+    this.tagNamespaces = new String[16];
+    this.tagPrefixes = new String[16];
+    this.tagNames = new String[16];
+    this.tagScopes = new DeclaredNamespaces[16];
+    this.tagCData = new boolean[16];
     this.indentString = indentString;
     this.lineEmpty = true;
     this.writeFinalLinebreak = true;
     this.lineSeparator = lineseparator;
+    this.customNewLine = isNewLineOverridden(getClass());
 
     addImpliedNamespace("http://www.w3.org/XML/1998/namespace", "xml");
   }
 
+  /**
+   * Creates a new support instance that continues the output of the given parent at its current writing position.
+   * The new instance inherits the namespaces, the indention level, the layout flags and the tag-description of the
+   * parent. The element that is currently open in the parent becomes the base level of the new instance and cannot
+   * be closed by it.
+   * <p/>
+   * The new instance does not share any mutable state with the parent and can be used in a different thread. The
+   * parent must not be modified until the new instance has been created.
+   *
+   * @param parent the parent support instance.
+   */
+  protected XmlWriterSupport(final XmlWriterSupport parent)
+  {
+    this(parent.getSharedTagDescription(), parent.indentString, parent.lineSeparator);
+    if (parent.startTagState != START_TAG_NONE)
+    {
+      throw new IllegalStateException("Cannot create a fragment in the middle of a start tag.");
+    }
+
+    if (parent.impliedNamespaces != null)
+    {
+      putImpliedNamespaces(parent.impliedNamespaces);
+      impliedNamespaceScope = null;
+    }
+
+    this.alwaysAddNamespace = parent.alwaysAddNamespace;
+    this.assumeDefaultNamespace = parent.assumeDefaultNamespace;
+    this.writeFinalLinebreak = parent.writeFinalLinebreak;
+    this.htmlCompatiblityMode = parent.htmlCompatiblityMode;
+    this.minimalTextEscaping = parent.minimalTextEscaping;
+    this.compactMode = parent.compactMode;
+    this.lineEmpty = parent.lineEmpty;
+    this.additionalIndent = parent.additionalIndent;
+
+    if (parent.depth > 0)
+    {
+      final int top = parent.depth - 1;
+      this.additionalIndent += top;
+      pushFrame(parent.tagNamespaces[top], parent.tagPrefixes[top], parent.tagNames[top],
+          parent.tagScopes[top], parent.tagCData[top]);
+      this.baseDepth = 1;
+    }
+  }
+
+  /**
+   * Returns a version of the tag-description that can safely be used by other threads. A DefaultTagDescription is
+   * compiled again whenever its definitions have changed, all other tag-descriptions are returned unchanged.
+   *
+   * @return the tag-description for fragment writers.
+   */
+  private TagDescription getSharedTagDescription()
+  {
+    final TagDescription tagDescription = getTagDescription();
+    // subclasses may override hasCData, so only plain DefaultTagDescriptions are compiled.
+    if (tagDescription.getClass() != DefaultTagDescription.class)
+    {
+      return tagDescription;
+    }
+    final DefaultTagDescription defaultTagDescription = (DefaultTagDescription) tagDescription;
+    final int version = defaultTagDescription.getModificationCount();
+    if (sharedTagDescription == null || sharedTagDescriptionVersion != version)
+    {
+      sharedTagDescription = defaultTagDescription.compile();
+      sharedTagDescriptionVersion = version;
+    }
+    return sharedTagDescription;
+  }
+
+  /**
+   * Checks, whether all tags opened by this instance have been closed again.
+   *
+   * @return true, if there are no open tags and no unfinished start tag, false otherwise.
+   */
+  protected boolean isBaseLevel()
+  {
+    return depth == baseDepth && startTagState == START_TAG_NONE;
+  }
+
+  /**
+   * Checks, whether the compact mode is enabled. In compact mode, no indentation and no line breaks are written and
+   * the TagDescription is never consulted.
+   *
+   * @return true, if the compact mode is enabled, false otherwise.
+   */
+  public boolean isCompactMode()
+  {
+    return compactMode;
+  }
+
+  /**
+   * Defines, whether the compact mode is enabled. In compact mode, no indentation and no line breaks are written and
+   * the TagDescription is never consulted. Use this mode for documents that are only read by machines. The mode
+   * cannot be changed while tags are open.
+   *
+   * @param compactMode true, if the compact mode is enabled, false otherwise.
+   */
+  public void setCompactMode(final boolean compactMode)
+  {
+    if (depth > 0)
+    {
+      throw new IllegalStateException("Cannot change the compact mode in the middle of the processing");
+    }
+    this.compactMode = compactMode;
+  }
+
   /**
    * Checks, whether the HTML compatibility mode is enabled. In HTML compatibility
    * mode, closed empty tags will have a space between the tagname and the
@@ -267,6 +347,30 @@ public class XmlWriterSupport
     this.htmlCompatiblityMode = htmlCompatiblityMode;
   }
 
+  /**
+   * Checks, whether text content is written with minimal escaping. With minimal escaping, quotes and greater-than
+   * signs in text content are written unescaped, unless the greater-than sign terminates a ']]>' sequence. Attribute
+   * values are always fully escaped.
+   *
+   * @return true, if minimal escaping is used for text content, false otherwise.
+   */
+  public boolean isMinimalTextEscaping()
+  {
+    return minimalTextEscaping;
+  }
+
+  /**
+   * Defines, whether text content is written with minimal escaping. With minimal escaping, quotes and greater-than
+   * signs in text content are written unescaped, unless the greater-than sign terminates a ']]>' sequence. Attribute
+   * values are always fully escaped.
+   *
+   * @param minimalTextEscaping true, if minimal escaping is used for text content, false otherwise.
+   */
+  public void setMinimalTextEscaping(final boolean minimalTextEscaping)
+  {
+    this.minimalTextEscaping = minimalTextEscaping;
+  }
+
   /**
    * Checks, whether the XML writer should always add a namespace prefix to
    * the attributes. The XML specification leaves it up to the application on
@@ -352,25 +456,33 @@ public class XmlWriterSupport
   public void writeCloseTag(final Writer w)
       throws IOException
   {
+    ensureStartTagFinished();
+    if (depth <= baseDepth)
+    {
+      throw new IllegalStateException("There is no open tag.");
+    }
     indentForClose(w);
-    final ElementLevel level = (ElementLevel) openTags.pop();
+    final int level = depth - 1;
+    final String prefix = tagPrefixes[level];
+    final String tagName = tagNames[level];
+    popElement();
 
     setLineEmpty(false);
 
     w.write("</");
-    final String prefix = level.getPrefix();
     if (prefix != null)
     {
       w.write(prefix);
       w.write(":");
-      w.write(level.getTagName());
+      w.write(tagName);
     }
     else
     {
-      w.write(level.getTagName());
+      w.write(tagName);
     }
     w.write(">");
     doEndOfLine(w);
+    elementClosed(w, depth);
   }
 
   /**
@@ -382,6 +494,10 @@ public class XmlWriterSupport
   public void writeNewLine(final Writer writer)
       throws IOException
   {
+    if (compactMode)
+    {
+      return;
+    }
     if (isLineEmpty() == false)
     {
       writer.write(lineSeparator);
@@ -430,9 +546,9 @@ public class XmlWriterSupport
   {
     if (attributeName != null)
     {
-      final AttributeList attr = new AttributeList();
-      attr.setAttribute(namespace, attributeName, attributeValue);
-      writeTag(w, namespace, name, attr, close);
+      startElement(w, namespace, name);
+      writeAttribute(w, namespace, attributeName, attributeValue);
+      endStartTag(w, close);
     }
     else
     {
@@ -450,7 +566,7 @@ public class XmlWriterSupport
    */
   public void addImpliedNamespace(final String uri, final String prefix)
   {
-    if (openTags.isEmpty() == false)
+    if (depth > 0)
     {
       throw new IllegalStateException("Cannot modify the implied namespaces in the middle of the processing");
     }
@@ -461,15 +577,79 @@ public class XmlWriterSupport
       {
         return;
       }
-      impliedNamespaces.remove(uri);
+      unregisterImpliedPrefix((String) impliedNamespaces.remove(uri));
     }
     else
     {
-      if (impliedNamespaces == null)
-      {
-        impliedNamespaces = new HashMap();
-      }
-      impliedNamespaces.put(uri, prefix);
+      putImpliedNamespace(uri, prefix);
+    }
+    impliedNamespaceScope = null;
+  }
+
+  /**
+   * Adds an implied namespace and updates the reverse index.
+   *
+   * @param uri    the uri of the namespace.
+   * @param prefix the defined prefix.
+   */
+  private void putImpliedNamespace(final String uri, final String prefix)
+  {
+    if (impliedNamespaces == null)
+    {
+      impliedNamespaces = new HashMap();
+      impliedPrefixes = new HashMap();
+    }
+    unregisterImpliedPrefix((String) impliedNamespaces.put(uri, prefix));
+
+    final Integer count = (Integer) impliedPrefixes.get(prefix);
+    if (count == null)
+    {
+      impliedPrefixes.put(prefix, new Integer(1));
+    }
+    else
+    {
+      impliedPrefixes.put(prefix, new Integer(count.intValue() + 1));
+    }
+  }
+
+  /**
+   * Removes a prefix usage from the reverse index of the implied namespaces.
+   *
+   * @param prefix the prefix that is no longer used by a namespace, can be null.
+   */
+  private void unregisterImpliedPrefix(final String prefix)
+  {
+    if (prefix == null)
+    {
+      return;
+    }
+    final Integer count = (Integer) impliedPrefixes.get(prefix);
+    if (count == null)
+    {
+      return;
+    }
+    if (count.intValue() <= 1)
+    {
+      impliedPrefixes.remove(prefix);
+    }
+    else
+    {
+      impliedPrefixes.put(prefix, new Integer(count.intValue() - 1));
+    }
+  }
+
+  /**
+   * Adds all namespaces of the given map as implied namespaces.
+   *
+   * @param namespaces the namespaces as map of URIs to prefixes.
+   */
+  private void putImpliedNamespaces(final Map namespaces)
+  {
+    final Iterator iterator = namespaces.entrySet().iterator();
+    while (iterator.hasNext())
+    {
+      final Map.Entry entry = (Map.Entry) iterator.next();
+      putImpliedNamespace((String) entry.getKey(), (String) entry.getValue());
     }
   }
 
@@ -481,26 +661,21 @@ public class XmlWriterSupport
    */
   public void copyNamespaces(final XmlWriterSupport writerSupport)
   {
-    if (openTags.isEmpty() == false)
+    if (depth > 0)
     {
       throw new IllegalStateException("Cannot modify the implied namespaces in the middle of the processing");
     }
 
-    if (impliedNamespaces == null)
-    {
-      impliedNamespaces = new HashMap();
-    }
-
-    if (writerSupport.openTags.isEmpty() == false)
+    if (writerSupport.depth > 0)
     {
-      final ElementLevel parent = (ElementLevel) writerSupport.openTags.peek();
-      impliedNamespaces.putAll(parent.getNamespaces().getNamespaces());
+      putImpliedNamespaces(writerSupport.tagScopes[writerSupport.depth - 1].getNamespaces());
     }
 
     if (writerSupport.impliedNamespaces != null)
     {
-      impliedNamespaces.putAll(writerSupport.impliedNamespaces);
+      putImpliedNamespaces(writerSupport.impliedNamespaces);
     }
+    impliedNamespaceScope = null;
   }
 
   /**
@@ -518,12 +693,11 @@ public class XmlWriterSupport
         return true;
       }
     }
-    if (openTags.isEmpty())
+    if (depth == 0)
     {
       return false;
     }
-    final ElementLevel parent = (ElementLevel) openTags.peek();
-    return parent.getNamespaces().isNamespaceDefined(uri);
+    return tagScopes[depth - 1].isNamespaceDefined(uri);
   }
 
   /**
@@ -534,46 +708,47 @@ public class XmlWriterSupport
    */
   public boolean isNamespacePrefixDefined(final String prefix)
   {
-    if (impliedNamespaces != null)
+    if (impliedPrefixes != null)
     {
-      if (impliedNamespaces.containsValue(prefix))
+      if (impliedPrefixes.containsKey(prefix))
       {
         return true;
       }
     }
-    if (openTags.isEmpty())
+    if (depth == 0)
     {
       return false;
     }
-    final ElementLevel parent = (ElementLevel) openTags.peek();
-    return parent.getNamespaces().isPrefixDefined(prefix);
+    return tagScopes[depth - 1].isPrefixDefined(prefix);
   }
 
   /**
    * Returns all namespaces as properties-collection. This reflects the currently defined namespaces, therefore
    * calls to writeOpenTag(..) might cause this method to return different collections.
+   * <p/>
+   * This method creates a new copy on each call. Use {@link #getDeclaredNamespaces()} for read-only access.
    *
    * @return the defined namespaces.
    */
   public Properties getNamespaces()
   {
     final Properties namespaces = new Properties();
-    if (openTags.isEmpty())
-    {
-      if (impliedNamespaces != null)
-      {
-        //noinspection UseOfPropertiesAsHashtable
-        namespaces.putAll(impliedNamespaces);
-      }
-      return namespaces;
-    }
-
-    final ElementLevel parent = (ElementLevel) openTags.peek();
     //noinspection UseOfPropertiesAsHashtable
-    namespaces.putAll(parent.getNamespaces().getNamespaces());
+    namespaces.putAll(getDeclaredNamespaces().getNamespaces());
     return namespaces;
   }
 
+  /**
+   * Returns the immutable collection of namespaces defined at the current writing position. The returned object
+   * is shared and does not have to be copied.
+   *
+   * @return the defined namespaces, never null.
+   */
+  public DeclaredNamespaces getDeclaredNamespaces()
+  {
+    return computeNamespaces();
+  }
+
   /**
    * Computes the current collection of defined namespaces.
    *
@@ -581,18 +756,24 @@ public class XmlWriterSupport
    */
   protected DeclaredNamespaces computeNamespaces()
   {
-    if (openTags.isEmpty())
+    if (depth == 0)
     {
-      final DeclaredNamespaces namespaces = new DeclaredNamespaces();
-      if (impliedNamespaces != null)
+      if (impliedNamespaceScope == null)
       {
-        return namespaces.add(impliedNamespaces);
+        final DeclaredNamespaces namespaces = new DeclaredNamespaces();
+        if (impliedNamespaces != null)
+        {
+          impliedNamespaceScope = namespaces.add(impliedNamespaces);
+        }
+        else
+        {
+          impliedNamespaceScope = namespaces;
+        }
       }
-      return namespaces;
+      return impliedNamespaceScope;
     }
 
-    final ElementLevel parent = (ElementLevel) openTags.peek();
-    return parent.getNamespaces();
+    return tagScopes[depth - 1];
   }
 
   /**
@@ -616,6 +797,7 @@ public class XmlWriterSupport
     {
       throw new NullPointerException();
     }
+    ensureStartTagFinished();
 
     indent(w);
     setLineEmpty(false);
@@ -627,12 +809,48 @@ public class XmlWriterSupport
       namespaces = namespaces.add(attributes);
     }
 
+    writeElementName(w, namespaceUri, name, namespaces);
+
+    if (attributes != null)
+    {
+      final AttributeList.AttributeEntry[] entries = attributes.toArray();
+      for (int i = 0; i < entries.length; i++)
+      {
+        final AttributeList.AttributeEntry entry = entries[i];
+        w.write(" ");
+
+        buildAttributeName(entry.getNamespace(), entry.getName(), namespaces, w);
+        w.write("=\"");
+        writeAttributeValue(w, entry.getValue());
+        w.write("\"");
+      }
+    }
+
+    finishStartTag(w, close);
+  }
+
+  /**
+   * Writes the opening bracket and the qualified name of an element and pushes the element on the stack of open
+   * elements.
+   *
+   * @param w            the writer.
+   * @param namespaceUri the namespace uri for the element (can be null).
+   * @param name         the tag name.
+   * @param namespaces   the namespaces declared for the element.
+   * @throws java.io.IOException if there is an I/O problem.
+   */
+  private void writeElementName(final Writer w,
+                                final String namespaceUri,
+                                final String name,
+                                final DeclaredNamespaces namespaces)
+      throws IOException
+  {
     w.write("<");
 
     if (namespaceUri == null)
     {
       w.write(name);
-      openTags.push(new ElementLevel(name, namespaces));
+      pushElement(null, null, name, namespaces);
     }
     else
     {
@@ -645,32 +863,102 @@ public class XmlWriterSupport
       if ("".equals(nsPrefix))
       {
         w.write(name);
-        openTags.push(new ElementLevel(namespaceUri, null, name, namespaces));
+        pushElement(namespaceUri, null, name, namespaces);
       }
       else
       {
         w.write(nsPrefix);
         w.write(":");
         w.write(name);
-        openTags.push(new ElementLevel(namespaceUri, nsPrefix, name, namespaces));
+        pushElement(namespaceUri, nsPrefix, name, namespaces);
       }
     }
+  }
 
-    if (attributes != null)
-    {
-      final AttributeList.AttributeEntry[] entries = attributes.toArray();
-      for (int i = 0; i < entries.length; i++)
-      {
-        final AttributeList.AttributeEntry entry = entries[i];
-        w.write(" ");
+  /**
+   * Pushes a new element on the stack of open elements. The TagDescription is consulted once here, all later
+   * layout decisions for this element use the cached result.
+   *
+   * @param namespaceUri the namespace uri for the element (can be null).
+   * @param prefix       the namespace prefix used for the element (can be null).
+   * @param name         the tag name.
+   * @param namespaces   the namespaces declared for the element.
+   */
+  private void pushElement(final String namespaceUri,
+                           final String prefix,
+                           final String name,
+                           final DeclaredNamespaces namespaces)
+  {
+    pushFrame(namespaceUri, prefix, name, namespaces,
+        compactMode || getTagDescription().hasCData(namespaceUri, name));
+  }
 
-        buildAttributeName(entry, namespaces, w);
-        w.write("=\"");
-        writeTextNormalized(w, entry.getValue(), true);
-        w.write("\"");
-      }
+  /**
+   * Pushes a new element with an already resolved CDATA flag on the stack of open elements.
+   *
+   * @param namespaceUri the namespace uri for the element (can be null).
+   * @param prefix       the namespace prefix used for the element (can be null).
+   * @param name         the tag name.
+   * @param namespaces   the namespaces declared for the element.
+   * @param cdata        the result of TagDescription#hasCData for the element.
+   */
+  private void pushFrame(final String namespaceUri,
+                         final String prefix,
+                         final String name,
+                         final DeclaredNamespaces namespaces,
+                         final boolean cdata)
+  {
+    if (depth == tagNames.length)
+    {
+      final int capacity = depth * 2;
+      final String[] newNamespaces = new String[capacity];
+      final String[] newPrefixes = new String[capacity];
+      final String[] newNames = new String[capacity];
+      final DeclaredNamespaces[] newScopes = new DeclaredNamespaces[capacity];
+      final boolean[] newCData = new boolean[capacity];
+      System.arraycopy(tagNamespaces, 0, newNamespaces, 0, depth);
+      System.arraycopy(tagPrefixes, 0, newPrefixes, 0, depth);
+      System.arraycopy(tagNames, 0, newNames, 0, depth);
+      System.arraycopy(tagScopes, 0, newScopes, 0, depth);
+      System.arraycopy(tagCData, 0, newCData, 0, depth);
+      tagNamespaces = newNamespaces;
+      tagPrefixes = newPrefixes;
+      tagNames = newNames;
+      tagScopes = newScopes;
+      tagCData = newCData;
     }
 
+    tagNamespaces[depth] = namespaceUri;
+    tagPrefixes[depth] = prefix;
+    tagNames[depth] = name;
+    tagScopes[depth] = namespaces;
+    tagCData[depth] = cdata;
+    depth += 1;
+  }
+
+  /**
+   * Removes the innermost element from the stack of open elements.
+   */
+  private void popElement()
+  {
+    depth -= 1;
+    tagNamespaces[depth] = null;
+    tagPrefixes[depth] = null;
+    tagNames[depth] = null;
+    tagScopes[depth] = null;
+  }
+
+  /**
+   * Writes the closing bracket of a start tag. If the tag is closed immediately, the element is removed from the
+   * stack of open elements.
+   *
+   * @param w     the writer.
+   * @param close controls whether the tag is closed.
+   * @throws java.io.IOException if there is an I/O problem.
+   */
+  private void finishStartTag(final Writer w, final boolean close)
+      throws IOException
+  {
     if (close)
     {
       if (isHtmlCompatiblityMode())
@@ -682,8 +970,9 @@ public class XmlWriterSupport
         w.write("/>");
       }
 
-      openTags.pop();
+      popElement();
       doEndOfLine(w);
+      elementClosed(w, depth);
     }
     else
     {
@@ -693,32 +982,249 @@ public class XmlWriterSupport
   }
 
   /**
-   * Conditionally writes an end-of-line character. The End-Of-Line is only written, if the tag description indicates
-   * that the currently open element does not expect any CDATA inside. Writing a newline for CDATA-elements may have
-   * sideeffects.
+   * Called after an element has been closed completely. The default implementation does nothing.
    *
-   * @param w the writer.
+   * @param w        the writer.
+   * @param openTags the number of elements that are still open.
    * @throws java.io.IOException if there is an I/O problem.
    */
-  private void doEndOfLine(final Writer w)
+  protected void elementClosed(final Writer w, final int openTags)
       throws IOException
   {
-    if (openTags.isEmpty())
+  }
+
+  /**
+   * Checks that no start tag written with {@link #startElement(Writer, String, String)} is still waiting for
+   * {@link #endStartTag(Writer, boolean)}. Anything written in that state would corrupt the start tag.
+   *
+   * @throws IllegalStateException if a start tag has not been finished.
+   */
+  protected void ensureStartTagFinished()
+  {
+    if (startTagState != START_TAG_NONE)
     {
-      if (isWriteFinalLinebreak())
+      throw new IllegalStateException("The previous start tag has not been finished.");
+    }
+  }
+
+  /**
+   * Starts a new element without writing any attributes. Attributes are added one by one using
+   * {@link #writeAttribute(Writer, String, String, CharSequence)} and the start tag must be finished with
+   * {@link #endStartTag(Writer, boolean)} before anything else is written. Unlike
+   * {@link #writeTag(Writer, String, String, AttributeList, boolean)}, this does not require an AttributeList.
+   * <p/>
+   * The element name is written once the first regular attribute is added, so namespace declarations for this
+   * element must be added before any other attribute.
+   *
+   * @param w            the writer.
+   * @param namespaceUri the namespace uri for the element (can be null).
+   * @param name         the tag name.
+   * @throws java.io.IOException if there is an I/O problem.
+   */
+  public void startElement(final Writer w,
+                           final String namespaceUri,
+                           final String name)
+      throws IOException
+  {
+    if (name == null)
+    {
+      throw new NullPointerException();
+    }
+    ensureStartTagFinished();
+
+    indent(w);
+    setLineEmpty(false);
+
+    pendingNamespace = namespaceUri;
+    pendingName = name;
+    pendingDeclarationCount = 0;
+    startTagState = START_TAG_DECLARATIONS;
+  }
+
+  /**
+   * Adds an attribute to the element started with {@link #startElement(Writer, String, String)}. Attributes in the
+   * XMLNS namespace, as well as attributes named 'xmlns' that have no namespace, are namespace declarations and must
+   * be added before any regular attribute. A null value is ignored.
+   *
+   * @param w            the writer.
+   * @param namespaceUri the namespace uri for the attribute (can be null).
+   * @param name         the attribute name.
+   * @param value        the attribute value.
+   * @throws java.io.IOException if there is an I/O problem.
+   */
+  public void writeAttribute(final Writer w,
+                             final String namespaceUri,
+                             final String name,
+                             final CharSequence value)
+      throws IOException
+  {
+    if (name == null)
+    {
+      throw new NullPointerException();
+    }
+    if (startTagState == START_TAG_NONE)
+    {
+      throw new IllegalStateException("There is no open start tag.");
+    }
+    if (value == null)
+    {
+      return;
+    }
+
+    if (AttributeList.XMLNS_NAMESPACE.equals(namespaceUri) ||
+        ((namespaceUri == null || namespaceUri.length() == 0) && "xmlns".equals(name)))
+    {
+      if (startTagState != START_TAG_DECLARATIONS)
       {
-        writeNewLine(w);
+        throw new IllegalStateException("Namespace declarations must precede all other attributes.");
       }
+      final String prefix = "xmlns".equals(name) ? "" : name;
+      addPendingDeclaration(value.toString(), prefix);
+      return;
     }
-    else
+
+    if (startTagState == START_TAG_DECLARATIONS)
+    {
+      writePendingElement(w);
+    }
+
+    w.write(" ");
+    buildAttributeName(namespaceUri, name, tagScopes[depth - 1], w);
+    w.write("=\"");
+    writeAttributeValue(w, value);
+    w.write("\"");
+  }
+
+  /**
+   * Finishes the start tag that has been started with {@link #startElement(Writer, String, String)}.
+   *
+   * @param w     the writer.
+   * @param close controls whether the tag is closed.
+   * @throws java.io.IOException if there is an I/O problem.
+   */
+  public void endStartTag(final Writer w, final boolean close)
+      throws IOException
+  {
+    if (startTagState == START_TAG_NONE)
+    {
+      throw new IllegalStateException("There is no open start tag.");
+    }
+    if (startTagState == START_TAG_DECLARATIONS)
     {
-      final ElementLevel level = (ElementLevel) openTags.peek();
-      if (getTagDescription().hasCData
-          (level.getNamespace(), level.getTagName()) == false)
+      writePendingElement(w);
+    }
+    startTagState = START_TAG_NONE;
+    finishStartTag(w, close);
+  }
+
+  /**
+   * Buffers a namespace declaration of the pending start tag.
+   *
+   * @param uri    the namespace URI.
+   * @param prefix the declared prefix, or an empty string for the default namespace.
+   */
+  private void addPendingDeclaration(final String uri, final String prefix)
+  {
+    if (pendingDeclarationUris == null)
+    {
+      pendingDeclarationUris = new String[4];
+      pendingDeclarationPrefixes = new String[4];
+    }
+    else if (pendingDeclarationCount == pendingDeclarationUris.length)
+    {
+      final String[] uris = new String[pendingDeclarationCount * 2];
+      final String[] prefixes = new String[pendingDeclarationCount * 2];
+      System.arraycopy(pendingDeclarationUris, 0, uris, 0, pendingDeclarationCount);
+      System.arraycopy(pendingDeclarationPrefixes, 0, prefixes, 0, pendingDeclarationCount);
+      pendingDeclarationUris = uris;
+      pendingDeclarationPrefixes = prefixes;
+    }
+    pendingDeclarationUris[pendingDeclarationCount] = uri;
+    pendingDeclarationPrefixes[pendingDeclarationCount] = prefix;
+    pendingDeclarationCount += 1;
+  }
+
+  /**
+   * Writes the element name of the pending start tag, followed by all buffered namespace declarations. The
+   * declarations form a single new namespace scope.
+   *
+   * @param w the writer.
+   * @throws java.io.IOException if there is an I/O problem.
+   */
+  private void writePendingElement(final Writer w)
+      throws IOException
+  {
+    DeclaredNamespaces namespaces = computeNamespaces();
+    final int declarationCount = pendingDeclarationCount;
+    if (declarationCount > 0)
+    {
+      if (pendingDeclarations == null)
+      {
+        pendingDeclarations = new HashMap();
+      }
+      for (int i = 0; i < declarationCount; i++)
+      {
+        pendingDeclarations.put(pendingDeclarationUris[i], pendingDeclarationPrefixes[i]);
+      }
+      namespaces = namespaces.add(pendingDeclarations);
+      pendingDeclarations.clear();
+    }
+
+    final String name = pendingName;
+    final String namespaceUri = pendingNamespace;
+    pendingName = null;
+    pendingNamespace = null;
+    startTagState = START_TAG_ATTRIBUTES;
+
+    writeElementName(w, namespaceUri, name, namespaces);
+
+    for (int i = 0; i < declarationCount; i++)
+    {
+      final String prefix = pendingDeclarationPrefixes[i];
+      if ("".equals(prefix))
+      {
+        w.write(" xmlns=\"");
+      }
+      else
+      {
+        w.write(" xmlns:");
+        w.write(prefix);
+        w.write("=\"");
+      }
+      writeAttributeValue(w, pendingDeclarationUris[i]);
+      w.write("\"");
+      pendingDeclarationUris[i] = null;
+      pendingDeclarationPrefixes[i] = null;
+    }
+    pendingDeclarationCount = 0;
+  }
+
+  /**
+   * Conditionally writes an end-of-line character. The End-Of-Line is only written, if the tag description indicates
+   * that the currently open element does not expect any CDATA inside. Writing a newline for CDATA-elements may have
+   * sideeffects.
+   *
+   * @param w the writer.
+   * @throws java.io.IOException if there is an I/O problem.
+   */
+  private void doEndOfLine(final Writer w)
+      throws IOException
+  {
+    if (compactMode)
+    {
+      return;
+    }
+    if (depth == 0)
+    {
+      if (isWriteFinalLinebreak())
       {
         writeNewLine(w);
       }
     }
+    else if (tagCData[depth - 1] == false)
+    {
+      writeNewLine(w);
+    }
   }
 
   /**
@@ -726,21 +1232,20 @@ public class XmlWriterSupport
    * returned in a normalized way. If namespace processing is active, the attribute name will be fully qualified with
    * the prefix registered for the attribute's namespace URI.
    *
-   * @param entry      the attribute enty.
-   * @param namespaces the currently known namespaces.
-   * @param writer     the writer that should receive the formatted attribute name.
+   * @param namespaceUri the namespace URI of the attribute (can be null).
+   * @param name         the local name of the attribute.
+   * @param namespaces   the currently known namespaces.
+   * @param writer       the writer that should receive the formatted attribute name.
    * @throws IOException if an IO error occured.
    */
-  private void buildAttributeName(final AttributeList.AttributeEntry entry,
+  private void buildAttributeName(final String namespaceUri,
+                                  final String name,
                                   final DeclaredNamespaces namespaces,
                                   final Writer writer) throws IOException
   {
-    final ElementLevel currentElement = (ElementLevel) openTags.peek();
-    final String name = entry.getName();
-    final String namespaceUri = entry.getNamespace();
 
     if (isAlwaysAddNamespace() == false &&
-        ObjectUtilities.equal(currentElement.getNamespace(), namespaceUri))
+        ObjectUtilities.equal(tagNamespaces[depth - 1], namespaceUri))
     {
       writer.write(name);
       return;
@@ -793,77 +1298,7 @@ public class XmlWriterSupport
     {
       return "";
     }
-    normalizeBuffer.delete(0, normalizeBuffer.length());
-
-    final int len = s.length();
-    for (int i = 0; i < len; i++)
-    {
-      final char ch = s.charAt(i);
-
-      switch (ch)
-      {
-        case '<':
-        {
-          normalizeBuffer.append("&lt;");
-          break;
-        }
-        case '>':
-        {
-          normalizeBuffer.append("&gt;");
-          break;
-        }
-        case '&':
-        {
-          normalizeBuffer.append("&amp;");
-          break;
-        }
-        case '"':
-        {
-          normalizeBuffer.append("&quot;");
-          break;
-        }
-        case '\n':
-        {
-          if (transformNewLine)
-          {
-            normalizeBuffer.append("&#x000a;");
-          }
-          else
-          {
-            normalizeBuffer.append('\n');
-          }
-          break;
-        }
-        case '\r':
-        {
-          if (transformNewLine)
-          {
-            normalizeBuffer.append("&#x000d;");
-          }
-          else
-          {
-            normalizeBuffer.append('\r');
-          }
-          break;
-        }
-        case 0x09:
-        {
-          normalizeBuffer.append(ch);
-          break;
-        }
-        default:
-        {
-          if (ch >= 0x20)
-          {
-            normalizeBuffer.append(ch);
-          }
-        }
-      }
-    }
-
-    final String retval = normalizeBuffer.toString();
-    normalizeBuffer.delete(0, normalizeBuffer.length());
-    return retval;
+    return XmlTextNormalizer.normalize(s, true, transformNewLine, normalizeBuffer);
   }
 
 
@@ -884,118 +1319,99 @@ public class XmlWriterSupport
       return;
     }
 
-    final char[] data = s.toCharArray();
-    final int len = data.length;
-    int startIdx = 0;
-    int length = 0;
-    for (int i = 0; i < len; i++)
+    XmlTextNormalizer.write(writer, s, minimalTextEscaping == false, transformNewLine);
+  }
+
+  /**
+   * Normalizes an attribute value and writes the result directly to the stream. Attribute values are always fully
+   * escaped. Unless minimal text escaping is enabled, the value is passed to
+   * {@link #writeTextNormalized(Writer, String, boolean)}, so that subclasses that override the text normalization
+   * also affect attribute values.
+   *
+   * @param writer the writer that should receive the normalized content.
+   * @param value  the attribute value.
+   * @throws IOException if writing to the stream failed.
+   */
+  protected void writeAttributeValue(final Writer writer,
+                                     final CharSequence value) throws IOException
+  {
+    if (value == null)
     {
-      final char ch = data[i];
+      return;
+    }
 
-      switch (ch)
-      {
-        case '<':
-        {
-          if (length != 0)
-          {
-            writer.write(data, startIdx, length);
-            length = 0;
-          }
-          writer.write("&lt;");
-          startIdx = i + 1;
-          continue;
-        }
-        case '>':
-        {
-          if (length != 0)
-          {
-            writer.write(data, startIdx, length);
-            length = 0;
-          }
-          writer.write("&gt;");
-          startIdx = i + 1;
-          continue;
-        }
-        case '&':
-        {
-          if (length != 0)
-          {
-            writer.write(data, startIdx, length);
-            length = 0;
-          }
-          writer.write("&amp;");
-          startIdx = i + 1;
-          continue;
-        }
-        case '"':
-        {
-          if (length != 0)
-          {
-            writer.write(data, startIdx, length);
-            length = 0;
-          }
-          writer.write("&quot;");
-          startIdx = i + 1;
-          continue;
-        }
-        case '\n':
-        {
-          if (transformNewLine)
-          {
-            if (length != 0)
-            {
-              writer.write(data, startIdx, length);
-              length = 0;
-            }
-            writer.write("&#x000a;");
-            startIdx = i + 1;
-            continue;
-          }
-          break;
-        }
-        case '\r':
-        {
-          if (transformNewLine)
-          {
-            if (length != 0)
-            {
-              writer.write(data, startIdx, length);
-              length = 0;
-            }
-            writer.write("&#x000d;");
-            startIdx = i + 1;
-            continue;
-          }
-          break;
-        }
-        case 0x09: // tab
-        {
-          break;
-        }
-        default:
-        {
-          if (ch >= 0x20)
-          {
-            // anything above the control-character range is ok.
-            break;
-          }
-          // skip ..
-          if (length != 0)
-          {
-            writer.write(data, startIdx, length);
-            length = 0;
-          }
-          startIdx = i + 1;
-          continue;
-        }
-      }
-      length += 1;
+    if (minimalTextEscaping)
+    {
+      // minimal escaping keeps quotes in text content, but attribute values must never contain them unescaped.
+      XmlTextNormalizer.write(writer, value, true, true, getTextBuffer());
     }
+    else if (value instanceof String)
+    {
+      writeTextNormalized(writer, (String) value, true);
+    }
+    else
+    {
+      writeTextNormalized(writer, value, true);
+    }
+  }
 
-    if (length != 0)
+  /**
+   * Normalizes the given character sequence and writes the result directly to the stream. Strings, StringBuffers and
+   * StringBuilders are escaped without creating temporary strings.
+   *
+   * @param writer           the writer that should receive the normalized content.
+   * @param s                the character sequence that should be XML-Encoded.
+   * @param transformNewLine a flag controling whether to transform newlines into character-entities.
+   * @throws IOException if writing to the stream failed.
+   */
+  public void writeTextNormalized(final Writer writer,
+                                  final CharSequence s,
+                                  final boolean transformNewLine) throws IOException
+  {
+    if (s == null)
     {
-      writer.write(data, startIdx, length);
+      return;
     }
+
+    XmlTextNormalizer.write(writer, s, minimalTextEscaping == false, transformNewLine, getTextBuffer());
+  }
+
+  /**
+   * Normalizes the given character range and writes the result directly to the stream.
+   *
+   * @param writer           the writer that should receive the normalized content.
+   * @param data             the characters that should be XML-Encoded.
+   * @param offset           the index of the first character.
+   * @param length           the number of characters.
+   * @param transformNewLine a flag controling whether to transform newlines into character-entities.
+   * @throws IOException if writing to the stream failed.
+   */
+  public void writeTextNormalized(final Writer writer,
+                                  final char[] data,
+                                  final int offset,
+                                  final int length,
+                                  final boolean transformNewLine) throws IOException
+  {
+    if (data == null)
+    {
+      return;
+    }
+
+    XmlTextNormalizer.write(writer, data, offset, length, minimalTextEscaping == false, transformNewLine);
+  }
+
+  /**
+   * Returns the scratch buffer used to copy character sequences that are not strings.
+   *
+   * @return the buffer.
+   */
+  protected char[] getTextBuffer()
+  {
+    if (textBuffer == null)
+    {
+      textBuffer = new char[512];
+    }
+    return textBuffer;
   }
 
   /**
@@ -1013,74 +1429,32 @@ public class XmlWriterSupport
     {
       return "";
     }
-    final int len = s.length();
-    final StringBuffer str = new StringBuffer(len);
+    return XmlTextNormalizer.normalize(s, true, transformNewLine, null);
+  }
 
-    for (int i = 0; i < len; i++)
+  /**
+   * Indent the line. Called for proper indenting in various places.
+   *
+   * @param writer the writer which should receive the indentention.
+   * @throws java.io.IOException if writing the stream failed.
+   */
+  public void indent(final Writer writer)
+      throws IOException
+  {
+    if (compactMode)
     {
-      final char ch = s.charAt(i);
-
-      switch (ch)
-      {
-        case '<':
-        {
-          str.append("&lt;");
-          break;
-        }
-        case '>':
-        {
-          str.append("&gt;");
-          break;
-        }
-        case '&':
-        {
-          str.append("&amp;");
-          break;
-        }
-        case '"':
-        {
-          str.append("&quot;");
-          break;
-        }
-        case '\n':
-        {
-          if (transformNewLine)
-          {
-            str.append("&#x000a;");
-          }
-          else
-          {
-            str.append('\n');
-          }
-          break;
-        }
-        case '\r':
-        {
-          if (transformNewLine)
-          {
-            str.append("&#x000d;");
-          }
-          else
-          {
-            str.append('\r');
-          }
-          break;
-        }
-        case 0x09: // tab
-        {
-          str.append((char) 0x09);
-        }
-        default:
-        {
-          if (ch >= 0x20)
-          {
-            str.append(ch);
-          }
-        }
-      }
+      return;
+    }
+    if (depth == 0)
+    {
+      writeIndent(writer, additionalIndent, false);
+      return;
     }
 
-    return (str.toString());
+    if (tagCData[depth - 1] == false)
+    {
+      writeIndentedLine(writer, depth + additionalIndent);
+    }
   }
 
   /**
@@ -1089,68 +1463,114 @@ public class XmlWriterSupport
    * @param writer the writer which should receive the indentention.
    * @throws java.io.IOException if writing the stream failed.
    */
-  public void indent(final Writer writer)
+  public void indentForClose(final Writer writer)
       throws IOException
   {
-    if (openTags.isEmpty())
+    if (compactMode)
     {
-      for (int i = 0; i < additionalIndent; i++)
-      {
-        writer.write(this.indentString);
-      }
       return;
     }
-
-    final ElementLevel level = (ElementLevel) openTags.peek();
-    if (getTagDescription().hasCData(level.getNamespace(),
-        level.getTagName()) == false)
+    if (depth == 0)
     {
-      doEndOfLine(writer);
+      writeIndent(writer, additionalIndent, false);
+      return;
+    }
 
-      for (int i = 0; i < this.openTags.size(); i++)
-      {
-        writer.write(this.indentString);
-      }
+    if (tagCData[depth - 1] == false)
+    {
+      writeIndentedLine(writer, depth - 1 + additionalIndent);
+    }
+  }
 
-      for (int i = 0; i < additionalIndent; i++)
-      {
-        writer.write(this.indentString);
-      }
+  /**
+   * Checks, whether the given class overrides {@link #writeNewLine(Writer)}.
+   *
+   * @param c the class of this instance.
+   * @return true, if the method is overridden, false otherwise.
+   */
+  private static boolean isNewLineOverridden(final Class c)
+  {
+    try
+    {
+      final Method method = c.getMethod("writeNewLine", new Class[]{Writer.class});
+      return method.getDeclaringClass() != XmlWriterSupport.class;
+    }
+    catch (NoSuchMethodException e)
+    {
+      return false;
     }
   }
 
   /**
-   * Indent the line. Called for proper indenting in various places.
+   * Starts a new line, unless the current line is empty, and indents it by the given number of levels.
    *
    * @param writer the writer which should receive the indentention.
+   * @param levels the number of indent levels.
    * @throws java.io.IOException if writing the stream failed.
    */
-  public void indentForClose(final Writer writer)
+  private void writeIndentedLine(final Writer writer, final int levels)
       throws IOException
   {
-    if (openTags.isEmpty())
+    if (customNewLine)
     {
-      for (int i = 0; i < additionalIndent; i++)
-      {
-        writer.write(this.indentString);
-      }
-      return;
+      writeNewLine(writer);
+      writeIndent(writer, levels, false);
     }
+    else
+    {
+      writeIndent(writer, levels, startNewLine());
+    }
+  }
 
-    final ElementLevel level = (ElementLevel) openTags.peek();
-    if (getTagDescription().hasCData(level.getNamespace(),
-        level.getTagName()) == false)
+  /**
+   * Marks the current line as finished, if it is not empty.
+   *
+   * @return true, if a line separator needs to be written, false if the line was empty already.
+   */
+  private boolean startNewLine()
+  {
+    if (isLineEmpty())
     {
-      doEndOfLine(writer);
+      return false;
+    }
+    setLineEmpty(true);
+    return true;
+  }
 
-      for (int i = 1; i < this.openTags.size(); i++)
-      {
-        writer.write(this.indentString);
-      }
-      for (int i = 0; i < additionalIndent; i++)
+  /**
+   * Writes an optional line separator followed by the given number of indent strings in a single call.
+   *
+   * @param writer  the writer which should receive the indentention.
+   * @param levels  the number of indent levels.
+   * @param newLine true, if a line separator should be written first.
+   * @throws java.io.IOException if writing the stream failed.
+   */
+  private void writeIndent(final Writer writer, final int levels, final boolean newLine)
+      throws IOException
+  {
+    final int separatorLength = lineSeparator.length();
+    if (levels > indentBufferLevels || indentBuffer == null)
+    {
+      final int newLevels = Math.max(levels, Math.max(16, indentBufferLevels * 2));
+      final int indentLength = indentString.length();
+      final char[] buffer = new char[separatorLength + newLevels * indentLength];
+      lineSeparator.getChars(0, separatorLength, buffer, 0);
+      for (int i = 0; i < newLevels; i++)
       {
-        writer.write(this.indentString);
+        indentString.getChars(0, indentLength, buffer, separatorLength + i * indentLength);
       }
+      indentBuffer = buffer;
+      indentBufferLevels = newLevels;
+    }
+
+    final int indentChars = levels * indentString.length();
+    if (newLine)
+    {
+      writer.write(indentBuffer, 0, separatorLength + indentChars);
+    }
+    else if (indentChars > 0)
+    {
+      writer.write(indentBuffer, separatorLength, indentChars);
     }
   }
 
@@ -1174,20 +1594,72 @@ public class XmlWriterSupport
   public void writeComment(final Writer writer, final String comment)
       throws IOException
   {
-    if (openTags.isEmpty() == false)
+    startComment(writer);
+    writeTextNormalized(writer, comment, false);
+    endComment(writer);
+  }
+
+  /**
+   * Writes a comment into the generated xml file.
+   *
+   * @param writer  the writer.
+   * @param comment the comment text
+   * @throws IOException if there is a problem writing to the character stream.
+   */
+  public void writeComment(final Writer writer, final CharSequence comment)
+      throws IOException
+  {
+    startComment(writer);
+    writeTextNormalized(writer, comment, false);
+    endComment(writer);
+  }
+
+  /**
+   * Writes a comment into the generated xml file.
+   *
+   * @param writer  the writer.
+   * @param comment the characters of the comment text
+   * @param offset  the index of the first character.
+   * @param length  the number of characters.
+   * @throws IOException if there is a problem writing to the character stream.
+   */
+  public void writeComment(final Writer writer, final char[] comment, final int offset, final int length)
+      throws IOException
+  {
+    startComment(writer);
+    writeTextNormalized(writer, comment, offset, length, false);
+    endComment(writer);
+  }
+
+  /**
+   * Indents the line if necessary and writes the start of a comment.
+   *
+   * @param writer the writer.
+   * @throws IOException if there is a problem writing to the character stream.
+   */
+  private void startComment(final Writer writer)
+      throws IOException
+  {
+    ensureStartTagFinished();
+    if (depth > 0 && tagCData[depth - 1] == false)
     {
-      final ElementLevel level = (ElementLevel) openTags.peek();
-      if (getTagDescription().hasCData
-          (level.getNamespace(), level.getTagName()) == false)
-      {
-        indent(writer);
-      }
+      indent(writer);
     }
 
     setLineEmpty(false);
 
     writer.write("<!-- ");
-    writeTextNormalized(writer, comment, false);
+  }
+
+  /**
+   * Writes the end of a comment.
+   *
+   * @param writer the writer.
+   * @throws IOException if there is a problem writing to the character stream.
+   */
+  private void endComment(final Writer writer)
+      throws IOException
+  {
     writer.write(" -->");
     doEndOfLine(writer);
   }
@@ -1225,7 +1697,7 @@ public class XmlWriterSupport
    */
   public int getCurrentIndentLevel()
   {
-    return additionalIndent + openTags.size();
+    return additionalIndent + depth;
   }
 
   /**
@@ -0,0 +1,88 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import junit.framework.TestCase;
+import org.pentaho.reporting.libraries.base.config.DefaultConfiguration;
+
+public class AbstractReadHandlerFactoryTest extends TestCase
+{
+  private static class TestReadHandlerFactory extends AbstractReadHandlerFactory
+  {
+    private TestReadHandlerFactory()
+    {
+    }
+
+    protected Class getTargetClass()
+    {
+      return XmlReadHandler.class;
+    }
+  }
+
+  public AbstractReadHandlerFactoryTest()
+  {
+  }
+
+  public AbstractReadHandlerFactoryTest(final String s)
+  {
+    super(s);
+  }
+
+  private static DefaultConfiguration createConfiguration()
+  {
+    final DefaultConfiguration conf = new DefaultConfiguration();
+    conf.setConfigProperty("test.namespace.a", "urn:a");
+    conf.setConfigProperty("test.namespace.b", "urn:b");
+    conf.setConfigProperty("test.namespace.c", "urn:c");
+    conf.setConfigProperty("test.namespace", "a");
+    conf.setConfigProperty("test.default", StringReadHandler.class.getName());
+    conf.setConfigProperty("test.default.b", PropertiesReadHandler.class.getName());
+    conf.setConfigProperty("test.default.c", "no.such.Handler");
+    conf.setConfigProperty("test.tag.a.property", PropertyReadHandler.class.getName());
+    conf.setConfigProperty("test.tag.b.broken", "no.such.Handler");
+    conf.setConfigProperty("test.tag.b.string", String.class.getName());
+    return conf;
+  }
+
+  public void testLookup()
+  {
+    final TestReadHandlerFactory factory = new TestReadHandlerFactory();
+    factory.configure(createConfiguration(), "test.");
+
+    assertTrue(factory.getHandler("urn:a", "property") instanceof PropertyReadHandler);
+    assertTrue(factory.getHandler(null, "property") instanceof PropertyReadHandler);
+    assertTrue(factory.getHandler("urn:a", "other") instanceof StringReadHandler);
+    assertTrue(factory.getHandler("urn:b", "property") instanceof PropertiesReadHandler);
+    assertTrue(factory.getHandler("urn:b", "broken") instanceof PropertiesReadHandler);
+    assertTrue(factory.getHandler("urn:b", "string") instanceof PropertiesReadHandler);
+    assertNull(factory.getHandler("urn:c", "property"));
+    assertTrue(factory.getHandler("urn:unknown", "property") instanceof StringReadHandler);
+    assertNotSame(factory.getHandler("urn:a", "property"), factory.getHandler("urn:a", "property"));
+  }
+
+  public void testMissingGlobalDefault()
+  {
+    final DefaultConfiguration conf = createConfiguration();
+    conf.setConfigProperty("test.default", null);
+    final TestReadHandlerFactory factory = new TestReadHandlerFactory();
+    factory.configure(conf, "test.");
+
+    assertNull(factory.getHandler("urn:unknown", "property"));
+    assertTrue(factory.getHandler("urn:a", "property") instanceof PropertyReadHandler);
+  }
+}
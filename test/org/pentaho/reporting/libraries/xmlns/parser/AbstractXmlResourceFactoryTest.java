@@ -0,0 +1,212 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+import org.pentaho.reporting.libraries.base.config.Configuration;
+import org.pentaho.reporting.libraries.base.config.DefaultConfiguration;
+import org.pentaho.reporting.libraries.resourceloader.ResourceCreationException;
+import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+public class AbstractXmlResourceFactoryTest extends TestCase
+{
+  /**
+   * Returns the text of the root element. A root element with a "nested" attribute parses the attribute value as a
+   * separate document from within the outer parse operation.
+   */
+  private static class TestReadHandler extends StringReadHandler
+  {
+    private TestResourceFactory factory;
+    private boolean disposed;
+
+    private TestReadHandler(final TestResourceFactory factory)
+    {
+      this.factory = factory;
+    }
+
+    protected void startParsing(final Attributes attrs) throws SAXException
+    {
+      super.startParsing(attrs);
+      final String nested = attrs.getValue(getUri(), "nested");
+      if (nested != null)
+      {
+        factory.nestedResult = factory.parse(nested);
+      }
+    }
+
+    public void dispose()
+    {
+      disposed = true;
+    }
+  }
+
+  private static class TestFactoryModule implements XmlFactoryModule
+  {
+    private TestResourceFactory factory;
+
+    private TestFactoryModule(final TestResourceFactory factory)
+    {
+      this.factory = factory;
+    }
+
+    public int getDocumentSupport(final XmlDocumentInfo documentInfo)
+    {
+      return XmlFactoryModule.RECOGNIZED_BY_TAGNAME;
+    }
+
+    public XmlReadHandler createReadHandler(final XmlDocumentInfo documentInfo)
+    {
+      final TestReadHandler handler = new TestReadHandler(factory);
+      factory.handlers.add(handler);
+      return handler;
+    }
+
+    public String getDefaultNamespace(final XmlDocumentInfo documentInfo)
+    {
+      return null;
+    }
+  }
+
+  private static class TestResourceFactory extends AbstractXmlResourceFactory
+  {
+    private ArrayList configuredReaders;
+    private ArrayList handlers;
+    private Object nestedResult;
+
+    private TestResourceFactory()
+    {
+      configuredReaders = new ArrayList();
+      handlers = new ArrayList();
+      registerModule(new TestFactoryModule(this));
+    }
+
+    protected void configureReader(final XMLReader reader, final MultiplexRootElementHandler handler)
+    {
+      super.configureReader(reader, handler);
+      configuredReaders.add(reader);
+    }
+
+    protected Configuration getConfiguration()
+    {
+      return new DefaultConfiguration();
+    }
+
+    public Class getFactoryType()
+    {
+      return Object.class;
+    }
+
+    private Object parse(final String document) throws ParseException
+    {
+      try
+      {
+        return parseDirectly(new ResourceManager(), new InputSource(new StringReader(document)), null, new HashMap());
+      }
+      catch (Exception e)
+      {
+        throw new ParseException("Nested parsing failed", e);
+      }
+    }
+  }
+
+  public AbstractXmlResourceFactoryTest()
+  {
+  }
+
+  public AbstractXmlResourceFactoryTest(final String s)
+  {
+    super(s);
+  }
+
+  private static Object parse(final TestResourceFactory factory, final String document) throws Exception
+  {
+    return factory.parseDirectly(new ResourceManager(), new InputSource(new StringReader(document)), null, new HashMap());
+  }
+
+  public void testNoReuseByDefault() throws Exception
+  {
+    final TestResourceFactory factory = new TestResourceFactory();
+    assertFalse(factory.isReaderReuseEnabled());
+    assertEquals("a", parse(factory, "<root>a</root>"));
+    assertEquals("b", parse(factory, "<root>b</root>"));
+    assertEquals(2, factory.configuredReaders.size());
+    assertNotSame(factory.configuredReaders.get(0), factory.configuredReaders.get(1));
+  }
+
+  public void testReuse() throws Exception
+  {
+    final TestResourceFactory factory = new TestResourceFactory();
+    factory.setReaderReuseEnabled(true);
+    assertEquals("a", parse(factory, "<root>a</root>"));
+    assertEquals("b", parse(factory, "<root>b</root>"));
+    assertEquals("c", parse(factory, "<root>c</root>"));
+    assertEquals(1, factory.configuredReaders.size());
+
+    factory.setReaderReuseEnabled(false);
+    assertEquals("d", parse(factory, "<root>d</root>"));
+    assertEquals(2, factory.configuredReaders.size());
+  }
+
+  public void testReaderDroppedAfterFailure() throws Exception
+  {
+    final TestResourceFactory factory = new TestResourceFactory();
+    factory.setReaderReuseEnabled(true);
+    assertEquals("a", parse(factory, "<root>a</root>"));
+    try
+    {
+      parse(factory, "<root>broken</wrong>");
+      fail("Parsing a malformed document must fail.");
+    }
+    catch (ResourceCreationException rce)
+    {
+      // expected
+    }
+    final TestReadHandler failedHandler = (TestReadHandler) factory.handlers.get(1);
+    assertTrue(failedHandler.disposed);
+    assertEquals(1, factory.configuredReaders.size());
+
+    assertEquals("b", parse(factory, "<root>b</root>"));
+    assertEquals(2, factory.configuredReaders.size());
+    assertNotSame(factory.configuredReaders.get(0), factory.configuredReaders.get(1));
+    assertEquals("c", parse(factory, "<root>c</root>"));
+    assertEquals(2, factory.configuredReaders.size());
+    assertFalse(((TestReadHandler) factory.handlers.get(2)).disposed);
+  }
+
+  public void testNestedParseUsesSeparateReader() throws Exception
+  {
+    final TestResourceFactory factory = new TestResourceFactory();
+    factory.setReaderReuseEnabled(true);
+    assertEquals("outer", parse(factory, "<root nested='&lt;root>inner&lt;/root>'>outer</root>"));
+    assertEquals("inner", factory.nestedResult);
+    assertEquals(2, factory.configuredReaders.size());
+    assertNotSame(factory.configuredReaders.get(0), factory.configuredReaders.get(1));
+
+    // the outer reader stays pooled, the nested one was only borrowed.
+    assertEquals("a", parse(factory, "<root>a</root>"));
+    assertEquals(2, factory.configuredReaders.size());
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import java.lang.reflect.Method;
+
+/**
+ * A simple benchmark comparing the base64 implementation used by earlier versions of this library with the
+ * single-pass Base64 methods and, if the runtime provides it, with java.util.Base64. Run it from the command line;
+ * it is not part of the test-suite.
+ *
+ * @author Thomas Morgner
+ */
+public class Base64Benchmark
+{
+  private static final int ROUNDS = 5;
+  private static final int ITERATIONS = 2000;
+  private static final int DATA_SIZE = 65536;
+
+  private static final char[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=".toCharArray();
+
+  private Base64Benchmark()
+  {
+  }
+
+  /**
+   * The encoder as it was implemented before the single-pass methods existed.
+   */
+  private static char[] encodeLegacy(final byte[] data)
+  {
+    final char[] out = new char[((data.length + 2) / 3) * 4];
+    for (int i = 0, index = 0; i < data.length; i += 3, index += 4)
+    {
+      int val = (0xFF & data[i]);
+      val <<= 8;
+      boolean trip = false;
+      if ((i + 1) < data.length)
+      {
+        val |= (0xFF & data[i + 1]);
+        trip = true;
+      }
+      val <<= 8;
+      boolean quad = false;
+      if ((i + 2) < data.length)
+      {
+        val |= (0xFF & data[i + 2]);
+        quad = true;
+      }
+      out[index + 3] = ALPHABET[(quad ? (val & 0x3F) : 64)];
+      val >>= 6;
+      out[index + 2] = ALPHABET[(trip ? (val & 0x3F) : 64)];
+      val >>= 6;
+      out[index + 1] = ALPHABET[val & 0x3F];
+      val >>= 6;
+      out[index] = ALPHABET[val & 0x3F];
+    }
+    return out;
+  }
+
+  /**
+   * The decoder as it was implemented before the single-pass methods existed.
+   */
+  private static byte[] decodeLegacy(final char[] data)
+  {
+    final byte[] codes = Base64.CODES;
+    int tempLen = data.length;
+    for (int ix = 0; ix < data.length; ix++)
+    {
+      if ((data[ix] > 255) || codes[data[ix]] < 0)
+      {
+        --tempLen;
+      }
+    }
+
+    int len = (tempLen / 4) * 3;
+    if ((tempLen % 4) == 3)
+    {
+      len += 2;
+    }
+    if ((tempLen % 4) == 2)
+    {
+      len += 1;
+    }
+
+    final byte[] out = new byte[len];
+    int shift = 0;
+    int accum = 0;
+    int index = 0;
+    for (int ix = 0; ix < data.length; ix++)
+    {
+      final int value = (data[ix] > 255) ? -1 : codes[data[ix]];
+      if (value >= 0)
+      {
+        accum <<= 6;
+        shift += 6;
+        accum |= value;
+        if (shift >= 8)
+        {
+          shift -= 8;
+          out[index] = (byte) ((accum >> shift) & 0xff);
+          index += 1;
+        }
+      }
+    }
+    return out;
+  }
+
+  private static long time(final String name, final Runnable task)
+  {
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++)
+    {
+      final long start = System.nanoTime();
+      task.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.println(name + ": " + (best / 1000000) + "ms");
+    return best;
+  }
+
+  public static void main(final String[] args) throws Exception
+  {
+    final byte[] data = new byte[DATA_SIZE];
+    for (int i = 0; i < data.length; i++)
+    {
+      data[i] = (byte) (i * 31 + 7);
+    }
+    final char[] encoded = Base64.encode(data);
+    final char[] charBuffer = new char[encoded.length];
+    final byte[] byteBuffer = new byte[data.length];
+
+    time("encode legacy", new Runnable()
+    {
+      public void run()
+      {
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+          encodeLegacy(data);
+        }
+      }
+    });
+    time("encode allocating", new Runnable()
+    {
+      public void run()
+      {
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+          Base64.encode(data);
+        }
+      }
+    });
+    time("encode into buffer", new Runnable()
+    {
+      public void run()
+      {
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+          Base64.encode(data, 0, data.length, charBuffer, 0);
+        }
+      }
+    });
+    time("decode legacy", new Runnable()
+    {
+      public void run()
+      {
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+          decodeLegacy(encoded);
+        }
+      }
+    });
+    time("decode allocating", new Runnable()
+    {
+      public void run()
+      {
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+          Base64.decode(encoded);
+        }
+      }
+    });
+    time("decode into buffer", new Runnable()
+    {
+      public void run()
+      {
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+          Base64.decode(encoded, 0, encoded.length, byteBuffer, 0);
+        }
+      }
+    });
+
+    // java.util.Base64 exists only on newer runtimes, so it is called via reflection.
+    final Class jdkBase64;
+    try
+    {
+      jdkBase64 = Class.forName("java.util.Base64");
+    }
+    catch (ClassNotFoundException e)
+    {
+      System.out.println("java.util.Base64 is not available on this runtime.");
+      return;
+    }
+    final Object jdkEncoder = jdkBase64.getMethod("getEncoder", new Class[0]).invoke(null, new Object[0]);
+    final Object jdkDecoder = jdkBase64.getMethod("getDecoder", new Class[0]).invoke(null, new Object[0]);
+    final Method encodeMethod = jdkEncoder.getClass().getMethod("encode", new Class[]{byte[].class, byte[].class});
+    final Method decodeMethod = jdkDecoder.getClass().getMethod("decode", new Class[]{byte[].class, byte[].class});
+    final byte[] encodedBytes = new String(encoded).getBytes("ISO-8859-1");
+    final byte[] encodedTarget = new byte[encodedBytes.length];
+
+    time("encode java.util.Base64", new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          for (int i = 0; i < ITERATIONS; i++)
+          {
+            encodeMethod.invoke(jdkEncoder, new Object[]{data, encodedTarget});
+          }
+        }
+        catch (Exception e)
+        {
+          throw new IllegalStateException(e.toString());
+        }
+      }
+    });
+    time("decode java.util.Base64", new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          for (int i = 0; i < ITERATIONS; i++)
+          {
+            decodeMethod.invoke(jdkDecoder, new Object[]{encodedBytes, byteBuffer});
+          }
+        }
+        catch (Exception e)
+        {
+          throw new IllegalStateException(e.toString());
+        }
+      }
+    });
+  }
+}
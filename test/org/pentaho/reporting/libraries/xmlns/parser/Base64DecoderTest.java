@@ -0,0 +1,82 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class Base64DecoderTest extends TestCase
+{
+  public Base64DecoderTest()
+  {
+  }
+
+  public Base64DecoderTest(final String s)
+  {
+    super(s);
+  }
+
+  private static byte[] createData(final int length)
+  {
+    final byte[] data = new byte[length];
+    for (int i = 0; i < length; i++)
+    {
+      data[i] = (byte) (i * 17 + 3);
+    }
+    return data;
+  }
+
+  public void testRoundTrip() throws IOException
+  {
+    for (int length = 0; length < 20; length++)
+    {
+      final byte[] data = createData(length);
+      final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      final Base64Decoder decoder = new Base64Decoder(bout);
+      decoder.write(Base64.encode(data));
+      decoder.close();
+      assertTrue(Arrays.equals(data, bout.toByteArray()));
+      assertEquals(length, decoder.getDecodedLength());
+    }
+  }
+
+  public void testChunksAcrossGroups() throws IOException
+  {
+    final byte[] data = createData(20000);
+    final char[] encoded = new String(Base64.encode(data)).replaceAll("(.{76})", "$1\n ").toCharArray();
+
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final Base64Decoder decoder = new Base64Decoder(bout);
+    int offset = 0;
+    int chunk = 1;
+    while (offset < encoded.length)
+    {
+      final int length = Math.min(chunk, encoded.length - offset);
+      decoder.write(encoded, offset, length);
+      offset += length;
+      chunk = (chunk % 13) + 1;
+    }
+    decoder.close();
+
+    assertTrue(Arrays.equals(data, bout.toByteArray()));
+    assertTrue(Arrays.equals(Base64.decode(encoded), bout.toByteArray()));
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+public class Base64ReadHandlerTest extends TestCase
+{
+  private static class FileTrackingReadHandler extends Base64ReadHandler
+  {
+    private File createdFile;
+
+    private FileTrackingReadHandler()
+    {
+    }
+
+    public void characters(final char[] ch, final int start, final int length) throws SAXException
+    {
+      createdFile = getFile();
+      super.characters(ch, start, length);
+    }
+  }
+
+  private static class DataReadHandler extends AbstractXmlReadHandler
+  {
+    private Base64ReadHandler handler;
+
+    private DataReadHandler(final Base64ReadHandler handler)
+    {
+      this.handler = handler;
+    }
+
+    protected XmlReadHandler getHandlerForChild(final String uri,
+                                                final String tagName,
+                                                final Attributes atts)
+        throws SAXException
+    {
+      if ("data".equals(tagName))
+      {
+        return handler;
+      }
+      return null;
+    }
+
+    public Object getObject() throws SAXException
+    {
+      return handler.getObject();
+    }
+  }
+
+  public Base64ReadHandlerTest()
+  {
+  }
+
+  public Base64ReadHandlerTest(final String s)
+  {
+    super(s);
+  }
+
+  private static RootXmlReadHandler createRootHandler(final Base64ReadHandler handler) throws Exception
+  {
+    final ResourceManager manager = new ResourceManager();
+    manager.registerDefaults();
+    final RootXmlReadHandler root = new RootXmlReadHandler(manager, manager.createKey(new byte[0]), -1);
+    root.setRootHandler(new DataReadHandler(handler));
+    return root;
+  }
+
+  private static void parse(final RootXmlReadHandler root, final String document) throws Exception
+  {
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    final XMLReader reader = factory.newSAXParser().getXMLReader();
+    reader.setContentHandler(root);
+    reader.setErrorHandler(root);
+    reader.parse(new InputSource(new StringReader(document)));
+  }
+
+  private static byte[] createData(final int length)
+  {
+    final byte[] data = new byte[length];
+    for (int i = 0; i < data.length; i++)
+    {
+      data[i] = (byte) (i * 31 + (i >> 8));
+    }
+    return data;
+  }
+
+  /**
+   * Encodes the data with line breaks and character references, so that the parser delivers the content in many
+   * chunks whose boundaries do not line up with the base64 groups.
+   */
+  private static String createDocument(final byte[] data)
+  {
+    final char[] encoded = Base64.encode(data);
+    final StringBuffer document = new StringBuffer("<root><data>");
+    for (int i = 0; i < encoded.length; i++)
+    {
+      if (i % 77 == 0)
+      {
+        document.append("\n  ");
+      }
+      if (i % 1001 == 0)
+      {
+        document.append("&#").append((int) encoded[i]).append(';');
+      }
+      else
+      {
+        document.append(encoded[i]);
+      }
+    }
+    document.append("\n</data></root>");
+    return document.toString();
+  }
+
+  public void testDecodeIntoStream() throws Exception
+  {
+    final byte[] data = createData(100000);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final Base64ReadHandler handler = new Base64ReadHandler(out);
+    final RootXmlReadHandler root = createRootHandler(handler);
+    parse(root, createDocument(data));
+
+    assertSame(out, root.getResult());
+    assertNull(handler.getFile());
+    assertEquals(data.length, handler.getDecodedLength());
+    assertTrue(Arrays.equals(data, out.toByteArray()));
+  }
+
+  public void testDecodeIntoFile() throws Exception
+  {
+    final byte[] data = createData(5000);
+    final Base64ReadHandler handler = new Base64ReadHandler();
+    final RootXmlReadHandler root = createRootHandler(handler);
+    parse(root, createDocument(data));
+
+    final File file = handler.getFile();
+    try
+    {
+      assertSame(file, root.getResult());
+      assertEquals(data.length, file.length());
+      assertEquals(data.length, handler.getDecodedLength());
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  public void testDisposeDeletesIncompleteFile() throws Exception
+  {
+    final FileTrackingReadHandler handler = new FileTrackingReadHandler();
+    final RootXmlReadHandler root = createRootHandler(handler);
+    try
+    {
+      parse(root, "<root><data>QUJD REVG</broken></root>");
+      fail("Parsing a malformed document must fail.");
+    }
+    catch (SAXException se)
+    {
+      // expected
+    }
+
+    assertNotNull(handler.createdFile);
+    assertTrue(handler.createdFile.exists());
+    root.dispose();
+    assertFalse(handler.createdFile.exists());
+    assertNull(handler.getFile());
+  }
+}
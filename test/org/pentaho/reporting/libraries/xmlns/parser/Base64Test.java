@@ -0,0 +1,132 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class Base64Test extends TestCase
+{
+  public Base64Test()
+  {
+  }
+
+  public Base64Test(final String s)
+  {
+    super(s);
+  }
+
+  private static byte[] createData(final int length)
+  {
+    final byte[] data = new byte[length];
+    for (int i = 0; i < length; i++)
+    {
+      data[i] = (byte) (i * 59 + 11);
+    }
+    return data;
+  }
+
+  public void testKnownValues()
+  {
+    assertEquals("", new String(Base64.encode(new byte[0])));
+    assertEquals("Zg==", new String(Base64.encode("f".getBytes())));
+    assertEquals("Zm8=", new String(Base64.encode("fo".getBytes())));
+    assertEquals("Zm9v", new String(Base64.encode("foo".getBytes())));
+    assertEquals("Zm9vYmFy", new String(Base64.encode("foobar".getBytes())));
+    assertEquals("foob", new String(Base64.decode("Zm9vYg==".toCharArray())));
+    assertEquals("foob", new String(Base64.decode(" Zm9v\r\n Yg== \n".toCharArray())));
+    assertEquals("foo", new String(Base64.decode("Z\u20acm9v".toCharArray())));
+  }
+
+  public void testArrayOffsets()
+  {
+    for (int length = 0; length < 20; length++)
+    {
+      final byte[] data = createData(length + 5);
+      final char[] chars = new char[Base64.getEncodedLength(length) + 7];
+      final int encoded = Base64.encode(data, 5, length, chars, 7);
+      assertEquals(Base64.getEncodedLength(length), encoded);
+
+      final byte[] expected = new byte[length];
+      System.arraycopy(data, 5, expected, 0, length);
+      assertEquals(new String(Base64.encode(expected)), new String(chars, 7, encoded));
+
+      final byte[] bytes = new byte[Base64.getMaxDecodedLength(encoded) + 3];
+      final int decoded = Base64.decode(chars, 7, encoded, bytes, 3);
+      assertEquals(length, decoded);
+      final byte[] result = new byte[decoded];
+      System.arraycopy(bytes, 3, result, 0, decoded);
+      assertTrue(Arrays.equals(expected, result));
+    }
+  }
+
+  public void testJunkSplitsGroups()
+  {
+    final byte[] data = createData(3000);
+    final String text = new String(Base64.encode(data));
+    final StringBuffer junk = new StringBuffer();
+    for (int i = 0; i < text.length(); i++)
+    {
+      junk.append(text.charAt(i));
+      if (i % 7 == 3)
+      {
+        junk.append(" \n");
+      }
+    }
+    assertTrue(Arrays.equals(data, Base64.decode(junk.toString().toCharArray())));
+  }
+
+  public void testBuffers()
+  {
+    final byte[] data = createData(10000);
+    final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data);
+    direct.flip();
+
+    final CharBuffer chars = CharBuffer.allocate(Base64.getEncodedLength(data.length));
+    assertEquals(chars.capacity(), Base64.encode(direct, chars));
+    assertFalse(direct.hasRemaining());
+    chars.flip();
+    assertEquals(new String(Base64.encode(data)), chars.toString());
+
+    final String wrapped = chars.toString().replaceAll("(.{60})", "$1\r\n");
+    final ByteBuffer heap = ByteBuffer.allocate(Base64.getMaxDecodedLength(wrapped.length()));
+    assertEquals(data.length, Base64.decode(CharBuffer.wrap(wrapped.toCharArray()), heap));
+
+    final ByteBuffer target = ByteBuffer.allocateDirect(Base64.getMaxDecodedLength(wrapped.length()));
+    assertEquals(data.length, Base64.decode(CharBuffer.wrap(wrapped), target));
+    target.flip();
+    final byte[] result = new byte[target.remaining()];
+    target.get(result);
+    assertTrue(Arrays.equals(data, result));
+
+    try
+    {
+      Base64.encode(ByteBuffer.wrap(data), CharBuffer.allocate(10));
+      fail();
+    }
+    catch (BufferOverflowException e)
+    {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import junit.framework.TestCase;
+import org.xml.sax.helpers.AttributesImpl;
+
+public class NormalizedAttributesTest extends TestCase
+{
+  private static final String NS = "urn:element";
+  private static final String OTHER_NS = "urn:other";
+
+  public NormalizedAttributesTest()
+  {
+  }
+
+  public NormalizedAttributesTest(final String s)
+  {
+    super(s);
+  }
+
+  private static AttributesImpl createAttributes()
+  {
+    final AttributesImpl attrs = new AttributesImpl();
+    attrs.addAttribute("", "plain", "plain", "CDATA", "1");
+    attrs.addAttribute(NS, "explicit", "e:explicit", "CDATA", "2");
+    attrs.addAttribute(OTHER_NS, "foreign", "o:foreign", "ID", "3");
+    attrs.addAttribute("", "", "noNamespace", "CDATA", "4");
+    attrs.addAttribute(OTHER_NS, "plain", "o:plain", "CDATA", "5");
+    return attrs;
+  }
+
+  public void testMatchesFixNamespaceUriAttributes()
+  {
+    final AttributesImpl attrs = createAttributes();
+    final FixNamespaceUriAttributes expected = new FixNamespaceUriAttributes(NS, attrs);
+    final NormalizedAttributes normalized = new NormalizedAttributes();
+    normalized.setAttributes(NS, attrs);
+
+    assertEquals(expected.getLength(), normalized.getLength());
+    for (int i = 0; i < attrs.getLength(); i++)
+    {
+      assertEquals(expected.getURI(i), normalized.getURI(i));
+      assertEquals(expected.getLocalName(i), normalized.getLocalName(i));
+      assertEquals(expected.getQName(i), normalized.getQName(i));
+      assertEquals(expected.getValue(i), normalized.getValue(i));
+      assertEquals(expected.getType(i), normalized.getType(i));
+    }
+
+    final String[][] lookups = {
+        {NS, "plain"}, {NS, "explicit"}, {NS, "noNamespace"}, {NS, "o:foreign"}, {NS, "e:explicit"},
+        {OTHER_NS, "foreign"}, {OTHER_NS, "plain"}, {OTHER_NS, "explicit"}, {NS, "missing"}, {"urn:x", "plain"}
+    };
+    for (int i = 0; i < lookups.length; i++)
+    {
+      final String uri = lookups[i][0];
+      final String name = lookups[i][1];
+      assertEquals(uri + ":" + name, expected.getValue(uri, name), normalized.getValue(uri, name));
+      assertEquals(uri + ":" + name, expected.getType(uri, name), normalized.getType(uri, name));
+      assertEquals(uri + ":" + name, expected.getIndex(uri, name), normalized.getIndex(uri, name));
+    }
+
+    assertEquals("3", normalized.getValue("o:foreign"));
+    assertEquals(1, normalized.getIndex("e:explicit"));
+    assertNull(normalized.getURI(5));
+    assertNull(normalized.getValue(NS, null));
+  }
+
+  public void testEmptyNamespaceLookups()
+  {
+    final AttributesImpl attrs = createAttributes();
+    final String[] defaultNamespaces = {NS, ""};
+    final String[] names = {"plain", "explicit", "e:explicit", "noNamespace", "foreign", "o:plain", "missing"};
+    for (int n = 0; n < defaultNamespaces.length; n++)
+    {
+      final String defaultNS = defaultNamespaces[n];
+      final FixNamespaceUriAttributes expected = new FixNamespaceUriAttributes(defaultNS, attrs);
+      final NormalizedAttributes normalized = new NormalizedAttributes();
+      normalized.setAttributes(defaultNS, attrs);
+      for (int i = 0; i < names.length; i++)
+      {
+        final String message = "[" + defaultNS + "] " + names[i];
+        assertEquals(message, expected.getValue("", names[i]), normalized.getValue("", names[i]));
+        assertEquals(message, expected.getType("", names[i]), normalized.getType("", names[i]));
+        assertEquals(message, expected.getIndex("", names[i]), normalized.getIndex("", names[i]));
+        assertEquals(message, expected.getValue(null, names[i]), normalized.getValue(null, names[i]));
+        assertEquals(message, expected.getType(null, names[i]), normalized.getType(null, names[i]));
+        assertEquals(message, expected.getIndex(null, names[i]), normalized.getIndex(null, names[i]));
+      }
+    }
+
+    final NormalizedAttributes normalized = new NormalizedAttributes();
+    normalized.setAttributes(NS, attrs);
+    assertEquals("1", normalized.getValue("", "plain"));
+    assertNull(normalized.getValue("", "explicit"));
+    assertNull(normalized.getValue(null, "explicit"));
+    assertNull(normalized.getValue(null, "plain"));
+    assertEquals("2", normalized.getValue(NS, "explicit"));
+  }
+
+  public void testExplicitNamespaceTakesPrecedence()
+  {
+    final AttributesImpl attrs = new AttributesImpl();
+    attrs.addAttribute("", "a", "a", "CDATA", "inherited");
+    attrs.addAttribute(NS, "a", "e:a", "CDATA", "explicit");
+
+    final NormalizedAttributes normalized = new NormalizedAttributes();
+    normalized.setAttributes(NS, attrs);
+    assertEquals(new FixNamespaceUriAttributes(NS, attrs).getValue(NS, "a"), normalized.getValue(NS, "a"));
+    assertEquals("explicit", normalized.getValue(NS, "a"));
+  }
+
+  public void testReuse()
+  {
+    final NormalizedAttributes normalized = new NormalizedAttributes();
+    final AttributesImpl large = new AttributesImpl();
+    for (int i = 0; i < 50; i++)
+    {
+      large.addAttribute("", "a" + i, "a" + i, "CDATA", String.valueOf(i));
+    }
+    normalized.setAttributes(NS, large);
+    for (int i = 0; i < 50; i++)
+    {
+      assertEquals(String.valueOf(i), normalized.getValue(NS, "a" + i));
+      assertEquals(String.valueOf(i), normalized.getValue("", "a" + i));
+    }
+
+    normalized.setAttributes(OTHER_NS, createAttributes());
+    assertEquals(5, normalized.getLength());
+    assertNull(normalized.getValue(NS, "a1"));
+    assertNull(normalized.getValue(OTHER_NS, "a1"));
+    assertEquals("5", normalized.getValue(OTHER_NS, "plain"));
+    assertEquals("4", normalized.getValue(OTHER_NS, "noNamespace"));
+    assertEquals(OTHER_NS, normalized.getURI(0));
+
+    normalized.clear();
+    assertEquals(0, normalized.getLength());
+    assertNull(normalized.getQName(0));
+    assertNull(normalized.getType(0));
+    assertNull(normalized.getValue(0));
+    assertNull(normalized.getValue(null, "plain"));
+    assertNull(normalized.getValue("plain"));
+    assertEquals(-1, normalized.getIndex("plain"));
+  }
+}
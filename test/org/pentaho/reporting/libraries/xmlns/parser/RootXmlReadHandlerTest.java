@@ -0,0 +1,270 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+public class RootXmlReadHandlerTest extends TestCase
+{
+  private static class DelegatingReadHandler extends StringReadHandler
+  {
+    private StringReadHandler delegate;
+
+    private DelegatingReadHandler()
+    {
+    }
+
+    protected void startParsing(final Attributes attrs) throws SAXException
+    {
+      super.startParsing(attrs);
+      delegate = new StringReadHandler();
+      getRootHandler().delegate(delegate, getUri(), getTagName(), attrs);
+    }
+
+    public String getResult()
+    {
+      return "[" + delegate.getResult() + "]";
+    }
+  }
+
+  private static class TextCollectingReadHandler extends AbstractXmlReadHandler
+  {
+    private ArrayList handlers;
+    private ArrayList result;
+
+    private TextCollectingReadHandler()
+    {
+      handlers = new ArrayList();
+    }
+
+    protected XmlReadHandler getHandlerForChild(final String uri,
+                                                final String tagName,
+                                                final Attributes atts)
+        throws SAXException
+    {
+      if ("text".equals(tagName))
+      {
+        final StringReadHandler handler = new StringReadHandler();
+        handlers.add(handler);
+        return handler;
+      }
+      if ("delegated".equals(tagName))
+      {
+        final StringReadHandler handler = new DelegatingReadHandler();
+        handlers.add(handler);
+        return handler;
+      }
+      return null;
+    }
+
+    protected void doneParsing() throws SAXException
+    {
+      result = new ArrayList();
+      for (int i = 0; i < handlers.size(); i++)
+      {
+        final StringReadHandler handler = (StringReadHandler) handlers.get(i);
+        result.add(handler.getResult());
+      }
+    }
+
+    public Object getObject() throws SAXException
+    {
+      return result;
+    }
+  }
+
+  /**
+   * Reads nested elements into a string. Elements marked with delegate='true' hand their content to a delegate, all
+   * other child elements are parsed by recursing into a new handler.
+   */
+  private static class NestingReadHandler extends AbstractXmlReadHandler
+  {
+    private boolean delegated;
+    private String id;
+    private NestingReadHandler delegate;
+    private ArrayList children;
+
+    private NestingReadHandler(final boolean delegated)
+    {
+      this.delegated = delegated;
+      this.children = new ArrayList();
+    }
+
+    protected void startParsing(final Attributes attrs) throws SAXException
+    {
+      id = attrs.getValue("id");
+      if (delegated == false && "true".equals(attrs.getValue("delegate")))
+      {
+        delegate = new NestingReadHandler(true);
+        getRootHandler().delegate(delegate, getUri(), getTagName(), attrs);
+      }
+    }
+
+    protected XmlReadHandler getHandlerForChild(final String uri,
+                                                final String tagName,
+                                                final Attributes atts)
+        throws SAXException
+    {
+      if ("nested".equals(tagName))
+      {
+        final NestingReadHandler handler = new NestingReadHandler(false);
+        children.add(handler);
+        return handler;
+      }
+      return null;
+    }
+
+    public Object getObject() throws SAXException
+    {
+      if (delegate != null)
+      {
+        return "d" + delegate.getObject();
+      }
+      final StringBuffer b = new StringBuffer();
+      b.append(id);
+      b.append('[');
+      for (int i = 0; i < children.size(); i++)
+      {
+        if (i > 0)
+        {
+          b.append(',');
+        }
+        b.append(((NestingReadHandler) children.get(i)).getObject());
+      }
+      b.append(']');
+      return b.toString();
+    }
+  }
+
+  public RootXmlReadHandlerTest()
+  {
+  }
+
+  public RootXmlReadHandlerTest(final String s)
+  {
+    super(s);
+  }
+
+  private static Object parse(final String document) throws Exception
+  {
+    return parse(document, new TextCollectingReadHandler());
+  }
+
+  private static Object parse(final String document, final XmlReadHandler rootHandler) throws Exception
+  {
+    final ResourceManager manager = new ResourceManager();
+    manager.registerDefaults();
+    final RootXmlReadHandler root = new RootXmlReadHandler(manager, manager.createKey(new byte[0]), -1);
+    root.setRootHandler(rootHandler);
+
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    final XMLReader reader = factory.newSAXParser().getXMLReader();
+    reader.setContentHandler(root);
+    reader.parse(new InputSource(new StringReader(document)));
+    assertFalse(root.isSkipping());
+    return root.getResult();
+  }
+
+  public void testSkipUnknownElements() throws Exception
+  {
+    final Object result = parse("<root xmlns='urn:test'>" +
+        "<unknown a='1'><text>skipped</text><deep><deeper/>more text</deep></unknown>" +
+        "<text>kept</text>" +
+        "<unknown/>" +
+        "<other xmlns='urn:other'><text>skipped</text></other>" +
+        "<text>second</text>" +
+        "</root>");
+
+    final ArrayList expected = new ArrayList();
+    expected.add("kept");
+    expected.add("second");
+    assertEquals(expected, result);
+  }
+
+  public void testSkipDeepNesting() throws Exception
+  {
+    final StringBuffer document = new StringBuffer("<root><unknown>");
+    for (int i = 0; i < 1000; i++)
+    {
+      document.append("<a>");
+    }
+    for (int i = 0; i < 1000; i++)
+    {
+      document.append("</a>");
+    }
+    document.append("</unknown><text>last</text></root>");
+
+    final ArrayList expected = new ArrayList();
+    expected.add("last");
+    assertEquals(expected, parse(document.toString()));
+  }
+
+  public void testDelegation() throws Exception
+  {
+    final Object result = parse("<root><text>a</text><delegated>b</delegated><unknown/>" +
+        "<delegated>c</delegated><text>d</text></root>");
+
+    final ArrayList expected = new ArrayList();
+    expected.add("a");
+    expected.add("[b]");
+    expected.add("[c]");
+    expected.add("d");
+    assertEquals(expected, result);
+  }
+
+  public void testDeepNesting() throws Exception
+  {
+    // 40 levels exceed the initial size of the handler stack and of the scope stack; every third level delegates.
+    final int depth = 40;
+    final StringBuffer document = new StringBuffer("<nested id='root'>");
+    for (int i = 0; i < depth; i++)
+    {
+      document.append("<nested id='n").append(i).append('\'');
+      if (i % 3 == 0)
+      {
+        document.append(" delegate='true'");
+      }
+      document.append('>');
+    }
+    for (int i = depth - 1; i >= 0; i--)
+    {
+      // a sibling after each nested element is only seen if the stack has been unwound correctly.
+      document.append("</nested><nested id='s").append(i).append("'/>");
+    }
+    document.append("</nested>");
+
+    // the content of each level is its nested child followed by the sibling.
+    String content = "";
+    for (int i = depth - 1; i >= 0; i--)
+    {
+      final String nested = ((i % 3 == 0) ? "d" : "") + "n" + i + "[" + content + "]";
+      content = nested + ",s" + i + "[]";
+    }
+    assertEquals("root[" + content + "]", parse(document.toString(), new NestingReadHandler(false)));
+  }
+}
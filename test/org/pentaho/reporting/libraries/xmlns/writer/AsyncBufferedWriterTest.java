@@ -0,0 +1,161 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+public class AsyncBufferedWriterTest extends TestCase
+{
+  /**
+   * A slow target writer that fails once a given number of characters has been written.
+   */
+  private static class SlowWriter extends Writer
+  {
+    private StringWriter content;
+    private int failAfter;
+    private boolean closed;
+
+    private SlowWriter(final int failAfter)
+    {
+      this.content = new StringWriter();
+      this.failAfter = failAfter;
+    }
+
+    public void write(final char[] cbuf, final int off, final int len) throws IOException
+    {
+      try
+      {
+        Thread.sleep(1);
+      }
+      catch (InterruptedException e)
+      {
+        // ignored
+      }
+      if (content.getBuffer().length() + len > failAfter)
+      {
+        throw new IOException("Disk full");
+      }
+      content.write(cbuf, off, len);
+    }
+
+    public void flush()
+    {
+    }
+
+    public void close()
+    {
+      closed = true;
+    }
+  }
+
+  public AsyncBufferedWriterTest()
+  {
+  }
+
+  public AsyncBufferedWriterTest(final String s)
+  {
+    super(s);
+  }
+
+  public void testContentIsPreserved() throws IOException
+  {
+    final SlowWriter target = new SlowWriter(Integer.MAX_VALUE);
+    final AsyncBufferedWriter writer = new AsyncBufferedWriter(target, 64);
+    final StringBuffer expected = new StringBuffer();
+    for (int i = 0; i < 500; i++)
+    {
+      final String line = "Line " + i + " with some content;";
+      writer.write(line);
+      writer.write('\n');
+      expected.append(line);
+      expected.append('\n');
+      if (i == 250)
+      {
+        writer.flush();
+        assertEquals(expected.toString(), target.content.toString());
+      }
+    }
+    writer.close();
+
+    assertTrue(target.closed);
+    assertEquals(expected.toString(), target.content.toString());
+  }
+
+  public void testErrorsArePropagated() throws IOException
+  {
+    final SlowWriter target = new SlowWriter(100);
+    final AsyncBufferedWriter writer = new AsyncBufferedWriter(target, 64);
+    writer.write(new char[150], 0, 150);
+    try
+    {
+      writer.flush();
+      fail();
+    }
+    catch (IOException ioe)
+    {
+      assertEquals("Disk full", ioe.getMessage());
+    }
+
+    try
+    {
+      writer.close();
+      fail();
+    }
+    catch (IOException ioe)
+    {
+      // expected
+    }
+    assertTrue(target.closed);
+  }
+
+  public void testErrorsAreReported() throws IOException
+  {
+    final StringWriter target = new StringWriter()
+    {
+      public void write(final char[] cbuf, final int off, final int len)
+      {
+        throw new AssertionError("Broken target");
+      }
+    };
+    final AsyncBufferedWriter writer = new AsyncBufferedWriter(target, 16);
+    writer.write(new char[8], 0, 8);
+    try
+    {
+      writer.flush();
+      fail();
+    }
+    catch (IOException ioe)
+    {
+      assertTrue(ioe.getCause() instanceof AssertionError);
+    }
+
+    try
+    {
+      writer.close();
+      fail();
+    }
+    catch (IOException ioe)
+    {
+      assertTrue(ioe.getCause() instanceof AssertionError);
+    }
+  }
+}
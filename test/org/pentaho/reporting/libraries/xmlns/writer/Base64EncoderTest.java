@@ -0,0 +1,122 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+import org.pentaho.reporting.libraries.xmlns.parser.Base64;
+
+public class Base64EncoderTest extends TestCase
+{
+  public Base64EncoderTest()
+  {
+  }
+
+  public Base64EncoderTest(final String s)
+  {
+    super(s);
+  }
+
+  private static byte[] createData(final int length)
+  {
+    final byte[] data = new byte[length];
+    for (int i = 0; i < length; i++)
+    {
+      data[i] = (byte) (i * 31 + 7);
+    }
+    return data;
+  }
+
+  public void testMatchesBlockEncoder() throws IOException
+  {
+    for (int length = 0; length < 20; length++)
+    {
+      final byte[] data = createData(length);
+      final StringWriter writer = new StringWriter();
+      final Base64Encoder encoder = new Base64Encoder(writer);
+      encoder.write(data, 0, data.length);
+      encoder.close();
+      assertEquals(new String(Base64.encode(data)), writer.toString());
+    }
+  }
+
+  public void testChunksAndSingleBytes() throws IOException
+  {
+    final byte[] data = createData(10000);
+    final StringWriter writer = new StringWriter();
+    final Base64Encoder encoder = new Base64Encoder(writer);
+    int offset = 0;
+    int chunk = 1;
+    while (offset < data.length)
+    {
+      final int length = Math.min(chunk, data.length - offset);
+      if (length == 1)
+      {
+        encoder.write(data[offset]);
+      }
+      else
+      {
+        encoder.write(data, offset, length);
+      }
+      offset += length;
+      chunk = (chunk % 7) + 1;
+    }
+    encoder.close();
+    assertEquals(new String(Base64.encode(data)), writer.toString());
+  }
+
+  public void testLineWrapping() throws IOException
+  {
+    final byte[] data = createData(1000);
+    final StringWriter writer = new StringWriter();
+    Base64Encoder.encode(new ByteArrayInputStream(data), writer, 76, "\n");
+
+    final String text = writer.toString();
+    final String[] lines = text.split("\n");
+    for (int i = 0; i < lines.length - 1; i++)
+    {
+      assertEquals(76, lines[i].length());
+    }
+    assertFalse(text.endsWith("\n"));
+    assertEquals(new String(Base64.encode(data)), text.replaceAll("\n", ""));
+    assertEquals(data.length, Base64.decode(text.toCharArray()).length);
+  }
+
+  public void testXmlWriter() throws IOException
+  {
+    final byte[] data = createData(100);
+    final StringWriter out = new StringWriter();
+    final XmlWriter writer = new XmlWriter(out, new DefaultTagDescription(), "", "\n");
+    writer.writeTag(null, "a", false);
+    writer.writeBase64(new ByteArrayInputStream(data), 0);
+    writer.writeCloseTag();
+    writer.writeTag(null, "b", false);
+    final OutputStream stream = writer.createBase64Stream(0);
+    stream.write(data);
+    stream.close();
+    writer.writeCloseTag();
+    writer.close();
+
+    final String encoded = new String(Base64.encode(data));
+    assertEquals("<a>" + encoded + "</a>\n<b>" + encoded + "</b>\n", out.toString());
+  }
+}
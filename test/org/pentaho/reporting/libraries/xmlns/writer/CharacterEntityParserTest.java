@@ -0,0 +1,112 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class CharacterEntityParserTest extends TestCase
+{
+  public CharacterEntityParserTest()
+  {
+  }
+
+  public CharacterEntityParserTest(final String s)
+  {
+    super(s);
+  }
+
+  public void testXmlEntities()
+  {
+    final CharacterEntityParser parser = CharacterEntityParser.createXMLEntityParser();
+    assertEquals("&lt;a href=&quot;x&quot;&gt;&amp;&apos;", parser.encodeEntities("<a href=\"x\">&'"));
+    assertEquals("<a href=\"x\">&'", parser.decodeEntities("&lt;a href=&quot;x&quot;&gt;&amp;&apos;"));
+    assertEquals("&unknown; A", parser.decodeEntities("&unknown; &#65;"));
+  }
+
+  public void testHtmlEntities()
+  {
+    final CharacterEntityParser parser = HtmlCharacterEntities.getEntityParser();
+    assertEquals("&copy; &euro; &spades; plain", parser.encodeEntities("\u00a9 \u20ac \u2660 plain"));
+    assertEquals("\u00a9 \u20ac \u2660 plain", parser.decodeEntities("&copy; &euro; &spades; plain"));
+  }
+
+  public void testIndependentEntitySets()
+  {
+    final HashMap entities = new HashMap();
+    entities.put("sect", "\u00a7");
+    final CharacterEntityParser first = new CharacterEntityParser(entities);
+    entities.put("para", "\u00b6");
+    final CharacterEntityParser second = new CharacterEntityParser(entities);
+
+    assertEquals("&sect;\u00b6", first.encodeEntities("\u00a7\u00b6"));
+    assertEquals("&sect;&para;", second.encodeEntities("\u00a7\u00b6"));
+  }
+
+  public void testCharacterReferences()
+  {
+    final CharacterEntityParser parser = CharacterEntityParser.createXMLEntityParser();
+    assertEquals("AAA", parser.decodeEntities("&#65;&#x41;&#X41;"));
+    assertEquals("\ud834\udd1e", parser.decodeEntities("&#x1D11E;"));
+    assertEquals("\ud834\udd1e", parser.decodeEntities("&#119070;"));
+    assertEquals("&#0;&#x;&#xZZ;&#x110000;", parser.decodeEntities("&#0;&#x;&#xZZ;&#x110000;"));
+    assertEquals("a & b; <", parser.decodeEntities("a & b; &lt;"));
+    assertEquals("&&<", parser.decodeEntities("&&&lt;"));
+    assertEquals("&lt", parser.decodeEntities("&lt"));
+  }
+
+  public void testStreaming() throws IOException
+  {
+    final CharacterEntityParser parser = CharacterEntityParser.createXMLEntityParser();
+    final char[] text = "xx<a&amp;b>xx".toCharArray();
+
+    final StringWriter writer = new StringWriter();
+    parser.encodeEntities(text, 2, 9, writer);
+    assertEquals("&lt;a&amp;amp;b&gt;", writer.toString());
+
+    final StringBuilder builder = new StringBuilder();
+    parser.decodeEntities(text, 2, 9, builder);
+    assertEquals("<a&b>", builder.toString());
+
+    final StringBuffer buffer = new StringBuffer();
+    parser.decodeEntities(new StringBuffer("&quot;&#x263A;&quot;"), buffer);
+    assertEquals("\"\u263a\"", buffer.toString());
+  }
+
+  public void testHtmlEntityTable()
+  {
+    final CharacterEntityParser parser = HtmlCharacterEntities.getEntityParser();
+    assertSame(parser, HtmlCharacterEntities.getEntityParser());
+
+    final HtmlCharacterEntities entities = new HtmlCharacterEntities();
+    assertEquals(251, entities.size());
+    final Iterator it = entities.entrySet().iterator();
+    while (it.hasNext())
+    {
+      final Map.Entry entry = (Map.Entry) it.next();
+      final String entity = "&" + entry.getKey() + ";";
+      assertEquals(entry.getValue(), parser.decodeEntities(entity));
+      assertEquals(entity, parser.encodeEntities((String) entry.getValue()));
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.pentaho.reporting.libraries.xmlns.common.AttributeList;
+
+public class DeclaredNamespacesTest extends TestCase
+{
+  public DeclaredNamespacesTest()
+  {
+  }
+
+  public DeclaredNamespacesTest(final String s)
+  {
+    super(s);
+  }
+
+  public void testScopesDoNotAffectParents()
+  {
+    final DeclaredNamespaces root = new DeclaredNamespaces().add("urn:a", "a");
+    final DeclaredNamespaces child = root.add("urn:b", "b");
+
+    assertEquals("a", child.getPrefix("urn:a"));
+    assertEquals("b", child.getPrefix("urn:b"));
+    assertNull(root.getPrefix("urn:b"));
+    assertFalse(root.isNamespaceDefined("urn:b"));
+    assertEquals(1, root.getNamespaces().size());
+    assertEquals(2, child.getNamespaces().size());
+  }
+
+  public void testShadowing()
+  {
+    final DeclaredNamespaces root = new DeclaredNamespaces().add("urn:a", "a");
+    final DeclaredNamespaces child = root.add("urn:a", "x");
+
+    assertEquals("x", child.getPrefix("urn:a"));
+    assertTrue(child.isPrefixDefined("x"));
+    assertFalse(child.isPrefixDefined("a"));
+    assertTrue(root.isPrefixDefined("a"));
+  }
+
+  public void testAttributeDeclarations()
+  {
+    final DeclaredNamespaces root = new DeclaredNamespaces();
+    final AttributeList attrs = new AttributeList();
+    attrs.setAttribute(null, "plain", "value");
+    assertSame(root, root.add(attrs));
+
+    attrs.addNamespaceDeclaration("p", "urn:p");
+    final DeclaredNamespaces child = root.add(attrs);
+    assertEquals("p", child.getPrefix("urn:p"));
+  }
+
+  public void testSharedPrefix()
+  {
+    final HashMap map = new HashMap();
+    map.put("urn:a", "p");
+    map.put("urn:b", "p");
+    final DeclaredNamespaces root = new DeclaredNamespaces().add(map);
+    final DeclaredNamespaces child = root.add("urn:a", "q");
+    assertTrue(child.isPrefixDefined("p"));
+    assertTrue(child.isPrefixDefined("q"));
+
+    final DeclaredNamespaces grandChild = child.add("urn:b", "r");
+    assertFalse(grandChild.isPrefixDefined("p"));
+  }
+
+  public void testImpliedPrefixes()
+  {
+    final XmlWriterSupport support = new XmlWriterSupport();
+    assertTrue(support.isNamespacePrefixDefined("xml"));
+    support.addImpliedNamespace("urn:a", "a");
+    support.addImpliedNamespace("urn:b", "a");
+    support.addImpliedNamespace("urn:a", null);
+    assertTrue(support.isNamespacePrefixDefined("a"));
+    support.addImpliedNamespace("urn:b", "b");
+    assertFalse(support.isNamespacePrefixDefined("a"));
+    assertTrue(support.isNamespacePrefixDefined("b"));
+    assertEquals("b", support.getDeclaredNamespaces().getPrefix("urn:b"));
+    assertSame(support.getDeclaredNamespaces(), support.getDeclaredNamespaces());
+  }
+
+  public void testDeepChains()
+  {
+    DeclaredNamespaces ns = new DeclaredNamespaces();
+    for (int i = 0; i < 100; i++)
+    {
+      ns = ns.add("urn:" + i, "p" + i);
+    }
+    final Map map = ns.getNamespaces();
+    assertEquals(100, map.size());
+    for (int i = 0; i < 100; i++)
+    {
+      assertEquals("p" + i, ns.getPrefix("urn:" + i));
+      assertTrue(ns.isPrefixDefined("p" + i));
+    }
+    assertSame(map, ns.getNamespaces());
+  }
+
+  public void testCollapsedSiblings()
+  {
+    DeclaredNamespaces ns = new DeclaredNamespaces();
+    for (int i = 0; i < 8; i++)
+    {
+      ns = ns.add("urn:" + i, "p" + i);
+    }
+    ns = ns.add("urn:0", "redeclared");
+
+    final DeclaredNamespaces first = ns.add("urn:first", "f");
+    final DeclaredNamespaces second = ns.add("urn:second", "s");
+    assertEquals("redeclared", first.getPrefix("urn:0"));
+    assertEquals("redeclared", second.getPrefix("urn:0"));
+    assertEquals("f", first.getPrefix("urn:first"));
+    assertNull(second.getPrefix("urn:first"));
+    assertEquals("s", second.getPrefix("urn:second"));
+    assertFalse(first.isPrefixDefined("p0"));
+    assertEquals(9, first.getNamespaces().size());
+    assertEquals(8, ns.getNamespaces().size());
+  }
+}
@@ -41,4 +41,73 @@ public class DefaultTagDescriptionTest extends TestCase
     final DefaultTagDescription dt = new DefaultTagDescription(new DefaultConfiguration(), "silly-prefix");
     assertFalse(dt.hasCData("basas", "adsda"));
   }
+
+  public void testCompiledMatchesDefault()
+  {
+    final DefaultTagDescription empty = new DefaultTagDescription();
+    empty.addTagDefinition("urn:a", "inline", false);
+    assertCompiledMatches(empty);
+
+    final DefaultConfiguration conf = new DefaultConfiguration();
+    conf.setConfigProperty("p.namespace.a", "urn:a");
+    conf.setConfigProperty("p.namespace.b", "urn:b");
+    conf.setConfigProperty("p.namespace", "a");
+    conf.setConfigProperty("p.default", "allow");
+    conf.setConfigProperty("p.default.b", "deny");
+    conf.setConfigProperty("p.tag.a.block", "deny");
+    conf.setConfigProperty("p.tag.b.text", "allow");
+    conf.setConfigProperty("p.tag.plain", "deny");
+    final DefaultTagDescription configured = new DefaultTagDescription(conf, "p.");
+    assertCompiledMatches(configured);
+  }
+
+  private void assertCompiledMatches(final DefaultTagDescription description)
+  {
+    final TagDescription compiled = description.compile();
+    final String[] namespaces = {null, "urn:a", "urn:b", "urn:unknown"};
+    final String[] tags = {"inline", "block", "text", "plain", "other"};
+    for (int i = 0; i < namespaces.length; i++)
+    {
+      for (int j = 0; j < tags.length; j++)
+      {
+        assertEquals(namespaces[i] + ":" + tags[j],
+            description.hasCData(namespaces[i], tags[j]), compiled.hasCData(namespaces[i], tags[j]));
+      }
+    }
+  }
+
+  public void testConcurrentLookups() throws Exception
+  {
+    final DefaultTagDescription description = new DefaultTagDescription();
+    description.addDefaultDefinition(null, false);
+    description.addTagDefinition("urn:a", "text", true);
+
+    final Thread[] threads = new Thread[4];
+    final boolean[] failed = new boolean[threads.length];
+    for (int i = 0; i < threads.length; i++)
+    {
+      final int thread = i;
+      threads[i] = new Thread()
+      {
+        public void run()
+        {
+          for (int n = 0; n < 200000; n++)
+          {
+            if (description.hasCData("urn:a", "text") == false ||
+                description.hasCData("urn:a", "block"))
+            {
+              failed[thread] = true;
+              return;
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i].join();
+      assertFalse(failed[i]);
+    }
+  }
 }
@@ -0,0 +1,145 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.TestCase;
+
+public class DeflatingStreamWriterTest extends TestCase
+{
+  public DeflatingStreamWriterTest()
+  {
+  }
+
+  public DeflatingStreamWriterTest(final String s)
+  {
+    super(s);
+  }
+
+  private static String read(final InputStream in) throws IOException
+  {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[1024];
+    int count;
+    while ((count = in.read(buffer)) > 0)
+    {
+      bout.write(buffer, 0, count);
+    }
+    return new String(bout.toByteArray(), "UTF-8");
+  }
+
+  private static String createText()
+  {
+    final StringBuffer b = new StringBuffer();
+    for (int i = 0; i < 2000; i++)
+    {
+      b.append("Row ").append(i).append(" \u00e4\u20ac;");
+    }
+    return b.toString();
+  }
+
+  public void testGzipRoundTrip() throws IOException
+  {
+    final String text = createText();
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final DeflatingStreamWriter writer = new DeflatingStreamWriter(bout, Deflater.BEST_SPEED, 64, true);
+    writer.write(text.substring(0, 1000));
+    writer.flush();
+    writer.write(text.substring(1000));
+    writer.close();
+
+    assertEquals(text, read(new GZIPInputStream(new ByteArrayInputStream(bout.toByteArray()))));
+  }
+
+  public void testFlushKeepsCompression() throws IOException
+  {
+    final String text = createText();
+    final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    final DeflatingStreamWriter plainWriter = new DeflatingStreamWriter(plain);
+    plainWriter.write(text);
+    plainWriter.close();
+
+    final ByteArrayOutputStream flushed = new ByteArrayOutputStream();
+    final DeflatingStreamWriter flushedWriter = new DeflatingStreamWriter(flushed);
+    for (int i = 0; i < text.length(); i += 50)
+    {
+      flushedWriter.write(text.substring(i, Math.min(text.length(), i + 50)));
+      flushedWriter.flush();
+    }
+    flushedWriter.close();
+
+    assertEquals(text, read(new GZIPInputStream(new ByteArrayInputStream(flushed.toByteArray()))));
+    assertEquals(plain.size(), flushed.size());
+  }
+
+  public void testGzipSyncPoint() throws IOException
+  {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final DeflatingStreamWriter writer = new DeflatingStreamWriter(bout);
+    writer.write("first");
+    writer.syncPoint();
+    assertEquals("first", read(new GZIPInputStream(new ByteArrayInputStream(bout.toByteArray()))));
+
+    writer.write(" second");
+    writer.close();
+    assertEquals("first second", read(new GZIPInputStream(new ByteArrayInputStream(bout.toByteArray()))));
+  }
+
+  public void testZlibRoundTrip() throws IOException
+  {
+    final String text = createText();
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final DeflatingStreamWriter writer = new DeflatingStreamWriter(bout, 9, 1024, false);
+    writer.write(text);
+    writer.close();
+
+    assertEquals(text, read(new InflaterInputStream(new ByteArrayInputStream(bout.toByteArray()))));
+  }
+
+  public void testEmptyGzip() throws IOException
+  {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    new DeflatingStreamWriter(bout).close();
+    assertEquals("", read(new GZIPInputStream(new ByteArrayInputStream(bout.toByteArray()))));
+  }
+
+  public void testSyncPoints() throws IOException
+  {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final XmlWriter writer = new XmlWriter(new DeflatingStreamWriter(bout), new DefaultTagDescription(), "", "\n");
+    writer.setSyncPointDepth(1);
+    writer.writeTag(null, "root", XmlWriterSupport.OPEN);
+    writer.writeTag(null, "row", "id", "1", XmlWriterSupport.CLOSE);
+
+    final String partial = read(new GZIPInputStream(new ByteArrayInputStream(bout.toByteArray())));
+    assertEquals("<root><row id=\"1\"/>", partial);
+
+    writer.writeTag(null, "row", "id", "2", XmlWriterSupport.CLOSE);
+    writer.writeCloseTag();
+    writer.close();
+    assertEquals("<root><row id=\"1\"/><row id=\"2\"/></root>\n",
+        read(new GZIPInputStream(new ByteArrayInputStream(bout.toByteArray()))));
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import junit.framework.TestCase;
+
+public class Utf8StreamWriterTest extends TestCase
+{
+  private static final String TEXT =
+      "Plain ASCII text, \u00e4\u00f6\u00fc \u00df, \u20ac 5, \ud834\udd1e clef and more plain text.";
+
+  public Utf8StreamWriterTest()
+  {
+  }
+
+  public Utf8StreamWriterTest(final String s)
+  {
+    super(s);
+  }
+
+  public void testEncodingMatchesJdk() throws IOException
+  {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final Utf8StreamWriter writer = new Utf8StreamWriter(bout, 16);
+    for (int i = 0; i < 20; i++)
+    {
+      writer.write(TEXT);
+      writer.write(TEXT.toCharArray(), 3, TEXT.length() - 3);
+      writer.write('\u00e9');
+    }
+    writer.close();
+
+    final StringBuffer expected = new StringBuffer();
+    for (int i = 0; i < 20; i++)
+    {
+      expected.append(TEXT);
+      expected.append(TEXT.substring(3));
+      expected.append('\u00e9');
+    }
+    assertEquals(expected.toString(), new String(bout.toByteArray(), "UTF-8"));
+  }
+
+  public void testSplitSurrogatePair() throws IOException
+  {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final Utf8StreamWriter writer = new Utf8StreamWriter(Channels.newChannel(bout), 16);
+    writer.write("abc\ud834");
+    writer.write("\udd1edef");
+    writer.write("\udd1e");
+    writer.close();
+
+    assertEquals("abc\ud834\udd1edef?", new String(bout.toByteArray(), "UTF-8"));
+  }
+
+  public void testXmlWriterOnStream() throws IOException
+  {
+    final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    final XmlWriter writer = new XmlWriter(bout, new DefaultTagDescription(), "", "\n");
+    writer.writeTag(null, "root", "attr", "\u00e4&", XmlWriterSupport.CLOSE);
+    writer.close();
+
+    assertEquals("<root attr=\"\u00e4&amp;\"/>\n", new String(bout.toByteArray(), "UTF-8"));
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+import org.pentaho.reporting.libraries.xmlns.common.AttributeList;
+
+public class XmlFragmentWriterTest extends TestCase
+{
+  private static final int SECTIONS = 4;
+
+  public XmlFragmentWriterTest()
+  {
+  }
+
+  public XmlFragmentWriterTest(final String s)
+  {
+    super(s);
+  }
+
+  /**
+   * A subclass is not compiled for fragment writers, so all threads share this instance.
+   */
+  private static class YieldingTagDescription extends DefaultTagDescription
+  {
+    private YieldingTagDescription()
+    {
+    }
+
+    public boolean hasCData(final String namespace, final String tagname)
+    {
+      Thread.yield();
+      return super.hasCData(namespace, tagname);
+    }
+  }
+
+  private static DefaultTagDescription createTagDescription()
+  {
+    return configure(new DefaultTagDescription());
+  }
+
+  private static DefaultTagDescription configure(final DefaultTagDescription tagDescription)
+  {
+    tagDescription.addDefaultDefinition(null, false);
+    tagDescription.addTagDefinition("urn:report", "text", true);
+    return tagDescription;
+  }
+
+  private static void writeHeader(final XmlWriter writer) throws IOException
+  {
+    final AttributeList attrs = new AttributeList();
+    attrs.addNamespaceDeclaration("r", "urn:report");
+    writer.writeTag("urn:report", "report", attrs, XmlWriterSupport.OPEN);
+    writer.writeTag("urn:report", "body", XmlWriterSupport.OPEN);
+  }
+
+  private static void writeSection(final XmlWriter writer, final int section, final int lines) throws IOException
+  {
+    writer.writeTag("urn:report", "section", "id", String.valueOf(section), XmlWriterSupport.OPEN);
+    for (int i = 0; i < lines; i++)
+    {
+      writer.writeTag("urn:report", "row", XmlWriterSupport.OPEN);
+      writer.writeTag("urn:report", "text", XmlWriterSupport.OPEN);
+      writer.writeTextNormalized("Line " + i + " of <" + section + ">", false);
+      writer.writeCloseTag();
+      writer.writeCloseTag();
+    }
+    writer.writeCloseTag();
+  }
+
+  private static void writeFooter(final XmlWriter writer) throws IOException
+  {
+    writer.writeCloseTag();
+    writer.writeCloseTag();
+  }
+
+  public void testFragmentsMatchSequentialOutput() throws Exception
+  {
+    assertFragmentsMatchSequentialOutput(createTagDescription(), 3);
+  }
+
+  public void testFragmentsShareTagDescriptionSubclass() throws Exception
+  {
+    assertFragmentsMatchSequentialOutput(configure(new YieldingTagDescription()), 2000);
+  }
+
+  private void assertFragmentsMatchSequentialOutput(final TagDescription tagDescription,
+                                                    final int lines) throws Exception
+  {
+    final StringWriter expected = new StringWriter();
+    final XmlWriter sequential = new XmlWriter(expected, createTagDescription(), "  ", "\n");
+    writeHeader(sequential);
+    for (int i = 0; i < SECTIONS; i++)
+    {
+      writeSection(sequential, i, lines);
+    }
+    writeFooter(sequential);
+    sequential.close();
+
+    final StringWriter actual = new StringWriter();
+    final XmlWriter parallel = new XmlWriter(actual, tagDescription, "  ", "\n");
+    writeHeader(parallel);
+
+    final XmlFragmentWriter[] fragments = new XmlFragmentWriter[SECTIONS];
+    final Thread[] threads = new Thread[SECTIONS];
+    final Exception[] errors = new Exception[SECTIONS];
+    for (int i = 0; i < SECTIONS; i++)
+    {
+      fragments[i] = parallel.createFragmentWriter();
+      final int section = i;
+      threads[i] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            writeSection(fragments[section], section, lines);
+          }
+          catch (Exception e)
+          {
+            errors[section] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (int i = 0; i < SECTIONS; i++)
+    {
+      threads[i].join();
+      if (errors[i] != null)
+      {
+        throw errors[i];
+      }
+      parallel.writeFragment(fragments[i]);
+    }
+    writeFooter(parallel);
+    parallel.close();
+
+    assertEquals(expected.toString(), actual.toString());
+  }
+
+  public void testFragmentCannotCloseParentTags() throws IOException
+  {
+    final XmlWriter writer = new XmlWriter(new StringWriter());
+    writer.writeTag(null, "root", XmlWriterSupport.OPEN);
+    final XmlFragmentWriter fragment = writer.createFragmentWriter();
+    fragment.writeTag(null, "child", XmlWriterSupport.OPEN);
+    try
+    {
+      writer.writeFragment(fragment);
+      fail();
+    }
+    catch (IllegalStateException ise)
+    {
+      // expected
+    }
+    fragment.writeCloseTag();
+    try
+    {
+      fragment.writeCloseTag();
+      fail();
+    }
+    catch (IllegalStateException ise)
+    {
+      // expected
+    }
+    writer.writeFragment(fragment);
+  }
+
+  public void testFragmentsSeeTagDescriptionChanges() throws IOException
+  {
+    final AttributeList attrs = new AttributeList();
+    attrs.addNamespaceDeclaration("", "urn:report");
+
+    final DefaultTagDescription sequentialDescription = new DefaultTagDescription();
+    sequentialDescription.addDefaultDefinition(null, false);
+    final StringWriter expected = new StringWriter();
+    final XmlWriter sequential = new XmlWriter(expected, sequentialDescription, "  ", "\n");
+    sequential.writeTag("urn:report", "root", attrs, XmlWriterSupport.OPEN);
+    sequential.writeTag("urn:report", "text", XmlWriterSupport.OPEN);
+    sequential.writeTextNormalized("a", false);
+    sequential.writeCloseTag();
+    sequentialDescription.addTagDefinition("urn:report", "text", true);
+    sequential.writeTag("urn:report", "text", XmlWriterSupport.OPEN);
+    sequential.writeTextNormalized("b", false);
+    sequential.writeCloseTag();
+    sequential.writeCloseTag();
+    sequential.close();
+
+    final DefaultTagDescription parallelDescription = new DefaultTagDescription();
+    parallelDescription.addDefaultDefinition(null, false);
+    final StringWriter actual = new StringWriter();
+    final XmlWriter parallel = new XmlWriter(actual, parallelDescription, "  ", "\n");
+    parallel.writeTag("urn:report", "root", attrs, XmlWriterSupport.OPEN);
+    final XmlFragmentWriter first = parallel.createFragmentWriter();
+    first.writeTag("urn:report", "text", XmlWriterSupport.OPEN);
+    first.writeTextNormalized("a", false);
+    first.writeCloseTag();
+    parallel.writeFragment(first);
+    parallelDescription.addTagDefinition("urn:report", "text", true);
+    final XmlFragmentWriter second = parallel.createFragmentWriter();
+    second.writeTag("urn:report", "text", XmlWriterSupport.OPEN);
+    second.writeTextNormalized("b", false);
+    second.writeCloseTag();
+    parallel.writeFragment(second);
+    parallel.writeCloseTag();
+    parallel.close();
+
+    assertEquals(expected.toString(), actual.toString());
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2006 - 2009 Object Refinery Ltd, Pentaho Corporation and Contributors.  All rights reserved.
+ */
+
+package org.pentaho.reporting.libraries.xmlns.writer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A simple benchmark comparing the switch-based escaping used by earlier versions of the XmlWriterSupport
+ * with the table-driven XmlTextNormalizer. Run it from the command line; it is not part of the test-suite.
+ *
+ * @author Thomas Morgner
+ */
+public class XmlTextNormalizerBenchmark
+{
+  private static final int ROUNDS = 5;
+  private static final int ITERATIONS = 200000;
+
+  /**
+   * A writer that discards everything, so that only the escaping itself is measured.
+   */
+  private static class NullWriter extends Writer
+  {
+    private long count;
+
+    public void write(final int c)
+    {
+      count += 1;
+    }
+
+    public void write(final String str, final int off, final int len)
+    {
+      count += len;
+    }
+
+    public void write(final char[] cbuf, final int off, final int len)
+    {
+      count += len;
+    }
+
+    public void flush()
+    {
+    }
+
+    public void close()
+    {
+    }
+  }
+
+  private XmlTextNormalizerBenchmark()
+  {
+  }
+
+  /**
+   * The escaping algorithm as it was implemented in XmlWriterSupport#writeTextNormalized before the
+   * XmlTextNormalizer existed.
+   */
+  private static void writeLegacy(final Writer writer,
+                                  final String s,
+                                  final boolean transformNewLine) throws IOException
+  {
+    final char[] data = s.toCharArray();
+    final int len = data.length;
+    int startIdx = 0;
+    int length = 0;
+    for (int i = 0; i < len; i++)
+    {
+      final char ch = data[i];
+
+      switch (ch)
+      {
+        case '<':
+        {
+          if (length != 0)
+          {
+            writer.write(data, startIdx, length);
+            length = 0;
+          }
+          writer.write("&lt;");
+          startIdx = i + 1;
+          continue;
+        }
+        case '>':
+        {
+          if (length != 0)
+          {
+            writer.write(data, startIdx, length);
+            length = 0;
+          }
+          writer.write("&gt;");
+          startIdx = i + 1;
+          continue;
+        }
+        case '&':
+        {
+          if (length != 0)
+          {
+            writer.write(data, startIdx, length);
+            length = 0;
+          }
+          writer.write("&amp;");
+          startIdx = i + 1;
+          continue;
+        }
+        case '"':
+        {
+          if (length != 0)
+          {
+            writer.write(data, startIdx, length);
+            length = 0;
+          }
+          writer.write("&quot;");
+          startIdx = i + 1;
+          continue;
+        }
+        case '\n':
+        {
+          if (transformNewLine)
+          {
+            if (length != 0)
+            {
+              writer.write(data, startIdx, length);
+              length = 0;
+            }
+            writer.write("&#x000a;");
+            startIdx = i + 1;
+            continue;
+          }
+          break;
+        }
+        case '\r':
+        {
+          if (transformNewLine)
+          {
+            if (length != 0)
+            {
+              writer.write(data, startIdx, length);
+              length = 0;
+            }
+            writer.write("&#x000d;");
+            startIdx = i + 1;
+            continue;
+          }
+          break;
+        }
+        case 0x09: // tab
+        {
+          break;
+        }
+        default:
+        {
+          if (ch >= 0x20)
+          {
+            // anything above the control-character range is ok.
+            break;
+          }
+          // skip ..
+          if (length != 0)
+          {
+            writer.write(data, startIdx, length);
+            length = 0;
+          }
+          startIdx = i + 1;
+          continue;
+        }
+      }
+      length += 1;
+    }
+
+    if (length != 0)
+    {
+      writer.write(data, startIdx, length);
+    }
+  }
+
+  private static long runLegacy(final Writer writer, final String[] inputs) throws IOException
+  {
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++)
+    {
+      writeLegacy(writer, inputs[i % inputs.length], true);
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long runNormalizer(final Writer writer,
+                                    final String[] inputs,
+                                    final boolean attribute) throws IOException
+  {
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++)
+    {
+      XmlTextNormalizer.write(writer, inputs[i % inputs.length], attribute, true);
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static void run(final String name, final String[] inputs) throws IOException
+  {
+    final NullWriter writer = new NullWriter();
+    long legacy = Long.MAX_VALUE;
+    long attribute = Long.MAX_VALUE;
+    long text = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++)
+    {
+      legacy = Math.min(legacy, runLegacy(writer, inputs));
+      attribute = Math.min(attribute, runNormalizer(writer, inputs, true));
+      text = Math.min(text, runNormalizer(writer, inputs, false));
+    }
+    System.out.println(name + ": legacy=" + (legacy / 1000000) + "ms, attribute-policy=" +
+        (attribute / 1000000) + "ms, text-policy=" + (text / 1000000) + "ms");
+  }
+
+  public static void main(final String[] args) throws IOException
+  {
+    final String[] clean = {
+        "Some text to make me happy",
+        "report-header",
+        "http://reporting.pentaho.org/namespaces/engine/attributes/core",
+        "A somewhat longer paragraph of plain text that does not contain any markup at all, " +
+            "which is the most common case for attribute values and element content."
+    };
+    final String[] dirty = {
+        "Some <text> &to; make me happy",
+        "a < b && c > d",
+        "\"quoted\" value with\na line break",
+        "A somewhat longer paragraph of text that contains a single & somewhere in the middle of it."
+    };
+
+    run("clean", clean);
+    run("dirty", dirty);
+  }
+}
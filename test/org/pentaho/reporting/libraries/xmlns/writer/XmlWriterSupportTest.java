@@ -19,8 +19,10 @@ package org.pentaho.reporting.libraries.xmlns.writer;
 
 import java.io.StringWriter;
 import java.io.IOException;
+import java.io.Writer;
 
 import junit.framework.TestCase;
+import org.pentaho.reporting.libraries.xmlns.common.AttributeList;
 
 /**
  * Todo: Document Me
@@ -64,4 +66,351 @@ public class XmlWriterSupportTest extends TestCase
     assertEquals(writer5.toString(), "Some &#x000a;&gt;text to &lt;&#x000d;make me happy");
     assertEquals(writer6.toString(), "Some \\d&gt;text to \\windows\\path &lt;&#x000d;make me happy");
   }
+
+  public void testMinimalTextEscaping() throws IOException
+  {
+    final XmlWriterSupport support = new XmlWriterSupport(new DefaultTagDescription(), "");
+    support.setMinimalTextEscaping(true);
+
+    final StringWriter writer1 = new StringWriter();
+    final StringWriter writer2 = new StringWriter();
+    support.writeTextNormalized(writer1, "a > \"b\" ]]> & <c>\u0001", false);
+    support.writeTextNormalized(writer2, ">a]]>", false);
+
+    assertEquals("a > \"b\" ]]&gt; &amp; &lt;c>", writer1.toString());
+    assertEquals("&gt;a]]&gt;", writer2.toString());
+  }
+
+  public void testMinimalTextEscapingRemovedCharacters() throws IOException
+  {
+    final XmlWriterSupport support = new XmlWriterSupport(new DefaultTagDescription(), "");
+    support.setMinimalTextEscaping(true);
+
+    final StringWriter writer1 = new StringWriter();
+    final StringWriter writer2 = new StringWriter();
+    final StringWriter writer3 = new StringWriter();
+    support.writeTextNormalized(writer1, "a]]\u0001>b", false);
+    support.writeTextNormalized(writer2, "a]\u0001]>b", false);
+    final char[] chars = "xa]]\u0001\u0002>bx".toCharArray();
+    support.writeTextNormalized(writer3, chars, 1, chars.length - 2, false);
+
+    assertEquals("a]]&gt;b", writer1.toString());
+    assertEquals("a]]&gt;b", writer2.toString());
+    assertEquals("a]]&gt;b", writer3.toString());
+    assertEquals("a]]&gt;b", XmlTextNormalizer.normalize("a]]\u0001>b", false, false, null));
+  }
+
+  public void testAttributeValuesUseTextNormalization() throws IOException
+  {
+    final XmlWriterSupport support = new XmlWriterSupport(new DefaultTagDescription(), "")
+    {
+      public void writeTextNormalized(final Writer writer,
+                                      final String s,
+                                      final boolean transformNewLine) throws IOException
+      {
+        writer.write("[" + s + "]");
+      }
+    };
+
+    final StringWriter writer = new StringWriter();
+    final AttributeList attrs = new AttributeList();
+    attrs.setAttribute(null, "a", "x");
+    support.writeTag(writer, null, "root", attrs, XmlWriterSupport.OPEN);
+    support.startElement(writer, null, "child");
+    support.writeAttribute(writer, null, "b", "y");
+    support.endStartTag(writer, XmlWriterSupport.CLOSE);
+    assertEquals("<root a=\"[x]\"><child b=\"[y]\"/>", writer.toString());
+
+    // minimal text escaping never applies to attribute values.
+    final XmlWriterSupport minimal = new XmlWriterSupport(new DefaultTagDescription(), "");
+    minimal.setMinimalTextEscaping(true);
+    final StringWriter minimalWriter = new StringWriter();
+    minimal.writeTag(minimalWriter, null, "root", "a", "\"1 > 0\"", XmlWriterSupport.CLOSE);
+    assertTrue(minimalWriter.toString().startsWith("<root a=\"&quot;1 &gt; 0&quot;\""));
+  }
+
+  public void testNormalize()
+  {
+    final String clean = "Some text to make me happy";
+    assertSame(clean, XmlWriterSupport.normalize(clean, true));
+    assertEquals("&lt;a b=&quot;c&quot;&gt;&#x000a;", XmlWriterSupport.normalize("<a b=\"c\">\n\u0002", true));
+    assertEquals("\t&amp;\n", new XmlWriterSupport().normalizeLocal("\t&\n", false));
+  }
+
+  public void testCharSequenceText() throws IOException
+  {
+    final StringBuffer longText = new StringBuffer();
+    for (int i = 0; i < 100; i++)
+    {
+      longText.append("a<b&c>d ");
+    }
+    final String expected = XmlWriterSupport.normalize(longText.toString(), false);
+
+    final StringWriter writer1 = new StringWriter();
+    final StringWriter writer2 = new StringWriter();
+    final StringWriter writer3 = new StringWriter();
+    final XmlWriterSupport support = new XmlWriterSupport(new DefaultTagDescription(), "");
+    support.writeTextNormalized(writer1, longText, false);
+    support.writeTextNormalized(writer2, new StringBuilder(longText.toString()), false);
+    final char[] chars = ("xx" + longText + "xx").toCharArray();
+    support.writeTextNormalized(writer3, chars, 2, longText.length(), false);
+
+    assertEquals(expected, writer1.toString());
+    assertEquals(expected, writer2.toString());
+    assertEquals(expected, writer3.toString());
+  }
+
+  public void testStreamingStartTag() throws IOException
+  {
+    final StringWriter expected = new StringWriter();
+    final XmlWriter listWriter = new XmlWriter(expected, new DefaultTagDescription(), "  ", "\n");
+    final AttributeList attrs = new AttributeList();
+    attrs.addNamespaceDeclaration("p", "urn:p");
+    attrs.addNamespaceDeclaration("", "urn:default");
+    attrs.setAttribute("urn:p", "a", "1 < 2");
+    attrs.setAttribute("urn:default", "b", "\"x\"");
+    listWriter.writeTag("urn:default", "root", attrs, XmlWriterSupport.OPEN);
+    listWriter.writeTag("urn:p", "child", "c", "d", XmlWriterSupport.CLOSE);
+    listWriter.writeCloseTag();
+    listWriter.close();
+
+    final StringWriter actual = new StringWriter();
+    final XmlWriter streamWriter = new XmlWriter(actual, new DefaultTagDescription(), "  ", "\n");
+    streamWriter.startElement("urn:default", "root");
+    streamWriter.attribute(AttributeList.XMLNS_NAMESPACE, "p", "urn:p");
+    streamWriter.attribute(AttributeList.XMLNS_NAMESPACE, "", "urn:default");
+    streamWriter.attribute("urn:p", "a", new StringBuffer("1 < 2"));
+    streamWriter.attribute("urn:default", "b", "\"x\"");
+    streamWriter.attribute(null, "ignored", null);
+    streamWriter.endStartTag(XmlWriterSupport.OPEN);
+    streamWriter.startElement("urn:p", "child");
+    streamWriter.attribute("urn:p", "c", "d");
+    streamWriter.endStartTag(XmlWriterSupport.CLOSE);
+    streamWriter.writeCloseTag();
+    streamWriter.close();
+
+    assertEquals(expected.toString(), actual.toString());
+    assertFalse(streamWriter.isNamespaceDefined("urn:p"));
+  }
+
+  public void testStreamingDeclarationOrder() throws IOException
+  {
+    final XmlWriter writer = new XmlWriter(new StringWriter());
+    writer.startElement(null, "root");
+    writer.attribute(null, "a", "b");
+    try
+    {
+      writer.attribute(AttributeList.XMLNS_NAMESPACE, "p", "urn:p");
+      fail();
+    }
+    catch (IllegalStateException ise)
+    {
+      // expected
+    }
+  }
+
+  public void testStreamingDefaultNamespaceDeclaration() throws IOException
+  {
+    final StringWriter expected = new StringWriter();
+    final XmlWriter listWriter = new XmlWriter(expected, new DefaultTagDescription(), "  ", "\n");
+    final AttributeList attrs = new AttributeList();
+    attrs.setAttribute("", "xmlns", "urn:default");
+    attrs.setAttribute("urn:default", "a", "b");
+    listWriter.writeTag("urn:default", "root", attrs, XmlWriterSupport.CLOSE);
+    listWriter.close();
+
+    final StringWriter actual = new StringWriter();
+    final XmlWriter streamWriter = new XmlWriter(actual, new DefaultTagDescription(), "  ", "\n");
+    streamWriter.startElement("urn:default", "root");
+    streamWriter.attribute("", "xmlns", "urn:default");
+    streamWriter.attribute("urn:default", "a", "b");
+    streamWriter.endStartTag(XmlWriterSupport.CLOSE);
+    streamWriter.close();
+
+    assertEquals(expected.toString(), actual.toString());
+    assertEquals("<root xmlns=\"urn:default\" a=\"b\"/>\n", actual.toString());
+  }
+
+  public void testUnfinishedStartTag() throws IOException
+  {
+    final StringWriter out = new StringWriter();
+    final XmlWriter writer = new XmlWriter(out, new DefaultTagDescription(), "", "\n");
+    writer.startElement(null, "root");
+    writer.attribute(null, "a", "b");
+    try
+    {
+      writer.writeText("text");
+      fail();
+    }
+    catch (IllegalStateException ise)
+    {
+      // expected
+    }
+    try
+    {
+      writer.writeTag(null, "child", XmlWriterSupport.CLOSE);
+      fail();
+    }
+    catch (IllegalStateException ise)
+    {
+      // expected
+    }
+    try
+    {
+      writer.writeCloseTag();
+      fail();
+    }
+    catch (IllegalStateException ise)
+    {
+      // expected
+    }
+
+    writer.endStartTag(XmlWriterSupport.OPEN);
+    writer.writeText("text");
+    writer.writeCloseTag();
+    assertEquals("<root a=\"b\">text</root>\n", out.toString());
+  }
+
+  private static class CountingTagDescription implements TagDescription
+  {
+    private int count;
+
+    public boolean hasCData(final String namespace, final String tagname)
+    {
+      count += 1;
+      return "text".equals(tagname);
+    }
+  }
+
+  public void testDeepNesting() throws IOException
+  {
+    final CountingTagDescription tagDescription = new CountingTagDescription();
+    final StringWriter writer = new StringWriter();
+    final XmlWriter xmlWriter = new XmlWriter(writer, tagDescription, " ", "\n");
+    for (int i = 0; i < 40; i++)
+    {
+      xmlWriter.writeTag(null, "level", XmlWriterSupport.OPEN);
+    }
+    xmlWriter.writeTag(null, "text", XmlWriterSupport.OPEN);
+    xmlWriter.writeText("x");
+    xmlWriter.writeCloseTag();
+    for (int i = 0; i < 40; i++)
+    {
+      xmlWriter.writeCloseTag();
+    }
+    xmlWriter.close();
+
+    assertEquals(41, tagDescription.count);
+    assertEquals(0, xmlWriter.getCurrentIndentLevel());
+
+    final String result = writer.toString();
+    assertTrue(result.startsWith("<level>\n <level>\n  <level>\n"));
+    assertTrue(result.indexOf("\n" + repeat(' ', 40) + "<text>x</text>\n") > 0);
+    assertTrue(result.endsWith(" </level>\n</level>\n"));
+  }
+
+  public void testDeepIndentation() throws IOException
+  {
+    // 40 levels outgrow the initial indent buffer more than once; the multi-character
+    // indent string checks that the buffer is built from the writer's own indent string.
+    final int depth = 40;
+    final String indent = "\t. ";
+    final CountingTagDescription tagDescription = new CountingTagDescription();
+    final StringWriter writer = new StringWriter();
+    final XmlWriter xmlWriter = new XmlWriter(writer, tagDescription, indent, "\n");
+    for (int i = 0; i < depth; i++)
+    {
+      xmlWriter.writeTag(null, "level", XmlWriterSupport.OPEN);
+    }
+    xmlWriter.writeTag(null, "text", XmlWriterSupport.OPEN);
+    xmlWriter.writeText("x");
+    xmlWriter.writeCloseTag();
+    for (int i = 0; i < depth; i++)
+    {
+      xmlWriter.writeCloseTag();
+    }
+    xmlWriter.close();
+
+    final StringBuffer expected = new StringBuffer();
+    for (int i = 0; i < depth; i++)
+    {
+      expected.append(repeat(indent, i));
+      expected.append("<level>\n");
+    }
+    expected.append(repeat(indent, depth));
+    expected.append("<text>x</text>\n");
+    for (int i = depth - 1; i >= 0; i--)
+    {
+      expected.append(repeat(indent, i));
+      expected.append("</level>\n");
+    }
+    assertEquals(expected.toString(), writer.toString());
+  }
+
+  public void testIndentationUsesCustomNewLine() throws IOException
+  {
+    final DefaultTagDescription tagDescription = new DefaultTagDescription();
+    tagDescription.addDefaultDefinition(null, false);
+    final StringWriter writer = new StringWriter();
+    final XmlWriter xmlWriter = new XmlWriter(writer, tagDescription, "  ", "\n")
+    {
+      public void writeNewLine(final Writer writer) throws IOException
+      {
+        if (isLineEmpty() == false)
+        {
+          writer.write("|\n");
+          setLineEmpty(true);
+        }
+      }
+    };
+
+    // the text leaves the line open, so that the following indentation has to start a new line.
+    xmlWriter.writeTag(null, "root", XmlWriterSupport.OPEN);
+    xmlWriter.writeText("text");
+    xmlWriter.writeTag(null, "child", XmlWriterSupport.OPEN);
+    xmlWriter.writeText("text");
+    xmlWriter.writeCloseTag();
+    xmlWriter.writeCloseTag();
+    xmlWriter.close();
+    assertEquals("<root>|\ntext|\n  <child>|\ntext|\n  </child>|\n</root>|\n", writer.toString());
+  }
+
+  private static String repeat(final String s, final int count)
+  {
+    final StringBuffer b = new StringBuffer(count * s.length());
+    for (int i = 0; i < count; i++)
+    {
+      b.append(s);
+    }
+    return b.toString();
+  }
+
+  private static String repeat(final char c, final int count)
+  {
+    final StringBuffer b = new StringBuffer(count);
+    for (int i = 0; i < count; i++)
+    {
+      b.append(c);
+    }
+    return b.toString();
+  }
+
+  public void testCompactMode() throws IOException
+  {
+    final CountingTagDescription tagDescription = new CountingTagDescription();
+    final StringWriter writer = new StringWriter();
+    final XmlWriter xmlWriter = new XmlWriter(writer, tagDescription, "  ", "\n");
+    xmlWriter.setCompactMode(true);
+    xmlWriter.writeXmlDeclaration("UTF-8");
+    xmlWriter.writeTag(null, "root", XmlWriterSupport.OPEN);
+    xmlWriter.writeComment("note");
+    xmlWriter.writeTag(null, "child", "a", "b", XmlWriterSupport.CLOSE);
+    xmlWriter.writeNewLine();
+    xmlWriter.writeCloseTag();
+    xmlWriter.close();
+
+    assertEquals(0, tagDescription.count);
+    assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><!-- note --><child a=\"b\"/></root>",
+        writer.toString());
+  }
 }